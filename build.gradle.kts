@@ -16,16 +16,36 @@ repositories {
     mavenCentral()
 }
 
-dependencies {}
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.10.0"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.named<Test>("test") {
+    useJUnitPlatform()
+}
 
 tasks.register("buildAllJars") {
-    dependsOn("jarPortScanner", "jarUDPClient", "jarUDPServer", "jarChatUDPServer", "jarChatUDPClient")
+    dependsOn("jarPortScanner", "jarUDPClient", "jarUDPServer", "jarChatUDPServer", "jarChatUDPClient", "jarChatLoadGenerator", "jarChatSimulation")
 }
 
+// Options are passed with -Pargs, e.g. gradle runPortScanner -Pargs="--ports=5000-6000 --concurrency=8"
 tasks.register<JavaExec>("runPortScanner") {
     mainClass.set("fr.polytech.UDPPortScanner")
     classpath = sourceSets.main.get().runtimeClasspath
     standardInput = System.`in`
+    project.findProperty("args")?.let { args(it.toString().split(" ")) }
 }
 
 tasks.register<JavaExec>("runUDPClient") {
@@ -44,6 +64,7 @@ tasks.register<JavaExec>("runChatUDPServer") {
     mainClass.set("fr.polytech.ChatUDPServer")
     classpath = sourceSets.main.get().runtimeClasspath
     standardInput = System.`in`
+    project.findProperty("args")?.let { args(it.toString().split(" ")) }
 }
 
 tasks.register<JavaExec>("runChatUDPClient") {
@@ -52,6 +73,35 @@ tasks.register<JavaExec>("runChatUDPClient") {
     standardInput = System.`in`
 }
 
+// Runs the JMH benchmarks and writes the results as JSON to build/reports/jmh/results.json
+// A subset can be selected with -Pjmh=<regex>, e.g. gradle jmh -Pjmh=FanOut
+tasks.register<JavaExec>("jmh") {
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+    }
+    args("-rf", "json", "-rff", results.get().asFile.absolutePath)
+    project.findProperty("jmh")?.let { args(it.toString()) }
+}
+
+// Options are passed with -Pargs, e.g. gradle runChatLoadGenerator -Pargs="--clients=1000 --duration=60"
+tasks.register<JavaExec>("runChatLoadGenerator") {
+    mainClass.set("fr.polytech.ChatLoadGenerator")
+    classpath = sourceSets.main.get().runtimeClasspath
+    project.findProperty("args")?.let { args(it.toString().split(" ")) }
+}
+
+// Options are passed with -Pargs, e.g. gradle runChatSimulation -Pargs="--users=10000 --loss=0.02"
+tasks.register<JavaExec>("runChatSimulation") {
+    mainClass.set("fr.polytech.ChatSimulation")
+    classpath = sourceSets.main.get().runtimeClasspath
+    project.findProperty("args")?.let { args(it.toString().split(" ")) }
+}
+
 tasks.register<Jar>("jarPortScanner") {
     archiveBaseName.set("port-scanner")
     manifest {
@@ -92,6 +142,22 @@ tasks.register<Jar>("jarChatUDPServer") {
     from(sourceSets.main.get().output)
 }
 
+tasks.register<Jar>("jarChatLoadGenerator") {
+    archiveBaseName.set("chat-load-generator")
+    manifest {
+        attributes["Main-Class"] = "fr.polytech.ChatLoadGenerator"
+    }
+    from(sourceSets.main.get().output)
+}
+
+tasks.register<Jar>("jarChatSimulation") {
+    archiveBaseName.set("chat-simulation")
+    manifest {
+        attributes["Main-Class"] = "fr.polytech.ChatSimulation"
+    }
+    from(sourceSets.main.get().output)
+}
+
 tasks.named<JavaExec>("run") {
     enabled = false
 }
@@ -43,6 +43,7 @@
         cp build/libs/udp-server-1.0.jar $out/share/tpudp
         cp build/libs/chat-udp-server-1.0.jar $out/share/tpudp
         cp build/libs/chat-udp-client-1.0.jar $out/share/tpudp
+        cp build/libs/chat-load-generator-1.0.jar $out/share/tpudp
 
 
         makeWrapper ${jdk}/bin/java $out/bin/server \
@@ -59,6 +60,9 @@
 
         makeWrapper ${jdk}/bin/java $out/bin/chat-client \
             --add-flags "-jar $out/share/tpudp/chat-udp-client-1.0.jar"
+
+        makeWrapper ${jdk}/bin/java $out/bin/chat-load \
+            --add-flags "-jar $out/share/tpudp/chat-load-generator-1.0.jar"
     '';
 
     meta.sourceProvenance = with lib.sourceTypes; [
@@ -0,0 +1,71 @@
+package fr.polytech;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the string codecs (fixed and varint lengths) of {@link Utils} and the packet type lookup of {@link PacketType}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"8", "64", "512"})
+    public int length;
+
+    private String string;
+    private ByteBuffer writeBuffer;
+    private ByteBuffer readBuffer;
+    private ByteBuffer varReadBuffer;
+    private int packetId;
+
+    @Setup
+    public void setup() {
+        string = "\u00e9".repeat(length / 8) + "a".repeat(length - length / 8);
+        writeBuffer = ByteBuffer.allocate(2048);
+        readBuffer = ByteBuffer.allocate(2048);
+        Utils.putString(readBuffer, string);
+        readBuffer.flip();
+        varReadBuffer = ByteBuffer.allocate(2048);
+        Utils.putVarString(varReadBuffer, string);
+        varReadBuffer.flip();
+    }
+
+    @Benchmark
+    public ByteBuffer putString() {
+        writeBuffer.clear();
+        Utils.putString(writeBuffer, string);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public String extractString() {
+        readBuffer.rewind();
+        return Utils.extractString(readBuffer);
+    }
+
+    @Benchmark
+    public ByteBuffer putVarString() {
+        writeBuffer.clear();
+        Utils.putVarString(writeBuffer, string);
+        return writeBuffer;
+    }
+
+    @Benchmark
+    public String extractVarString() {
+        varReadBuffer.rewind();
+        return Utils.extractVarString(varReadBuffer);
+    }
+
+    @Benchmark
+    public void fromId(Blackhole blackhole) {
+        packetId = (packetId + 1) % PacketType.values().length;
+        blackhole.consume(PacketType.fromId(packetId));
+    }
+}
@@ -0,0 +1,84 @@
+package fr.polytech;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the broadcast and room message fan-outs of {@link ChatUDPServer}.
+ * <p>
+ * All sessions send through a shared {@link StubTransport}, so only the server-side cost is measured.
+ * One session out of ten is in another room, so that room messages have to filter their recipients.
+ * All the sessions use the given wire format (version 2 with the ids feature), so every fan-out encodes its
+ * packet once.
+ * <p>
+ * Fan-outs are either sent inline by the calling thread, or partitioned over the egress pool of
+ * {@link FanOutExecutor}; each invocation waits for its fan-out to be fully sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final String otherRoom = "other";
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int sessionCount;
+
+    @Param({"1", "2"})
+    public int version;
+
+    @Param({"inline", "parallel"})
+    public String mode;
+
+    private StubTransport transport;
+
+    @Setup
+    public void setup() throws Exception {
+        transport = new StubTransport();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        int features = version == Packet.VERSION_1 ? 0 : Packet.FLAG_IDS;
+
+        int inlineThreshold = mode.equals("inline") ? Integer.MAX_VALUE : 0;
+        ChatUDPServer.fanOut = new FanOutExecutor(
+                ChatUDPServer.sessions,
+                Runtime.getRuntime().availableProcessors(),
+                inlineThreshold
+        );
+
+        Room base = ChatUDPServer.addRoom(ChatUDPServer.baseRoom);
+        Room other = ChatUDPServer.addRoom(otherRoom);
+        for (int i = 0; i < sessionCount; i++) {
+            String name = "user" + i;
+            Room room = i % 10 == 0 ? other : base;
+            Session session = new Session(name, i + 1, room.getName(), transport, version, features, address, 1 + i % 65535);
+            room.join(session);
+            ChatUDPServer.sessions.put(name, session);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ChatUDPServer.sessions.clear();
+        ChatUDPServer.clearRooms();
+        ChatUDPServer.fanOut.close();
+        transport.close();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        ChatUDPServer.broadcast("Hello, everyone!");
+        ChatUDPServer.fanOut.flush();
+        return transport.getSent();
+    }
+
+    @Benchmark
+    public long sendRoomMessage() {
+        ChatUDPServer.sendRoomMessage("user1", ChatUDPServer.baseRoom, "Anyone up for a game?");
+        ChatUDPServer.fanOut.flush();
+        return transport.getSent();
+    }
+}
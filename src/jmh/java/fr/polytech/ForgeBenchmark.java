@@ -0,0 +1,71 @@
+package fr.polytech;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the forge*Packet builders of {@link ChatUDPServer}, including the encoding of the packet
+ * in the given wire format (version 2 with the ids feature, and optionally compression).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForgeBenchmark {
+    @Param({"1", "10", "50"})
+    public int entries;
+
+    @Param({"v1", "v2", "v2-compressed"})
+    public String format;
+
+    private int version;
+    private int features;
+
+    private StubTransport transport;
+
+    @Setup
+    public void setup() throws Exception {
+        transport = new StubTransport();
+        InetAddress address = InetAddress.getLoopbackAddress();
+        version = format.equals("v1") ? Packet.VERSION_1 : Packet.VERSION_2;
+        features = switch (format) {
+            case "v2" -> Packet.FLAG_IDS;
+            case "v2-compressed" -> Packet.FLAG_IDS | Packet.FLAG_COMPRESSED;
+            default -> 0;
+        };
+
+        ChatUDPServer.addRoom(ChatUDPServer.baseRoom);
+        for (int i = 0; i < entries; i++) {
+            String name = "user" + i;
+            ChatUDPServer.sessions.put(name, new Session(name, i + 1, ChatUDPServer.baseRoom, transport, version, features, address, 10000 + i));
+            ChatUDPServer.addRoom("room" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ChatUDPServer.sessions.clear();
+        ChatUDPServer.clearRooms();
+        transport.close();
+    }
+
+    @Benchmark
+    public byte[] forgeUserListPacket() {
+        return ChatUDPServer.forgeUserListPacket().encode(version, features);
+    }
+
+    @Benchmark
+    public byte[] forgeRoomListPacket() {
+        return ChatUDPServer.forgeRoomListPacket().encode(version, features);
+    }
+
+    @Benchmark
+    public byte[] forgeRoomSwitchPacket() {
+        return ChatUDPServer.forgeRoomSwitchPacket(ChatUDPServer.baseRoom).encode(version, features);
+    }
+
+}
@@ -0,0 +1,73 @@
+package fr.polytech;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the full-text index of a room ({@link RoomSearchIndex}): indexing a message, and querying a page
+ * of results for a frequent word, a rare word, and two words that rarely appear together.
+ * <p>
+ * Messages are made of words drawn from a skewed vocabulary, so a few words appear in most messages
+ * and most words in a few of them, like in a chat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    private static final int VOCABULARY = 5000;
+    private static final int WORDS_PER_MESSAGE = 8;
+    private static final long MEMORY = 64L * 1024 * 1024;
+
+    @Param({"10000", "100000"})
+    public int messages;
+
+    private RoomSearchIndex index;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        random = new SplittableRandom(42);
+        // Large enough to keep every message of the setup, the added ones then make the oldest ones forgotten
+        index = new RoomSearchIndex(MEMORY);
+        for (int i = 0; i < messages; i++) {
+            index.add("user" + (i % 100), randomMessage());
+        }
+    }
+
+    @Benchmark
+    public RoomSearchIndex.Page searchFrequentWord() {
+        return index.search("w0", 0);
+    }
+
+    @Benchmark
+    public RoomSearchIndex.Page searchRareWord() {
+        return index.search("w4321", 0);
+    }
+
+    @Benchmark
+    public RoomSearchIndex.Page searchRareCombination() {
+        return index.search("w3 w2500", 0);
+    }
+
+    @Benchmark
+    public void add() {
+        index.add("user", randomMessage());
+    }
+
+    /**
+     * Draws the words of a message, the word of rank r having a probability roughly proportional to 1 / r.
+     */
+    private String randomMessage() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_MESSAGE; i++) {
+            int rank = (int) Math.pow(VOCABULARY, random.nextDouble()) - 1;
+            message.append('w').append(rank).append(' ');
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package fr.polytech;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks the session registry of {@link ChatUDPServer} under contention.
+ * <p>
+ * Each group mixes threads joining and leaving (put/remove), threads looking up users (private messages)
+ * and one thread scanning the registry like a room fan-out does.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionRegistryBenchmark {
+    @Param({"1000", "100000"})
+    public int sessionCount;
+
+    private StubTransport transport;
+    private InetAddress address;
+    private final AtomicInteger churnIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Churner {
+        private String name;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        transport = new StubTransport();
+        address = InetAddress.getLoopbackAddress();
+
+        for (int i = 0; i < sessionCount; i++) {
+            String name = "user" + i;
+            ChatUDPServer.sessions.put(name, new Session(name, i + 1, ChatUDPServer.baseRoom, transport, Packet.VERSION_1, 0, address, 1 + i % 65535));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ChatUDPServer.sessions.clear();
+        transport.close();
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(2)
+    public Session joinLeave(Churner churner) {
+        if (churner.name == null) {
+            churner.name = "churn" + churnIds.getAndIncrement();
+        }
+
+        ChatUDPServer.sessions.putIfAbsent(
+                churner.name,
+                new Session(churner.name, 0, ChatUDPServer.baseRoom, transport, Packet.VERSION_1, 0, address, 1)
+        );
+        return ChatUDPServer.sessions.remove(churner.name);
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(4)
+    public Session lookup() {
+        return ChatUDPServer.sessions.get("user" + ThreadLocalRandom.current().nextInt(sessionCount));
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(1)
+    public void scan(Blackhole blackhole) {
+        ChatUDPServer.sessions.values()
+                .stream()
+                .filter(s -> s.getCurrentRoom().equals(ChatUDPServer.baseRoom))
+                .forEach(blackhole::consume);
+    }
+}
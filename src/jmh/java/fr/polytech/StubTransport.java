@@ -0,0 +1,56 @@
+package fr.polytech;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Unbound transport that drops every packet instead of sending it.
+ * <p>
+ * Lets the benchmarks measure the server-side cost of a fan-out (packet creation, session iteration)
+ * without being bound by the kernel send path.
+ */
+class StubTransport implements Transport {
+    /**
+     * Number of packets "sent" through this transport (sessions may send from several fan-out threads)
+     */
+    private final LongAdder sent = new LongAdder();
+
+    @Override
+    public int getLocalPort() {
+        return 0;
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress target) {
+        sent.increment();
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) {
+        throw new UnsupportedOperationException("Stub transports only send");
+    }
+
+    @Override
+    public void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) {
+        throw new UnsupportedOperationException("Stub transports only send");
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    long getSent() {
+        return sent.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.function.Consumer;
+
+/**
+ * {@link Transport} over a NIO {@link DatagramChannel}.
+ * <p>
+ * Registered endpoints are multiplexed over the selector of the event loop, so one thread can read thousands
+ * of them. Until then, the channel is blocking and read through its socket adaptor, which supports timeouts.
+ */
+public class ChannelTransport implements Transport {
+    private final DatagramChannel channel;
+
+    private ChannelTransport(DatagramChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Binds a new endpoint on every local (IPv4) address.
+     *
+     * @param port The local port (0 for any free port)
+     * @return the bound endpoint
+     * @throws IOException if the port could not be bound
+     */
+    public static ChannelTransport bind(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new ChannelTransport(channel);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress target) throws IOException {
+        channel.send(data, target);
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) throws IOException {
+        if (!buffer.hasArray()) {
+            throw new IllegalArgumentException("Blocking receives need a heap buffer");
+        }
+
+        DatagramPacket packet = new DatagramPacket(
+                buffer.array(),
+                buffer.arrayOffset() + buffer.position(),
+                buffer.remaining()
+        );
+        channel.socket().setSoTimeout(timeoutMillis);
+        channel.socket().receive(packet);
+        buffer.position(buffer.position() + packet.getLength());
+
+        return (InetSocketAddress) packet.getSocketAddress();
+    }
+
+    @Override
+    public void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) throws IOException {
+        channel.configureBlocking(false);
+        loop.register(channel, handler);
+    }
+
+    @Override
+    public void drain() throws IOException {
+        boolean blocking = channel.isBlocking();
+        channel.configureBlocking(false);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+        while (channel.receive(buffer) != null) {
+            buffer.clear();
+        }
+
+        channel.configureBlocking(blocking);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more to do
+        }
+    }
+}
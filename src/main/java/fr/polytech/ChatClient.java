@@ -0,0 +1,638 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Embeddable chat client engine, independent of any user interface.
+ * <p>
+ * A ChatClient speaks the chat protocol over a {@link Transport} (a non-blocking {@link DatagramChannel} by default)
+ * driven by a {@link ChatEventLoop}: it sends HELLO, keeps its session alive with heartbeats, tracks the user list,
+ * the room list and the current room, and reports every incoming packet to a {@link ChatClientListener}.
+ * <p>
+ * One event loop can drive many clients, so bots and gateways can run hundreds of connections per JVM
+ * on a single thread. The state of a client is published as immutable {@link ChatClientState} snapshots,
+ * and its sending methods can be called from any thread.
+ */
+public class ChatClient implements AutoCloseable {
+    /**
+     * Delay between two heartbeats, in milliseconds (the server times out sessions after 10 seconds)
+     */
+    private static final long HEARTBEAT_INTERVAL = 5000;
+    /**
+     * Delay after which a HELLO without answer is considered as failed, in milliseconds
+     */
+    private static final long CONNECTION_TIMEOUT = 5000;
+    /**
+     * Wire format features supported by the client
+     */
+    private static final int SUPPORTED_FEATURES = Packet.FLAG_IDS | Packet.FLAG_COMPRESSED | Packet.FLAG_SEQUENCES;
+    /**
+     * Maximum number of messages held back by a reorder buffer
+     */
+    private static final int REORDER_CAPACITY = 64;
+    /**
+     * Delay after which missing messages are given up on, in milliseconds
+     */
+    private static final long REORDER_TIMEOUT = 300;
+
+    private final ChatEventLoop loop;
+    private final InetSocketAddress serverAddress;
+    private final String name;
+    private final ChatClientListener listener;
+    private final Transport transport;
+    private final CompletableFuture<Integer> connection = new CompletableFuture<>();
+
+    /**
+     * Current state snapshot (only replaced on the loop thread)
+     */
+    private volatile ChatClientState state = ChatClientState.INITIAL;
+    /**
+     * Address of the session dedicated to this client (set once connected)
+     */
+    private volatile InetSocketAddress sessionAddress;
+    /**
+     * Wire format negotiated with the server (version 1 until PORT says otherwise)
+     */
+    private volatile int version = Packet.VERSION_1;
+    private volatile int features;
+    /**
+     * Token sent back in the heartbeats, so that a restarted server re-attaches this client to its session
+     * even if its address changed (null if the server does not give one)
+     */
+    private volatile String resumeToken;
+    /**
+     * Names of the users and rooms by id, for servers sending references as ids (only used on the loop thread)
+     */
+    private final Map<Integer, String> userNames = new HashMap<>();
+    private final Map<Integer, String> roomNames = new HashMap<>();
+    /**
+     * Reorder buffers of the sequenced channels, the rooms being indexed by id (only used on the loop thread)
+     */
+    private final ReorderBuffer broadcastBuffer;
+    private final ReorderBuffer privateBuffer;
+    private final Map<Integer, ReorderBuffer> roomBuffers = new HashMap<>();
+    /**
+     * Ids of the rooms received besides the current room (only used on the loop thread)
+     */
+    private final Set<Integer> subscribedRoomIds = new HashSet<>();
+    /**
+     * Channel of the multicast group of the current room, if the server sends it by multicast
+     * (only used on the loop thread)
+     */
+    private DatagramChannel multicastChannel;
+    private ChatEventLoop.Timer heartbeatTimer;
+    private ChatEventLoop.Timer connectionTimer;
+
+    /**
+     * Creates a new client. Nothing is sent until {@link #connect()} is called.
+     *
+     * @param loop          The event loop driving this client
+     * @param serverAddress The address of the server (port 1234 by default)
+     * @param name          The username of the client
+     * @param listener      The listener of the client events
+     * @throws IOException if the channel could not be opened
+     */
+    public ChatClient(ChatEventLoop loop, InetSocketAddress serverAddress, String name, ChatClientListener listener)
+            throws IOException {
+        this(loop, serverAddress, name, listener, ChannelTransport.bind(0));
+    }
+
+    /**
+     * Creates a new client over the given transport. Nothing is sent until {@link #connect()} is called.
+     *
+     * @param loop          The event loop driving this client
+     * @param serverAddress The address of the server (port 1234 by default)
+     * @param name          The username of the client
+     * @param listener      The listener of the client events
+     * @param transport     The bound transport of the client, closed with the client
+     */
+    public ChatClient(
+            ChatEventLoop loop,
+            InetSocketAddress serverAddress,
+            String name,
+            ChatClientListener listener,
+            Transport transport) {
+        this.loop = loop;
+        this.serverAddress = serverAddress;
+        this.name = name;
+        this.listener = listener;
+        this.transport = transport;
+        broadcastBuffer = newReorderBuffer(PacketType.BROADCAST, 0);
+        privateBuffer = newReorderBuffer(PacketType.PRIVATE, 0);
+    }
+
+    /**
+     * Sends HELLO to the server.
+     *
+     * @return a future completed with the session port once the server accepted the connection,
+     * or completed exceptionally with an {@link IllegalStateException} if it was rejected or timed out
+     */
+    public CompletableFuture<Integer> connect() {
+        loop.execute(() -> {
+            if (state.status() != ChatClientState.Status.IDLE) {
+                return;
+            }
+
+            try {
+                transport.register(loop, this::onPacket);
+
+                // HELLO is always sent in version 1, with the highest version and the features of the client appended
+                Packet hello = Packet.of(
+                        PacketType.HELLO,
+                        new Packet.Text(name),
+                        new Packet.Int(Packet.VERSION_2),
+                        new Packet.Int(SUPPORTED_FEATURES)
+                );
+                transport.send(ByteBuffer.wrap(hello.encode(Packet.VERSION_1, 0)), serverAddress);
+            } catch (IOException e) {
+                fail(e.getMessage());
+                return;
+            }
+
+            state = state.withStatus(ChatClientState.Status.CONNECTING);
+            connectionTimer = loop.schedule(CONNECTION_TIMEOUT, () -> fail("No answer from the server"));
+        });
+
+        return connection;
+    }
+
+    /**
+     * Returns the latest snapshot of the state of this client.
+     *
+     * @return the current state snapshot
+     */
+    public ChatClientState getState() {
+        return state;
+    }
+
+    /**
+     * Returns the username of this client.
+     *
+     * @return the username of this client
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Broadcasts a message to all online users.
+     *
+     * @param message The message to broadcast
+     * @throws IOException              if the packet could not be sent
+     * @throws IllegalArgumentException if the message is too long to fit in a packet
+     */
+    public void broadcast(String message) throws IOException {
+        sendToSession(PacketType.BROADCAST, message);
+    }
+
+    /**
+     * Sends a private message to another user.
+     *
+     * @param recipient The name of the recipient
+     * @param message   The message to send
+     * @throws IOException              if the packet could not be sent
+     * @throws IllegalArgumentException if the message is too long to fit in a packet
+     */
+    public void sendPrivateMessage(String recipient, String message) throws IOException {
+        sendToSession(PacketType.PRIVATE, recipient, message);
+    }
+
+    /**
+     * Sends a message to the current room.
+     *
+     * @param message The message to send
+     * @throws IOException              if the packet could not be sent
+     * @throws IllegalArgumentException if the message is too long to fit in a packet
+     */
+    public void sendRoomMessage(String message) throws IOException {
+        sendToSession(PacketType.ROOM_MESSAGE, message);
+    }
+
+    /**
+     * Asks the server to move this client to another room.
+     *
+     * @param room The name of the room to join
+     * @throws IOException if the packet could not be sent
+     */
+    public void switchRoom(String room) throws IOException {
+        sendToSession(PacketType.ROOM_SWITCH, room);
+    }
+
+    /**
+     * Asks the server to send the messages of a room besides the ones of the current room, whatever the room
+     * switches. The server answers with the new list of subscriptions.
+     *
+     * @param room The name of the room to subscribe to
+     * @throws IOException if the packet could not be sent
+     */
+    public void subscribe(String room) throws IOException {
+        sendToSession(PacketType.SUBSCRIBE, room);
+    }
+
+    /**
+     * Asks the server to stop sending the messages of a subscribed room (unless it is the current room).
+     *
+     * @param room The name of the room to unsubscribe from
+     * @throws IOException if the packet could not be sent
+     */
+    public void unsubscribe(String room) throws IOException {
+        sendToSession(PacketType.UNSUBSCRIBE, room);
+    }
+
+    /**
+     * Asks the server to create a room (the client is moved to it if it is created).
+     *
+     * @param room The name of the room to create
+     * @throws IOException if the packet could not be sent
+     */
+    public void createRoom(String room) throws IOException {
+        sendToSession(PacketType.CREATE_ROOM, room);
+    }
+
+    /**
+     * Asks the server to delete a room.
+     *
+     * @param room The name of the room to delete
+     * @throws IOException if the packet could not be sent
+     */
+    public void deleteRoom(String room) throws IOException {
+        sendToSession(PacketType.DELETE_ROOM, room);
+    }
+
+    /**
+     * Searches the messages of the current room. The results are given to
+     * {@link ChatClientListener#onSearchResults}, newest first, one page at a time.
+     *
+     * @param query  The words to look for (the messages containing all of them are found)
+     * @param before The cursor of the page: 0 for the first page, then the cursor given with the previous page
+     * @throws IOException if the packet could not be sent
+     */
+    public void search(String query, int before) throws IOException {
+        sendToSession(Packet.of(PacketType.SEARCH, new Packet.Text(query), new Packet.Int(before)));
+    }
+
+    /**
+     * Stops the heartbeats and closes the transport. The server session will time out.
+     */
+    @Override
+    public void close() {
+        loop.execute(() -> {
+            cancelTimers();
+            leaveMulticastGroup();
+            state = state.withStatus(ChatClientState.Status.CLOSED);
+            connection.completeExceptionally(new IllegalStateException("Client closed"));
+            transport.close();
+        });
+    }
+
+    /**
+     * Handles a packet received from the server (called on the loop thread).
+     */
+    private void onPacket(ByteBuffer packet) {
+        PacketReader reader = PacketReader.read(packet);
+        PacketType type = reader.getType();
+
+        switch (type) {
+            case PORT -> {
+                if (state.status() != ChatClientState.Status.CONNECTING) {
+                    return;
+                }
+
+                int port = reader.readInt();
+                if (reader.hasRemaining()) {
+                    // The server supports the negotiation and answered with the wire format to use
+                    version = reader.readInt();
+                    features = reader.readInt();
+                }
+                if (reader.hasRemaining()) {
+                    resumeToken = reader.readText();
+                }
+                connectionTimer.cancel();
+                sessionAddress = new InetSocketAddress(serverAddress.getAddress(), port);
+                state = state.withSessionPort(port).withStatus(ChatClientState.Status.CONNECTED);
+
+                heartbeat();
+                connection.complete(port);
+                listener.onConnected(port);
+            }
+            case NAME_ALREADY_TAKEN -> fail("Name already taken");
+            case SERVER_FULL -> fail("Server is full");
+            case BROADCAST -> {
+                Packet.Sequence sequence = reader.readSequence();
+                String message = reader.readText();
+                deliver(PacketType.BROADCAST, sequence, () -> listener.onBroadcast(message));
+            }
+            case PRIVATE -> {
+                Packet.Sequence sequence = reader.readSequence();
+                String sender = reader.readName(this::userName);
+                String message = reader.readText();
+                deliver(PacketType.PRIVATE, sequence, () -> listener.onPrivateMessage(sender, message));
+            }
+            case ROOM_MESSAGE -> {
+                Packet.Sequence sequence = reader.readSequence();
+                String sender = reader.readName(this::userName);
+                String message = reader.readText();
+
+                // Messages of the subscribed rooms are told apart by their channel, which is the id of their room
+                String room = sequence != null && subscribedRoomIds.contains(sequence.channel())
+                        ? roomNames.getOrDefault(sequence.channel(), "#" + sequence.channel())
+                        : null;
+                if (room != null && !room.equals(state.currentRoom())) {
+                    deliver(
+                            PacketType.ROOM_MESSAGE,
+                            sequence,
+                            () -> listener.onSubscribedRoomMessage(room, sender, message)
+                    );
+                } else {
+                    deliver(PacketType.ROOM_MESSAGE, sequence, () -> listener.onRoomMessage(sender, message));
+                }
+            }
+            case USER_LIST -> {
+                List<String> users = readNames(reader, userNames);
+                state = state.withUsers(users);
+                listener.onUserList(users);
+            }
+            case ROOM_LIST -> {
+                List<String> rooms = readNames(reader, roomNames);
+                state = state.withRooms(rooms);
+                listener.onRoomList(rooms);
+            }
+            case ROOM_SWITCH -> {
+                String room = reader.readName((id) -> roomNames.getOrDefault(id, "#" + id));
+                // The group of the previous room must not be received anymore
+                leaveMulticastGroup();
+                // The held back messages of the previous room are delivered before the switch
+                // (the subscribed rooms keep being received, so they keep their buffers)
+                roomBuffers.entrySet().removeIf((entry) -> {
+                    if (subscribedRoomIds.contains(entry.getKey())) {
+                        return false;
+                    }
+                    entry.getValue().flush();
+                    return true;
+                });
+                state = state.withCurrentRoom(room);
+                listener.onRoomSwitch(room);
+            }
+            case SUBSCRIPTIONS -> {
+                List<Packet.Named> entries = reader.readList();
+
+                subscribedRoomIds.clear();
+                for (Packet.Named entry : entries) {
+                    roomNames.put(entry.id(), entry.name());
+                    subscribedRoomIds.add(entry.id());
+                }
+
+                List<String> subscriptions = entries.stream().map(Packet.Named::name).toList();
+                state = state.withSubscriptions(subscriptions);
+                listener.onSubscriptions(subscriptions);
+            }
+            case MULTICAST_GROUP -> {
+                String room = reader.readName((id) -> roomNames.getOrDefault(id, "#" + id));
+                String group = reader.readText();
+                int port = reader.readInt();
+
+                leaveMulticastGroup();
+                if (!group.isEmpty() && room.equals(state.currentRoom())) {
+                    joinMulticastGroup(room, group, port);
+                }
+            }
+            case SEARCH_RESULTS -> {
+                String room = reader.readName((id) -> roomNames.getOrDefault(id, "#" + id));
+                String query = reader.readText();
+                int next = reader.readInt();
+                int count = reader.readInt();
+
+                List<SearchHit> hits = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    hits.add(new SearchHit(reader.readText(), reader.readText()));
+                }
+                listener.onSearchResults(room, query, hits, next);
+            }
+            default -> listener.onUnexpectedPacket(type);
+        }
+    }
+
+    /**
+     * Reads a user or room list, and adds its entries to the known names by id.
+     * <p>
+     * The names are kept even if the list is older than the last one received (lists sent by different server
+     * threads may arrive out of order): user ids are never reused by the server, and the id of a deleted room is only
+     * given to a new room, whose name comes with the next room list.
+     */
+    private static List<String> readNames(PacketReader reader, Map<Integer, String> names) {
+        List<Packet.Named> entries = reader.readList();
+
+        for (Packet.Named entry : entries) {
+            names.put(entry.id(), entry.name());
+        }
+
+        return entries.stream().map(Packet.Named::name).toList();
+    }
+
+    /**
+     * Resolves the id of a user (called on the loop thread).
+     */
+    private String userName(int id) {
+        if (id == Packet.SERVER_USER_ID) {
+            return "Server";
+        }
+
+        return userNames.getOrDefault(id, "#" + id);
+    }
+
+    /**
+     * Delivers a message through the reorder buffer of its channel, or right away if it has no sequence number
+     * (called on the loop thread).
+     */
+    private void deliver(PacketType type, Packet.Sequence sequence, Runnable delivery) {
+        if (sequence == null) {
+            delivery.run();
+            return;
+        }
+
+        ReorderBuffer buffer = switch (type) {
+            case BROADCAST -> broadcastBuffer;
+            case PRIVATE -> privateBuffer;
+            default -> roomBuffers.computeIfAbsent(sequence.channel(), (id) -> newReorderBuffer(type, id));
+        };
+        buffer.offer(sequence.value(), delivery);
+    }
+
+    /**
+     * Creates the reorder buffer of a channel, asking the server for the missing messages of the channel.
+     */
+    private ReorderBuffer newReorderBuffer(PacketType type, int channelId) {
+        return new ReorderBuffer(
+                loop,
+                REORDER_CAPACITY,
+                REORDER_TIMEOUT,
+                (first, last) -> {
+                    try {
+                        sendToSession(Packet.of(
+                                PacketType.RESEND,
+                                new Packet.Int(type.getId()),
+                                new Packet.Int(channelId),
+                                new Packet.Int(first),
+                                new Packet.Int(last)
+                        ));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                },
+                (count) -> listener.onMessagesLost(type, count)
+        );
+    }
+
+    /**
+     * Joins the multicast group of the current room, and tells the server once it is joined
+     * (called on the loop thread).
+     */
+    private void joinMulticastGroup(String room, String group, int port) {
+        DatagramChannel groupChannel = null;
+        try {
+            InetAddress groupAddress = InetAddress.getByName(group);
+
+            groupChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+            groupChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            // Binding to the group address filters out the other groups joined on the same host
+            groupChannel.bind(new InetSocketAddress(groupAddress, port));
+            groupChannel.configureBlocking(false);
+            groupChannel.join(groupAddress, multicastInterface());
+            loop.register(groupChannel, this::onPacket);
+
+            multicastChannel = groupChannel;
+            sendToSession(PacketType.MULTICAST_JOINED, room);
+        } catch (IOException e) {
+            // Multicast is not available, the room keeps being received by unicast
+            multicastChannel = null;
+            if (groupChannel != null) {
+                try {
+                    groupChannel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the interface used to reach the server, which is the one the server sends the groups on.
+     */
+    private NetworkInterface multicastInterface() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            probe.connect(serverAddress);
+            InetAddress localAddress = ((InetSocketAddress) probe.getLocalAddress()).getAddress();
+
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(localAddress);
+            if (networkInterface == null) {
+                throw new IOException("No interface for " + localAddress);
+            }
+            return networkInterface;
+        }
+    }
+
+    /**
+     * Leaves the multicast group of the current room, if any (called on the loop thread).
+     */
+    private void leaveMulticastGroup() {
+        if (multicastChannel == null) {
+            return;
+        }
+
+        try {
+            multicastChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        multicastChannel = null;
+    }
+
+    /**
+     * Sends a heartbeat and schedules the next one (called on the loop thread).
+     */
+    private void heartbeat() {
+        if (state.status() != ChatClientState.Status.CONNECTED) {
+            return;
+        }
+
+        try {
+            if (resumeToken != null) {
+                send(sessionAddress, PacketType.HEARTBEAT, resumeToken);
+            } else {
+                send(sessionAddress, PacketType.HEARTBEAT);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        heartbeatTimer = loop.schedule(HEARTBEAT_INTERVAL, this::heartbeat);
+    }
+
+    /**
+     * Marks the connection as failed (called on the loop thread).
+     */
+    private void fail(String reason) {
+        if (state.status() != ChatClientState.Status.CONNECTING && state.status() != ChatClientState.Status.IDLE) {
+            return;
+        }
+
+        cancelTimers();
+        state = state.withStatus(ChatClientState.Status.CLOSED);
+        connection.completeExceptionally(new IllegalStateException(reason));
+        listener.onConnectionFailed(reason);
+    }
+
+    private void cancelTimers() {
+        if (heartbeatTimer != null) {
+            heartbeatTimer.cancel();
+        }
+        if (connectionTimer != null) {
+            connectionTimer.cancel();
+        }
+    }
+
+    private void sendToSession(PacketType type, String... strings) throws IOException {
+        sendToSession(Packet.ofText(type, strings));
+    }
+
+    private void sendToSession(Packet packet) throws IOException {
+        InetSocketAddress address = sessionAddress;
+        if (address == null || state.status() != ChatClientState.Status.CONNECTED) {
+            throw new IllegalStateException("Client is not connected");
+        }
+
+        send(address, packet);
+    }
+
+    /**
+     * Sends a packet made of a type followed by strings, in the negotiated wire format.
+     * Can be called from any thread.
+     */
+    private void send(InetSocketAddress target, PacketType type, String... strings) throws IOException {
+        send(target, Packet.ofText(type, strings));
+    }
+
+    /**
+     * Sends a packet in the negotiated wire format. Sessions drop the packets bigger than
+     * {@link Packet#MAX_CLIENT_SIZE}, so they are refused here instead of being lost silently.
+     */
+    private void send(InetSocketAddress target, Packet packet) throws IOException {
+        byte[] encoded = packet.encode(version, features);
+        if (encoded.length > Packet.MAX_CLIENT_SIZE) {
+            throw new IllegalArgumentException("Packet too big: " + encoded.length + " bytes");
+        }
+        transport.send(ByteBuffer.wrap(encoded), target);
+    }
+}
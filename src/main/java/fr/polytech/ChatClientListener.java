@@ -0,0 +1,124 @@
+package fr.polytech;
+
+import java.util.List;
+
+/**
+ * Listener of the events of a {@link ChatClient}.
+ * <p>
+ * Every method does nothing by default, so that implementations only override the events they need.
+ * Methods are called on the thread of the client's {@link ChatEventLoop}, so they must not block.
+ */
+public interface ChatClientListener {
+    /**
+     * Called when the server accepted the connection and assigned a session port.
+     *
+     * @param port The port of the session dedicated to this client
+     */
+    default void onConnected(int port) {
+    }
+
+    /**
+     * Called when the connection failed (name already taken, server full or no answer).
+     *
+     * @param reason A human-readable reason
+     */
+    default void onConnectionFailed(String reason) {
+    }
+
+    /**
+     * Called when a broadcast message is received.
+     *
+     * @param message The content of the message
+     */
+    default void onBroadcast(String message) {
+    }
+
+    /**
+     * Called when a private message is received.
+     *
+     * @param sender  The name of the user who sent the message
+     * @param message The content of the message
+     */
+    default void onPrivateMessage(String sender, String message) {
+    }
+
+    /**
+     * Called when a message is received in the current room.
+     *
+     * @param sender  The name of the user who sent the message ("Server" for notifications)
+     * @param message The content of the message
+     */
+    default void onRoomMessage(String sender, String message) {
+    }
+
+    /**
+     * Called when a message is received in a subscribed room other than the current room.
+     *
+     * @param room    The name of the room
+     * @param sender  The name of the user who sent the message ("Server" for notifications)
+     * @param message The content of the message
+     */
+    default void onSubscribedRoomMessage(String room, String sender, String message) {
+    }
+
+    /**
+     * Called when the list of the subscribed rooms is received, after a subscription or unsubscription.
+     *
+     * @param rooms The names of the rooms received besides the current room
+     */
+    default void onSubscriptions(List<String> rooms) {
+    }
+
+    /**
+     * Called when the list of online users is received.
+     *
+     * @param users The names of the online users
+     */
+    default void onUserList(List<String> users) {
+    }
+
+    /**
+     * Called when the list of rooms is received.
+     *
+     * @param rooms The names of the available rooms
+     */
+    default void onRoomList(List<String> rooms) {
+    }
+
+    /**
+     * Called when the server moved this client to another room.
+     *
+     * @param room The name of the new current room
+     */
+    default void onRoomSwitch(String room) {
+    }
+
+    /**
+     * Called when a page of search results is received.
+     *
+     * @param room  The room that was searched (the current room when the search was sent)
+     * @param query The query
+     * @param hits  The messages found, newest first
+     * @param next  The cursor of the next page, or 0 if this is the last page
+     */
+    default void onSearchResults(String room, String query, List<SearchHit> hits, int next) {
+    }
+
+    /**
+     * Called when messages missing from a channel are given up on (they were lost, and could not be sent again
+     * in time), so that the following messages can be delivered.
+     *
+     * @param channel The type of the lost messages (BROADCAST, PRIVATE or ROOM_MESSAGE)
+     * @param count   The number of lost messages
+     */
+    default void onMessagesLost(PacketType channel, int count) {
+    }
+
+    /**
+     * Called when a packet of an unexpected type is received.
+     *
+     * @param type The type of the packet
+     */
+    default void onUnexpectedPacket(PacketType type) {
+    }
+}
@@ -0,0 +1,81 @@
+package fr.polytech;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the state of a {@link ChatClient}.
+ * <p>
+ * The client replaces its snapshot on every change, so a snapshot can be read from any thread
+ * and never changes once obtained.
+ *
+ * @param status        The connection status
+ * @param sessionPort   The port of the session dedicated to this client (0 until connected)
+ * @param currentRoom   The room the client is in (null until the first ROOM_SWITCH)
+ * @param users         The names of the online users
+ * @param rooms         The names of the available rooms
+ * @param subscriptions The names of the rooms the client receives besides its current room
+ */
+public record ChatClientState(
+        Status status,
+        int sessionPort,
+        String currentRoom,
+        List<String> users,
+        List<String> rooms,
+        List<String> subscriptions) {
+    /**
+     * Connection status of a client
+     */
+    public enum Status {
+        /**
+         * Not connected yet
+         */
+        IDLE,
+        /**
+         * HELLO sent, waiting for the answer of the server
+         */
+        CONNECTING,
+        /**
+         * Session port received, the client can send messages
+         */
+        CONNECTED,
+        /**
+         * Connection rejected or client closed
+         */
+        CLOSED
+    }
+
+    public ChatClientState {
+        users = List.copyOf(users);
+        rooms = List.copyOf(rooms);
+        subscriptions = List.copyOf(subscriptions);
+    }
+
+    /**
+     * Initial state of a client.
+     */
+    static final ChatClientState INITIAL = new ChatClientState(Status.IDLE, 0, null, List.of(), List.of(), List.of());
+
+    ChatClientState withStatus(Status status) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+
+    ChatClientState withSessionPort(int sessionPort) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+
+    ChatClientState withCurrentRoom(String currentRoom) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+
+    ChatClientState withUsers(List<String> users) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+
+    ChatClientState withRooms(List<String> rooms) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+
+    ChatClientState withSubscriptions(List<String> subscriptions) {
+        return new ChatClientState(status, sessionPort, currentRoom, users, rooms, subscriptions);
+    }
+}
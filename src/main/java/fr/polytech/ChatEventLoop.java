@@ -0,0 +1,191 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Single-threaded event loop driving any number of {@link ChatClient}s.
+ * <p>
+ * The loop thread multiplexes the non-blocking channels of its clients over one {@link Selector},
+ * and runs their timers (heartbeats, join timeouts) and the tasks submitted from other threads.
+ * All the client state is only touched by this thread, so clients need no locking.
+ * <p>
+ * Handlers and listeners are called on the loop thread, so they must not block.
+ * <p>
+ * Each iteration first runs the due timers, then a bounded number of tasks and of datagrams per channel:
+ * heartbeats are timers, so a flood of incoming chat messages can delay them by one budget at most,
+ * never starve them (which would get the session timed out by the server).
+ */
+public class ChatEventLoop implements AutoCloseable {
+    /**
+     * Maximum number of tasks run per iteration
+     */
+    private static final int TASK_BUDGET = 256;
+    /**
+     * Maximum number of datagrams read from a channel per iteration (the others are read on the next ones)
+     */
+    private static final int DATAGRAM_BUDGET = 64;
+
+    /**
+     * Task scheduled to run on the loop thread at a given instant
+     */
+    static final class Timer {
+        private final long deadline;
+        private final Runnable task;
+        private boolean cancelled;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Prevents the task from running (must be called on the loop thread).
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final Selector selector;
+    /**
+     * Tasks submitted from any thread, run on the next loop iteration
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * Pending timers, ordered by deadline (only used on the loop thread)
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>((a, b) -> Long.compare(a.deadline, b.deadline));
+    /**
+     * Buffer reused for every received datagram (only used on the loop thread)
+     */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+    private volatile boolean closed;
+
+    /**
+     * Creates a new event loop and starts its thread.
+     *
+     * @throws IOException if the selector could not be opened
+     */
+    public ChatEventLoop() throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this::run, "chat-event-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on the loop thread. Can be called from any thread.
+     *
+     * @param task The task to run
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Schedules a task on the loop thread (must be called on the loop thread).
+     *
+     * @param delayMillis Delay before running the task, in milliseconds
+     * @param task        The task to run
+     * @return the timer, which can be used to cancel the task
+     */
+    Timer schedule(long delayMillis, Runnable task) {
+        Timer timer = new Timer(System.nanoTime() + delayMillis * 1_000_000L, task);
+        timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Registers a channel whose received datagrams are passed to the given handler
+     * (must be called on the loop thread).
+     * <p>
+     * The handler gets a buffer positioned at the start of the datagram, which is only valid during the call.
+     *
+     * @param channel The non-blocking channel to read from
+     * @param handler The handler of the received datagrams
+     * @throws ClosedChannelException if the channel is closed
+     */
+    void register(DatagramChannel channel, Consumer<ByteBuffer> handler) throws ClosedChannelException {
+        channel.register(selector, SelectionKey.OP_READ, handler);
+    }
+
+    /**
+     * Stops the loop thread. The channels of the clients are not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        try (selector) {
+            while (!closed) {
+                // Timers first: they carry the heartbeats, which must not wait behind the traffic
+                long now = System.nanoTime();
+                while (!timers.isEmpty() && timers.peek().deadline <= now) {
+                    Timer timer = timers.poll();
+                    if (!timer.cancelled) {
+                        runSafely(timer.task);
+                    }
+                }
+
+                Runnable task;
+                for (int i = 0; i < TASK_BUDGET && (task = tasks.poll()) != null; i++) {
+                    runSafely(task);
+                }
+
+                long timeout = 0;
+                if (!timers.isEmpty()) {
+                    timeout = Math.max(1, (timers.peek().deadline - System.nanoTime() + 999_999) / 1_000_000);
+                }
+                int selected = tasks.isEmpty() ? selector.select(timeout) : selector.selectNow();
+                if (selected == 0) {
+                    continue;
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    Consumer<ByteBuffer> handler = (Consumer<ByteBuffer>) key.attachment();
+                    try {
+                        receiveBuffer.clear();
+                        // Datagrams left over are still pending, so the channel is selected again right away
+                        for (int i = 0; i < DATAGRAM_BUDGET && key.isValid()
+                                && channel.receive(receiveBuffer) != null; i++) {
+                            receiveBuffer.flip();
+                            handler.accept(receiveBuffer);
+                            receiveBuffer.clear();
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        // Malformed packet, the channel can still be used
+                        e.printStackTrace();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator for the chat server.
+ * <p>
+ * Simulates many {@link ChatUDPClient} users speaking the same wire protocol (HELLO, PORT, heartbeats,
+ * room switches, broadcast, private and room messages) from a few worker threads.
+ * Every simulated client owns a non-blocking {@link DatagramChannel}, and each worker multiplexes
+ * its clients over a single {@link Selector}.
+ * <p>
+ * Chat messages carry their send timestamp, so the receiving clients can measure the end-to-end latency
+ * (all clients live in the same JVM and share the same clock).
+ * At the end of the run, join throughput, latency percentiles and loss rate are printed.
+ * <p>
+ * Every simulated client uses one file descriptor, so the open files limit (ulimit -n) must be raised
+ * for runs with thousands of clients.
+ */
+public class ChatLoadGenerator {
+    /**
+     * Delay between two heartbeats (same as ChatUDPClient)
+     */
+    private static final long HEARTBEAT_INTERVAL = 5_000_000_000L;
+    /**
+     * Delay after which a HELLO without PORT reply is considered as a failed join
+     */
+    private static final long JOIN_TIMEOUT = 5_000_000_000L;
+    /**
+     * Delay given to in-flight messages to be delivered once the sending phase is over
+     */
+    private static final long DRAIN_DELAY = 2_000_000_000L;
+    /**
+     * Separator between the send timestamp and the padding of a generated message
+     */
+    private static final char TIMESTAMP_SEPARATOR = '|';
+
+    /**
+     * Run configuration, filled from the command line arguments
+     */
+    private static final class Options {
+        String host = "localhost";
+        int port = 1234;
+        int clients = 100;
+        int threads = 2;
+        int joinRate = 500;
+        int duration = 30;
+        double messageRate = 1.0;
+        int broadcastWeight = 5;
+        int privateWeight = 25;
+        int roomWeight = 70;
+        int rooms = 4;
+        double switchRate = 0.01;
+        int messageSize = 64;
+        int reportInterval = 5;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+
+            for (String arg : args) {
+                String[] parts = arg.split("=", 2);
+                if (!arg.startsWith("--") || parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid argument: " + arg);
+                }
+
+                String value = parts[1];
+                switch (parts[0]) {
+                    case "--host" -> options.host = value;
+                    case "--port" -> options.port = Integer.parseInt(value);
+                    case "--clients" -> options.clients = Integer.parseInt(value);
+                    case "--threads" -> options.threads = Integer.parseInt(value);
+                    case "--join-rate" -> options.joinRate = Integer.parseInt(value);
+                    case "--duration" -> options.duration = Integer.parseInt(value);
+                    case "--message-rate" -> options.messageRate = Double.parseDouble(value);
+                    case "--mix" -> {
+                        String[] weights = value.split(":");
+                        if (weights.length != 3) {
+                            throw new IllegalArgumentException("Invalid mix: " + value);
+                        }
+                        options.broadcastWeight = Integer.parseInt(weights[0]);
+                        options.privateWeight = Integer.parseInt(weights[1]);
+                        options.roomWeight = Integer.parseInt(weights[2]);
+                    }
+                    case "--rooms" -> options.rooms = Integer.parseInt(value);
+                    case "--switch-rate" -> options.switchRate = Double.parseDouble(value);
+                    case "--message-size" -> options.messageSize = Integer.parseInt(value);
+                    case "--report-interval" -> options.reportInterval = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option: " + parts[0]);
+                }
+            }
+
+            if (options.clients <= 0 || options.threads <= 0 || options.joinRate <= 0 || options.duration <= 0) {
+                throw new IllegalArgumentException("clients, threads, join-rate and duration must be positive");
+            }
+            if (options.broadcastWeight + options.privateWeight + options.roomWeight <= 0) {
+                throw new IllegalArgumentException("At least one message weight must be positive");
+            }
+            if (options.messageSize > 900) {
+                throw new IllegalArgumentException("Message size must fit in a 1024 bytes packet");
+            }
+
+            return options;
+        }
+    }
+
+    /**
+     * Lifecycle of a simulated client
+     */
+    private enum State {
+        /**
+         * HELLO not sent yet
+         */
+        IDLE,
+        /**
+         * HELLO sent, waiting for the PORT reply
+         */
+        JOINING,
+        /**
+         * PORT received, waiting for the initial ROOM_SWITCH
+         */
+        JOINED,
+        /**
+         * Fully connected, sending messages
+         */
+        READY,
+        /**
+         * Join rejected or timed out
+         */
+        FAILED
+    }
+
+    /**
+     * One simulated chat user
+     */
+    private static final class SimulatedClient {
+        final int index;
+        final String name;
+        final DatagramChannel channel;
+        volatile State state = State.IDLE;
+        InetSocketAddress sessionAddress;
+        String room;
+        long joinAt;
+        long helloSentAt;
+        long nextHeartbeatAt;
+        long nextMessageAt;
+        long wakeupAt;
+
+        SimulatedClient(int index, String name, DatagramChannel channel) {
+            this.index = index;
+            this.name = name;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Growable array of primitive longs, used to record latencies without boxing
+     */
+    private static final class LongArray {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(LongArray other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+
+    private static Options options;
+    private static InetSocketAddress serverAddress;
+    private static SimulatedClient[] clients;
+    private static String[] roomNames;
+    private static String padding;
+    private static long startedAt;
+    private static long sendUntil;
+    private static long stopAt;
+
+    private static final AtomicInteger readyClients = new AtomicInteger();
+    private static final ConcurrentHashMap<String, AtomicInteger> roomMembers = new ConcurrentHashMap<>();
+
+    private static final LongAdder joinsSucceeded = new LongAdder();
+    private static final LongAdder joinsFailed = new LongAdder();
+    private static final AtomicInteger lastJoinOffset = new AtomicInteger();
+    private static final LongAdder broadcastsSent = new LongAdder();
+    private static final LongAdder privatesSent = new LongAdder();
+    private static final LongAdder roomMessagesSent = new LongAdder();
+    private static final LongAdder roomSwitchesSent = new LongAdder();
+    private static final LongAdder sendsDropped = new LongAdder();
+    private static final LongAdder expectedDeliveries = new LongAdder();
+    private static final LongAdder deliveries = new LongAdder();
+    private static final LongAdder invalidPackets = new LongAdder();
+
+    public static void main(String[] args) {
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            printUsage();
+            return;
+        }
+
+        serverAddress = new InetSocketAddress(options.host, options.port);
+        padding = "x".repeat(Math.max(0, options.messageSize - 20));
+        roomNames = new String[options.rooms + 1];
+        roomNames[0] = ChatUDPServer.baseRoom;
+        for (int i = 1; i <= options.rooms; i++) {
+            roomNames[i] = "load-" + i;
+        }
+        for (String room : roomNames) {
+            roomMembers.put(room, new AtomicInteger());
+        }
+
+        // Random prefix so that names do not collide with sessions left over by a previous run
+        String runId = Integer.toString(ThreadLocalRandom.current().nextInt(0x10000), 16);
+        int workerCount = Math.min(options.threads, options.clients);
+        List<List<SimulatedClient>> partitions = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            partitions.add(new ArrayList<>());
+        }
+
+        clients = new SimulatedClient[options.clients];
+        try {
+            for (int i = 0; i < options.clients; i++) {
+                DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+                channel.configureBlocking(false);
+                channel.bind(null);
+                clients[i] = new SimulatedClient(i, "lg" + runId + "-" + i, channel);
+                partitions.get(i % workerCount).add(clients[i]);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: could not open client channels (" + e.getMessage() + ")");
+            closeChannels();
+            return;
+        }
+
+        startedAt = System.nanoTime();
+        long joinPhase = (long) options.clients * 1_000_000_000L / options.joinRate;
+        sendUntil = startedAt + joinPhase + options.duration * 1_000_000_000L;
+        stopAt = sendUntil + DRAIN_DELAY;
+        for (SimulatedClient client : clients) {
+            client.joinAt = startedAt + (long) client.index * 1_000_000_000L / options.joinRate;
+            client.wakeupAt = client.joinAt;
+        }
+
+        System.out.println("Simulating " + options.clients + " clients on " + workerCount + " threads against "
+                + serverAddress);
+
+        List<LongArray> joinLatencies = new ArrayList<>();
+        List<LongArray> messageLatencies = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (List<SimulatedClient> partition : partitions) {
+            LongArray joinLatency = new LongArray();
+            LongArray messageLatency = new LongArray();
+            joinLatencies.add(joinLatency);
+            messageLatencies.add(messageLatency);
+
+            Thread worker = new Thread(() -> runWorker(partition, joinLatency, messageLatency));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        try {
+            long nextReport = startedAt + options.reportInterval * 1_000_000_000L;
+            for (Thread worker : workers) {
+                while (worker.isAlive()) {
+                    worker.join(100);
+                    if (options.reportInterval > 0 && System.nanoTime() >= nextReport) {
+                        printProgress();
+                        nextReport += options.reportInterval * 1_000_000_000L;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeChannels();
+        printReport(merge(joinLatencies), merge(messageLatencies));
+    }
+
+    /**
+     * Event loop of a worker thread.
+     * <p>
+     * Timers (joins, heartbeats and messages) are kept in a priority queue ordered by the next wakeup time
+     * of each client, and the selector is polled until the earliest of them is due.
+     *
+     * @param partition      Clients owned by this worker
+     * @param joinLatency    Where to record the HELLO to PORT latencies, in microseconds
+     * @param messageLatency Where to record the end-to-end message latencies, in microseconds
+     */
+    private static void runWorker(List<SimulatedClient> partition, LongArray joinLatency, LongArray messageLatency) {
+        PriorityQueue<SimulatedClient> timers = new PriorityQueue<>(
+                Math.max(1, partition.size()),
+                (a, b) -> Long.compare(a.wakeupAt, b.wakeupAt)
+        );
+        ByteBuffer sendBuffer = ByteBuffer.allocate(1024);
+        ByteBuffer receiveBuffer = ByteBuffer.allocate(1024);
+
+        try (Selector selector = Selector.open()) {
+            for (SimulatedClient client : partition) {
+                client.channel.register(selector, SelectionKey.OP_READ, client);
+                timers.add(client);
+            }
+
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= stopAt) {
+                    break;
+                }
+
+                while (!timers.isEmpty() && timers.peek().wakeupAt <= now) {
+                    SimulatedClient client = timers.poll();
+                    onTimer(client, now, sendBuffer);
+                    if (client.state != State.FAILED) {
+                        timers.add(client);
+                    }
+                }
+
+                long next = timers.isEmpty() ? stopAt : Math.min(stopAt, timers.peek().wakeupAt);
+                long timeoutMillis = Math.max(1, (next - System.nanoTime()) / 1_000_000);
+                if (selector.select(timeoutMillis) == 0) {
+                    continue;
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SimulatedClient client = (SimulatedClient) key.attachment();
+                    long wakeupAt = client.wakeupAt;
+
+                    receiveBuffer.clear();
+                    while (client.channel.receive(receiveBuffer) != null) {
+                        receiveBuffer.flip();
+                        onPacket(client, receiveBuffer, sendBuffer, joinLatency, messageLatency);
+                        receiveBuffer.clear();
+                    }
+
+                    // Joining packets reschedule the client, so its position in the queue must be refreshed
+                    if (wakeupAt != client.wakeupAt || client.state == State.FAILED) {
+                        timers.remove(client);
+                        if (client.state != State.FAILED) {
+                            timers.add(client);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Worker error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the due timers of a client and computes its next wakeup time.
+     */
+    private static void onTimer(SimulatedClient client, long now, ByteBuffer buffer) throws IOException {
+        switch (client.state) {
+            case IDLE -> {
+                buffer.clear();
+                buffer.putInt(PacketType.HELLO.getId());
+                Utils.putString(buffer, client.name);
+                send(client, buffer, serverAddress);
+
+                client.state = State.JOINING;
+                client.helloSentAt = now;
+                client.wakeupAt = now + JOIN_TIMEOUT;
+                return;
+            }
+            case JOINING -> {
+                client.state = State.FAILED;
+                joinsFailed.increment();
+                return;
+            }
+            default -> {
+            }
+        }
+
+        if (now >= client.nextHeartbeatAt) {
+            sendHeartbeat(client, buffer);
+            client.nextHeartbeatAt += HEARTBEAT_INTERVAL;
+        }
+
+        if (client.state == State.READY && now >= client.nextMessageAt && now < sendUntil) {
+            act(client, buffer);
+            client.nextMessageAt = now + nextMessageDelay();
+        }
+
+        client.wakeupAt = client.state == State.READY && client.nextMessageAt < sendUntil
+                ? Math.min(client.nextHeartbeatAt, client.nextMessageAt)
+                : client.nextHeartbeatAt;
+    }
+
+    /**
+     * Handles a packet received by a client.
+     */
+    private static void onPacket(
+            SimulatedClient client,
+            ByteBuffer packet,
+            ByteBuffer sendBuffer,
+            LongArray joinLatency,
+            LongArray messageLatency) throws IOException {
+        long now = System.nanoTime();
+        PacketType type;
+        try {
+            type = PacketType.fromId(packet.getInt());
+        } catch (RuntimeException e) {
+            invalidPackets.increment();
+            return;
+        }
+
+        switch (type) {
+            case PORT -> {
+                if (client.state != State.JOINING) {
+                    return;
+                }
+
+                client.sessionAddress = new InetSocketAddress(serverAddress.getAddress(), packet.getInt());
+                client.state = State.JOINED;
+                joinLatency.add((now - client.helloSentAt) / 1000);
+                joinsSucceeded.increment();
+                lastJoinOffset.accumulateAndGet((int) ((now - startedAt) / 1_000_000), Math::max);
+
+                sendHeartbeat(client, sendBuffer);
+                client.nextHeartbeatAt = now + HEARTBEAT_INTERVAL;
+                client.wakeupAt = client.nextHeartbeatAt;
+            }
+            case NAME_ALREADY_TAKEN, SERVER_FULL -> {
+                if (client.state == State.JOINING) {
+                    client.state = State.FAILED;
+                    joinsFailed.increment();
+                }
+            }
+            case ROOM_SWITCH -> {
+                String room = Utils.extractString(packet);
+                if (client.room != null) {
+                    roomMembers.computeIfAbsent(client.room, (r) -> new AtomicInteger()).decrementAndGet();
+                }
+                roomMembers.computeIfAbsent(room, (r) -> new AtomicInteger()).incrementAndGet();
+                client.room = room;
+
+                if (client.state == State.JOINED) {
+                    client.state = State.READY;
+                    readyClients.incrementAndGet();
+                    client.nextMessageAt = now + nextMessageDelay();
+                    if (client.nextMessageAt < sendUntil) {
+                        client.wakeupAt = Math.min(client.nextHeartbeatAt, client.nextMessageAt);
+                    }
+
+                    // The first client creates the rooms used by the simulation
+                    if (client.index == 0) {
+                        for (int i = 1; i < roomNames.length; i++) {
+                            sendString(client, sendBuffer, PacketType.CREATE_ROOM, roomNames[i]);
+                        }
+                    }
+                }
+            }
+            case BROADCAST -> recordDelivery(Utils.extractString(packet), now, messageLatency);
+            case PRIVATE, ROOM_MESSAGE -> {
+                String sender = Utils.extractString(packet);
+                String message = Utils.extractString(packet);
+                if (!sender.equals("Server")) {
+                    recordDelivery(message, now, messageLatency);
+                }
+            }
+            default -> {
+                // USER_LIST and ROOM_LIST are not used by the simulation
+            }
+        }
+    }
+
+    /**
+     * Sends the next action of a ready client: a room switch or a message picked according to the mix.
+     */
+    private static void act(SimulatedClient client, ByteBuffer buffer) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (roomNames.length > 1 && random.nextDouble() < options.switchRate) {
+            String room;
+            do {
+                room = roomNames[random.nextInt(roomNames.length)];
+            } while (room.equals(client.room));
+
+            sendString(client, buffer, PacketType.ROOM_SWITCH, room);
+            roomSwitchesSent.increment();
+            return;
+        }
+
+        String message = System.nanoTime() + String.valueOf(TIMESTAMP_SEPARATOR) + padding;
+        int pick = random.nextInt(options.broadcastWeight + options.privateWeight + options.roomWeight);
+
+        if (pick < options.broadcastWeight) {
+            expectedDeliveries.add(readyClients.get());
+            sendString(client, buffer, PacketType.BROADCAST, message);
+            broadcastsSent.increment();
+            return;
+        }
+
+        if (pick < options.broadcastWeight + options.privateWeight) {
+            // Only target clients that are known to be connected, otherwise fall back to a room message
+            for (int attempt = 0; attempt < 4; attempt++) {
+                SimulatedClient target = clients[random.nextInt(clients.length)];
+                if (target != client && target.state == State.READY) {
+                    buffer.clear();
+                    buffer.putInt(PacketType.PRIVATE.getId());
+                    Utils.putString(buffer, target.name);
+                    Utils.putString(buffer, message);
+                    send(client, buffer, client.sessionAddress);
+
+                    expectedDeliveries.increment();
+                    privatesSent.increment();
+                    return;
+                }
+            }
+        }
+
+        expectedDeliveries.add(roomMembers.get(client.room).get());
+        sendString(client, buffer, PacketType.ROOM_MESSAGE, message);
+        roomMessagesSent.increment();
+    }
+
+    /**
+     * Records the latency of a received generated message (messages from other sources are ignored).
+     */
+    private static void recordDelivery(String message, long now, LongArray messageLatency) {
+        int separator = message.indexOf(TIMESTAMP_SEPARATOR);
+        if (separator <= 0) {
+            return;
+        }
+
+        try {
+            long sentAt = Long.parseLong(message, 0, separator, 10);
+            messageLatency.add((now - sentAt) / 1000);
+            deliveries.increment();
+        } catch (NumberFormatException e) {
+            // Not a generated message
+        }
+    }
+
+    /**
+     * Returns a random delay before the next message of a client (exponential distribution, so that the
+     * messages of all the clients form a Poisson process).
+     */
+    private static long nextMessageDelay() {
+        if (options.messageRate <= 0) {
+            return Long.MAX_VALUE / 2;
+        }
+
+        double seconds = -Math.log(1 - ThreadLocalRandom.current().nextDouble()) / options.messageRate;
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    private static void sendHeartbeat(SimulatedClient client, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.putInt(PacketType.HEARTBEAT.getId());
+        send(client, buffer, client.sessionAddress);
+    }
+
+    private static void sendString(SimulatedClient client, ByteBuffer buffer, PacketType type, String string)
+            throws IOException {
+        buffer.clear();
+        buffer.putInt(type.getId());
+        Utils.putString(buffer, string);
+        send(client, buffer, client.sessionAddress);
+    }
+
+    /**
+     * Sends the content of the buffer (from 0 to its current position) through the channel of the client.
+     * A datagram that does not fit in the socket buffer is dropped and counted.
+     */
+    private static void send(SimulatedClient client, ByteBuffer buffer, InetSocketAddress target) throws IOException {
+        buffer.flip();
+        if (client.channel.send(buffer, target) == 0) {
+            sendsDropped.increment();
+        }
+    }
+
+    private static void closeChannels() {
+        for (SimulatedClient client : clients) {
+            if (client == null) {
+                continue;
+            }
+
+            try {
+                client.channel.close();
+            } catch (IOException e) {
+                // Nothing to do, the run is over
+            }
+        }
+    }
+
+    private static long[] merge(List<LongArray> arrays) {
+        LongArray merged = new LongArray();
+        arrays.forEach(merged::addAll);
+        return merged.sorted();
+    }
+
+    private static void printProgress() {
+        long elapsed = (System.nanoTime() - startedAt) / 1_000_000_000L;
+        long sent = broadcastsSent.sum() + privatesSent.sum() + roomMessagesSent.sum();
+        System.out.println("[" + elapsed + "s] joined=" + joinsSucceeded.sum() + " ready=" + readyClients.get()
+                + " failed=" + joinsFailed.sum() + " sent=" + sent + " delivered=" + deliveries.sum());
+    }
+
+    private static void printReport(long[] joinLatency, long[] messageLatency) {
+        long joined = joinsSucceeded.sum();
+        double joinSeconds = Math.max(1, lastJoinOffset.get()) / 1000.0;
+        long expected = expectedDeliveries.sum();
+        long delivered = deliveries.sum();
+        double loss = expected == 0 ? 0 : Math.max(0, 1 - (double) delivered / expected) * 100;
+
+        System.out.println("===== LOAD REPORT =====");
+        System.out.println("Joins:        " + joined + " ok, " + joinsFailed.sum() + " failed, "
+                + String.format("%.1f", joined / joinSeconds) + " joins/s");
+        System.out.println("Join latency: " + formatPercentiles(joinLatency));
+        System.out.println("Sent:         " + broadcastsSent.sum() + " broadcast, " + privatesSent.sum() + " private, "
+                + roomMessagesSent.sum() + " room, " + roomSwitchesSent.sum() + " room switches, "
+                + sendsDropped.sum() + " dropped by the client");
+        System.out.println("Delivered:    " + delivered + " / " + expected + " expected ("
+                + String.format("%.2f", loss) + "% loss)");
+        System.out.println("Latency:      " + formatPercentiles(messageLatency));
+        System.out.println("Invalid:      " + invalidPackets.sum() + " packets");
+        System.out.println("=======================");
+    }
+
+    private static String formatPercentiles(long[] sorted) {
+        if (sorted.length == 0) {
+            return "no samples";
+        }
+
+        return "p50=" + percentile(sorted, 0.50) + "us p90=" + percentile(sorted, 0.90)
+                + "us p99=" + percentile(sorted, 0.99) + "us p99.9=" + percentile(sorted, 0.999)
+                + "us max=" + sorted[sorted.length - 1] + "us";
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.clamp(index, 0, sorted.length - 1)];
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: ChatLoadGenerator [--option=value]...");
+        System.out.println("--host=<host>            Server host (default: localhost)");
+        System.out.println("--port=<port>            Server port (default: 1234)");
+        System.out.println("--clients=<n>            Number of simulated clients (default: 100)");
+        System.out.println("--threads=<n>            Number of worker threads (default: 2)");
+        System.out.println("--join-rate=<n>          HELLO sent per second (default: 500)");
+        System.out.println("--duration=<s>           Sending phase duration after all joins (default: 30)");
+        System.out.println("--message-rate=<r>       Messages per second per client (default: 1.0)");
+        System.out.println("--mix=<b>:<p>:<r>        Broadcast:private:room message weights (default: 5:25:70)");
+        System.out.println("--rooms=<n>              Extra rooms created for the simulation (default: 4)");
+        System.out.println("--switch-rate=<p>        Probability that an action is a room switch (default: 0.01)");
+        System.out.println("--message-size=<bytes>   Size of the generated messages (default: 64)");
+        System.out.println("--report-interval=<s>    Progress report interval, 0 to disable (default: 5)");
+    }
+}
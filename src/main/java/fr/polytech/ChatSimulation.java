@@ -0,0 +1,418 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test running the server and all its clients in one JVM, over an {@link InMemoryNetwork}.
+ * <p>
+ * The network loses, duplicates, delays and reorders the datagrams as configured, from a seed, so the packet loss
+ * conditions seen in production can be reproduced locally (the rates, not the very datagrams hit, see
+ * {@link InMemoryNetwork}). Simulated users are real
+ * {@link ChatClient}s driven by a few event loops: they join, spread over the rooms, then send room messages,
+ * whose delivery, end-to-end latency and reported gaps are measured.
+ * <p>
+ * No file descriptor is used, so the number of users is only bound by the memory, and by the ports of the server:
+ * each session has its own port, so a server holds at most about 64k users, the next ones are rejected.
+ */
+public class ChatSimulation {
+    /**
+     * Address of the simulated server (what "localhost" resolves to, like for the console client)
+     */
+    private static final InetAddress SERVER_HOST = InetAddress.getLoopbackAddress();
+    /**
+     * Number of users sharing a simulated client host
+     */
+    private static final int USERS_PER_HOST = 50_000;
+    /**
+     * Delay given to the created rooms to be known by the server before the users switch to them, in milliseconds
+     */
+    private static final long SWITCH_DELAY = 1000;
+    /**
+     * Delay given to in-flight messages to be delivered once the sending phase is over, in milliseconds
+     */
+    private static final long DRAIN_DELAY = 2000;
+    /**
+     * Separator between the send timestamp and the padding of a generated message
+     */
+    private static final char TIMESTAMP_SEPARATOR = '|';
+
+    /**
+     * Run configuration, filled from the command line arguments
+     */
+    private static final class Options {
+        int users = 1000;
+        int loops = Runtime.getRuntime().availableProcessors();
+        int joinRate = 1000;
+        int rooms = 10;
+        int duration = 30;
+        double messageRate = 0.2;
+        int messageSize = 64;
+        long seed = 1;
+        double loss = 0;
+        double duplication = 0;
+        double reordering = 0;
+        int delay = 0;
+        int jitter = 0;
+        boolean serverLogs = false;
+        int reportInterval = 5;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+
+            for (String arg : args) {
+                String[] parts = arg.split("=", 2);
+                if (!arg.startsWith("--") || parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid argument: " + arg);
+                }
+
+                String value = parts[1];
+                switch (parts[0]) {
+                    case "--users" -> options.users = Integer.parseInt(value);
+                    case "--loops" -> options.loops = Integer.parseInt(value);
+                    case "--join-rate" -> options.joinRate = Integer.parseInt(value);
+                    case "--rooms" -> options.rooms = Integer.parseInt(value);
+                    case "--duration" -> options.duration = Integer.parseInt(value);
+                    case "--message-rate" -> options.messageRate = Double.parseDouble(value);
+                    case "--message-size" -> options.messageSize = Integer.parseInt(value);
+                    case "--seed" -> options.seed = Long.parseLong(value);
+                    case "--loss" -> options.loss = Double.parseDouble(value);
+                    case "--duplication" -> options.duplication = Double.parseDouble(value);
+                    case "--reordering" -> options.reordering = Double.parseDouble(value);
+                    case "--delay" -> options.delay = Integer.parseInt(value);
+                    case "--jitter" -> options.jitter = Integer.parseInt(value);
+                    case "--server-logs" -> options.serverLogs = switch (value) {
+                        case "on" -> true;
+                        case "off" -> false;
+                        default -> throw new IllegalArgumentException("Server logs must be on or off: " + value);
+                    };
+                    case "--report-interval" -> options.reportInterval = Integer.parseInt(value);
+                    default -> throw new IllegalArgumentException("Unknown option: " + parts[0]);
+                }
+            }
+
+            if (options.users <= 0 || options.loops <= 0 || options.joinRate <= 0 || options.duration <= 0) {
+                throw new IllegalArgumentException("users, loops, join-rate and duration must be positive");
+            }
+            if (options.rooms < 0 || options.rooms >= options.users || options.messageRate < 0) {
+                throw new IllegalArgumentException("rooms must be below users, message-rate cannot be negative");
+            }
+            if (options.messageSize > 4000) {
+                throw new IllegalArgumentException("Message size must fit in a " + Packet.MAX_CLIENT_SIZE
+                        + " bytes packet");
+            }
+
+            return options;
+        }
+    }
+
+    /**
+     * One simulated chat user, listening to its own client (called on the loop thread of the client)
+     */
+    private static final class SimulatedUser implements ChatClientListener {
+        final int index;
+        final ChatEventLoop loop;
+        final SplittableRandom random;
+        ChatClient client;
+
+        SimulatedUser(int index, ChatEventLoop loop) {
+            this.index = index;
+            this.loop = loop;
+            this.random = new SplittableRandom(options.seed + index);
+        }
+
+        @Override
+        public void onConnected(int port) {
+            joinsSucceeded.increment();
+            // The first users create the rooms
+            if (index < options.rooms) {
+                try {
+                    client.createRoom(roomName(index + 1));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public void onConnectionFailed(String reason) {
+            joinsFailed.increment();
+        }
+
+        @Override
+        public void onRoomMessage(String sender, String message) {
+            int separator = message.indexOf(TIMESTAMP_SEPARATOR);
+            if (separator <= 0) {
+                return;
+            }
+
+            long latency = (System.nanoTime() - Long.parseLong(message, 0, separator, 10)) / 1000;
+            deliveries.increment();
+            latencySum.add(latency);
+            latencyMax.accumulate(latency);
+        }
+
+        @Override
+        public void onMessagesLost(PacketType channel, int count) {
+            gapsReported.add(count);
+        }
+    }
+
+    /**
+     * Prints the progress of the run every report interval
+     */
+    private static final class Reporter {
+        private final PrintStream console;
+        private final long startedAt;
+        private final InMemoryNetwork network;
+        private long nextReport;
+
+        Reporter(PrintStream console, long startedAt, InMemoryNetwork network) {
+            this.console = console;
+            this.startedAt = startedAt;
+            this.network = network;
+            this.nextReport = startedAt + options.reportInterval * 1_000_000_000L;
+        }
+
+        void tick() {
+            if (options.reportInterval <= 0 || System.nanoTime() < nextReport) {
+                return;
+            }
+
+            nextReport += options.reportInterval * 1_000_000_000L;
+            long elapsed = (System.nanoTime() - startedAt) / 1_000_000_000L;
+            console.println("[" + elapsed + "s] joined=" + joinsSucceeded.sum() + " failed=" + joinsFailed.sum()
+                    + " sent=" + messagesSent.sum() + " delivered=" + deliveries.sum()
+                    + " datagrams=" + network.getSent());
+        }
+    }
+
+    private static Options options;
+    private static String padding;
+
+    /**
+     * Number of members of each room according to the server, refreshed by the main thread
+     * (the view of the clients is wrong whenever a ROOM_SWITCH is lost)
+     */
+    private static volatile Map<String, Integer> roomMembers = Map.of();
+    private static final LongAdder joinsSucceeded = new LongAdder();
+    private static final LongAdder joinsFailed = new LongAdder();
+    private static final LongAdder messagesSent = new LongAdder();
+    private static final LongAdder expectedDeliveries = new LongAdder();
+    private static final LongAdder deliveries = new LongAdder();
+    private static final LongAdder gapsReported = new LongAdder();
+    private static final LongAdder latencySum = new LongAdder();
+    private static final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+
+    public static void main(String[] args) throws Exception {
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            printUsage();
+            return;
+        }
+
+        InMemoryNetwork.Conditions conditions;
+        try {
+            conditions = new InMemoryNetwork.Conditions(
+                    options.loss,
+                    options.duplication,
+                    options.reordering,
+                    options.delay,
+                    options.jitter
+            );
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+
+        padding = "x".repeat(Math.max(0, options.messageSize - 20));
+        PrintStream console = System.out;
+        if (!options.serverLogs) {
+            // The server logs every join and heartbeat, which would drown the reports
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        // The network is never closed: the simulated server runs until the end of the JVM
+        InMemoryNetwork network = new InMemoryNetwork(options.seed, conditions);
+        try {
+            InetSocketAddress serverAddress = new InetSocketAddress(SERVER_HOST, 1234);
+            Thread server = new Thread(
+                    () -> ChatUDPServer.serve(new ServerOptions(), network.host(SERVER_HOST)),
+                    "simulated-server"
+            );
+            server.setDaemon(true);
+            server.start();
+            while (!network.isBound(serverAddress)) {
+                Thread.sleep(10);
+            }
+
+            ChatEventLoop[] loops = new ChatEventLoop[options.loops];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new ChatEventLoop();
+            }
+
+            SimulatedUser[] users = new SimulatedUser[options.users];
+            for (int i = 0; i < users.length; i++) {
+                users[i] = new SimulatedUser(i, loops[i % loops.length]);
+                Transport transport = network.host(clientHost(i)).bind(0);
+                users[i].client = new ChatClient(users[i].loop, serverAddress, "sim-" + i, users[i], transport);
+            }
+
+            console.println("Simulating " + options.users + " users on " + loops.length + " event loops (seed "
+                    + options.seed + ", " + conditions + ")");
+            long startedAt = System.nanoTime();
+            Reporter reporter = new Reporter(console, startedAt, network);
+
+            // Join phase, paced at the join rate
+            for (SimulatedUser user : users) {
+                LockSupport.parkNanos(startedAt + (long) user.index * 1_000_000_000L / options.joinRate
+                        - System.nanoTime());
+                user.client.connect();
+                reporter.tick();
+            }
+            while (joinsSucceeded.sum() + joinsFailed.sum() < options.users) {
+                Thread.sleep(100);
+                reporter.tick();
+            }
+
+            // Spread the users over the rooms (the creators of the rooms already are in theirs)
+            Thread.sleep(SWITCH_DELAY);
+            for (SimulatedUser user : users) {
+                if (user.index >= options.rooms && isConnected(user)) {
+                    user.client.switchRoom(roomName(user.index % (options.rooms + 1)));
+                }
+            }
+            Thread.sleep(SWITCH_DELAY);
+
+            // Sending phase
+            countRoomMembers();
+            long sendUntil = System.nanoTime() + options.duration * 1_000_000_000L;
+            for (SimulatedUser user : users) {
+                if (isConnected(user) && options.messageRate > 0) {
+                    user.loop.execute(() -> scheduleMessage(user, sendUntil));
+                }
+            }
+            while (System.nanoTime() < sendUntil + DRAIN_DELAY * 1_000_000L) {
+                countRoomMembers();
+                Thread.sleep(100);
+                reporter.tick();
+            }
+
+            printReport(console, network);
+            for (SimulatedUser user : users) {
+                user.client.close();
+            }
+            for (ChatEventLoop loop : loops) {
+                loop.close();
+            }
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Sends the next message of a user after an exponential delay, until the end of the sending phase
+     * (called on the loop thread of the user).
+     */
+    private static void scheduleMessage(SimulatedUser user, long sendUntil) {
+        long delay = (long) (-Math.log(1 - user.random.nextDouble()) / options.messageRate * 1000);
+        user.loop.schedule(delay, () -> {
+            if (System.nanoTime() >= sendUntil || !isConnected(user)) {
+                return;
+            }
+
+            try {
+                user.client.sendRoomMessage(System.nanoTime() + String.valueOf(TIMESTAMP_SEPARATOR) + padding);
+                messagesSent.increment();
+                Session session = ChatUDPServer.sessions.get(user.client.getName());
+                if (session != null) {
+                    expectedDeliveries.add(roomMembers.getOrDefault(session.getCurrentRoom(), 0));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            scheduleMessage(user, sendUntil);
+        });
+    }
+
+    /**
+     * Counts the members of each room from the sessions of the server.
+     */
+    private static void countRoomMembers() {
+        Map<String, Integer> members = new HashMap<>();
+        for (Session session : ChatUDPServer.sessions.values()) {
+            members.merge(session.getCurrentRoom(), 1, Integer::sum);
+        }
+        roomMembers = members;
+    }
+
+    private static boolean isConnected(SimulatedUser user) {
+        return user.client.getState().status() == ChatClientState.Status.CONNECTED;
+    }
+
+    /**
+     * Returns the name of a room of the simulation.
+     *
+     * @param room The index of the room (0 for the base room)
+     */
+    private static String roomName(int room) {
+        return room == 0 ? ChatUDPServer.baseRoom : "sim-room-" + room;
+    }
+
+    /**
+     * Returns the simulated host of a user, so that the users are not limited by the ports of a single host.
+     */
+    private static InetAddress clientHost(int index) throws UnknownHostException {
+        int host = 1 + index / USERS_PER_HOST;
+        return InetAddress.getByAddress(new byte[]{10, 0, (byte) (host >> 8), (byte) host});
+    }
+
+    private static void printReport(PrintStream console, InMemoryNetwork network) {
+        long expected = expectedDeliveries.sum();
+        long delivered = deliveries.sum();
+        double loss = expected == 0 ? 0 : Math.max(0, 1 - (double) delivered / expected) * 100;
+
+        console.println("===== SIMULATION REPORT =====");
+        console.println("Joins:      " + joinsSucceeded.sum() + " ok, " + joinsFailed.sum() + " failed");
+        console.println("Messages:   " + messagesSent.sum() + " sent, " + delivered + " / " + expected
+                + " deliveries (" + String.format("%.2f", loss) + "% loss), " + gapsReported.sum()
+                + " given up by the clients");
+        console.println("Latency:    " + (delivered == 0 ? "no samples" : "mean=" + latencySum.sum() / delivered
+                + "us max=" + latencyMax.get() + "us"));
+        console.println("Datagrams:  " + network.getSent() + " sent, " + network.getLost() + " lost, "
+                + network.getDuplicated() + " duplicated, " + network.getReordered() + " reordered, "
+                + network.getDropped() + " dropped");
+        console.println("=============================");
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: ChatSimulation [--option=value]...");
+        System.out.println("--users=<n>              Number of simulated users (default: 1000)");
+        System.out.println("--loops=<n>              Number of event loops driving the users (default: cores)");
+        System.out.println("--join-rate=<n>          HELLO sent per second (default: 1000)");
+        System.out.println("--rooms=<n>              Extra rooms the users are spread over (default: 10)");
+        System.out.println("--duration=<s>           Sending phase duration after all joins (default: 30)");
+        System.out.println("--message-rate=<r>       Room messages per second per user (default: 0.2)");
+        System.out.println("--message-size=<bytes>   Size of the generated messages (default: 64)");
+        System.out.println("--seed=<n>               Seed of the network impairments and of the users (default: 1)");
+        System.out.println("--loss=<p>               Probability that a datagram is lost (default: 0)");
+        System.out.println("--duplication=<p>        Probability that a datagram is duplicated (default: 0)");
+        System.out.println("--reordering=<p>         Probability that a datagram is reordered (default: 0)");
+        System.out.println("--delay=<ms>             Delay of every datagram (default: 0)");
+        System.out.println("--jitter=<ms>            Maximum random delay added to every datagram (default: 0)");
+        System.out.println("--server-logs=<on|off>   Print the logs of the server (default: off)");
+        System.out.println("--report-interval=<s>    Progress report interval, 0 to disable (default: 5)");
+    }
+}
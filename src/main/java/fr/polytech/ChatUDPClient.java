@@ -1,16 +1,12 @@
 package fr.polytech;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ExecutionException;
 
 /**
- * UDP Chat Client implementation that handles communication with a chat server.
+ * Console front-end of the chat client.
  * This client supports features such as:
  * <ul>
  *   <li>User authentication with username</li>
@@ -19,6 +15,8 @@ import java.util.concurrent.atomic.AtomicReference;
  *   <li>Room management (create, join, delete)</li>
  *   <li>Command-based interface for interaction</li>
  * </ul>
+ * The protocol itself is handled by a {@link ChatClient}, this class only reads the commands of the user
+ * and prints the events of the client.
  */
 public class ChatUDPClient {
     public static void main(String[] args) {
@@ -30,146 +28,29 @@ public class ChatUDPClient {
             input = scanner.nextLine();
         } while (input.isBlank() || input.length() > 32);
 
-        // Create socket
-        try (DatagramSocket socket = new DatagramSocket()) {
+        ConsoleListener listener = new ConsoleListener();
+        try (ChatEventLoop loop = new ChatEventLoop();
+             ChatClient client = new ChatClient(loop, new InetSocketAddress("localhost", 1234), input, listener)) {
             System.out.println("Client is running ");
 
-            // Send hello packet
-            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-            byteBuffer.putInt(PacketType.HELLO.getId());
-            Utils.putString(byteBuffer, input);
-
-            DatagramPacket packet = new DatagramPacket(
-                    byteBuffer.array(),
-                    byteBuffer.position(),
-                    InetAddress.getByName("localhost"),
-                    1234
-            );
-            socket.send(packet);
-
-            // Receive new communication port or name already taken packet
-            byte[] buffer = new byte[1024];
-            DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
-            socket.receive(reply);
-            byteBuffer = ByteBuffer.wrap(reply.getData(), 0, reply.getLength());
-            int packetType = byteBuffer.getInt();
-
-            if (packetType == PacketType.NAME_ALREADY_TAKEN.getId()) {
-                System.out.println("Name already taken");
-                // if name already taken, exit
-                return;
-            } else if (packetType != PacketType.PORT.getId()) {
-                System.out.println("Invalid packet type");
-                System.out.println("Received: " + packetType);
-                // if packet type is neither PORT nor NAME_ALREADY_TAKEN, exit
+            // Send hello packet and wait for the new communication port
+            try {
+                int port = client.connect().get();
+                System.out.println("Received new port: " + port);
+            } catch (ExecutionException e) {
+                // if name already taken, server full or no answer, exit
+                System.out.println(e.getCause().getMessage());
                 return;
             }
 
-            // Get new port
-            int port = byteBuffer.getInt();
-            System.out.println("Received new port: " + port);
-
-            // Create heartbeat thread
-            Thread heartbeat = new Thread(() -> {
-                try {
-                    ByteBuffer hbBuffer = ByteBuffer.allocate(4);
-                    hbBuffer.putInt(PacketType.HEARTBEAT.getId());
-                    DatagramPacket hbPacket = new DatagramPacket(
-                            hbBuffer.array(),
-                            hbBuffer.position(),
-                            InetAddress.getByName("localhost"),
-                            port
-                    );
-
-                    while (!socket.isClosed()) {
-                        socket.send(hbPacket);
-                        Thread.sleep(5000);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            heartbeat.setDaemon(true);
-
-
-            // Create lists for users and rooms
-            ArrayList<String> userList = new ArrayList<>();
-            ArrayList<String> roomList = new ArrayList<>();
-            AtomicReference<String> currentRoom = new AtomicReference<>();
-
-            // Create receiving thread
-            Thread receivingThread = new Thread(() -> {
-                try {
-                    while (!socket.isClosed()) {
-                        byte[] receiveBuffer = new byte[1024];
-                        DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
-                        socket.receive(receivePacket);
-                        ByteBuffer receiveByteBuffer = ByteBuffer.wrap(
-                                receivePacket.getData(),
-                                0,
-                                receivePacket.getLength()
-                        );
-                        PacketType type = PacketType.fromId(receiveByteBuffer.getInt());
-
-                        switch (type) {
-                            case BROADCAST:
-                                System.out.println("[Broadcast]: " + Utils.extractString(receiveByteBuffer));
-                                break;
-                            case PRIVATE:
-                                String recipient = Utils.extractString(receiveByteBuffer);
-                                String privateMessage = Utils.extractString(receiveByteBuffer);
-
-                                System.out.println("[" + recipient + " -> You]: " + privateMessage);
-                                break;
-                            case USER_LIST:
-                                String userListStr = Utils.extractString(receiveByteBuffer);
-
-                                userList.clear();
-                                userList.addAll(List.of(userListStr.split(",")));
-
-                                System.out.println("User list: " + userList);
-                                break;
-                            case ROOM_LIST:
-                                String roomListStr = Utils.extractString(receiveByteBuffer);
-
-                                roomList.clear();
-                                roomList.addAll(List.of(roomListStr.split(",")));
-
-                                System.out.println("Room list: " + roomList);
-                                break;
-                            case ROOM_SWITCH:
-                                String roomName = Utils.extractString(receiveByteBuffer);
-
-                                System.out.println("Joined room: " + roomName);
-                                currentRoom.set(roomName);
-                                break;
-                            case ROOM_MESSAGE:
-                                String username = Utils.extractString(receiveByteBuffer);
-                                String roomMessage = Utils.extractString(receiveByteBuffer);
-
-                                System.out.println("<" + username + "> " + roomMessage);
-                                break;
-                            default:
-                                System.out.println("Unknown packet type: " + type);
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-            receivingThread.setDaemon(true);
-
-            // Start threads
-            receivingThread.start();
-            heartbeat.start();
-
-
             // Process user input
             while (true) {
                 do {
                     input = scanner.nextLine();
                 } while (input.isBlank() || input.length() > 32);
 
+                ChatClientState state = client.getState();
+
                 if (input.startsWith("/")) {
                     if (input.equals("/help")) {
                         System.out.println("===== COMMANDS =====");
@@ -178,26 +59,53 @@ public class ChatUDPClient {
                         System.out.println("/room <name>       - Join an existing room");
                         System.out.println("/createroom <name> - Create a new room");
                         System.out.println("/deleteroom <name> - Delete an existing room");
+                        System.out.println("/subscribe <name>  - Also receive the messages of a room");
+                        System.out.println("/unsubscribe <name> - Stop receiving a subscribed room");
+                        System.out.println("/subscriptions     - Display the subscribed rooms");
                         System.out.println("/users             - Display all online users");
                         System.out.println("/rooms             - Display all available rooms");
                         System.out.println("/currentroom       - Show your current room");
+                        System.out.println("/search <words>    - Search the messages of the current room");
+                        System.out.println("/more              - Show the next results of the last search");
                         System.out.println("/help              - Show this help message");
                         System.out.println("/quit              - Exit the chat application");
                         System.out.println("===================");
                     } else if (input.equals("/users")) {
                         System.out.println("===== ONLINE USERS =====");
-                        for (String user : userList) {
+                        for (String user : state.users()) {
                             System.out.println("- " + user);
                         }
                         System.out.println("=======================");
+                    } else if (input.equals("/subscriptions")) {
+                        System.out.println("===== SUBSCRIPTIONS =====");
+                        for (String room : state.subscriptions()) {
+                            System.out.println("- " + room);
+                        }
+                        System.out.println("=======================");
                     } else if (input.equals("/currentroom")) {
-                        System.out.println("Current room: " + currentRoom.get());
+                        System.out.println("Current room: " + state.currentRoom());
                     } else if (input.equals("/rooms")) {
                         System.out.println("======= ROOMS =======");
-                        for (String user : roomList) {
+                        for (String user : state.rooms()) {
                             System.out.println("- " + user);
                         }
                         System.out.println("=======================");
+                    } else if (input.startsWith("/search")) {
+                        String query = input.length() > 8 ? input.substring(8) : "";
+
+                        if (!input.startsWith("/search ") || query.isBlank()) {
+                            System.out.println("Usage: /search <words>");
+                            continue;
+                        }
+
+                        client.search(query, 0);
+                    } else if (input.equals("/more")) {
+                        if (listener.nextPage == 0) {
+                            System.out.println("No more results");
+                            continue;
+                        }
+
+                        client.search(listener.lastQuery, listener.nextPage);
                     } else if (input.equals("/quit")) {
                         break;
                     } else if (input.startsWith("/msg")) {
@@ -209,23 +117,12 @@ public class ChatUDPClient {
                         String recipient = parts[1];
                         String message = parts[2];
 
-                        if (!userList.contains(recipient)) {
+                        if (!state.users().contains(recipient)) {
                             System.out.println("User does not exist");
                             continue;
                         }
 
-                        byteBuffer = ByteBuffer.allocate(1024);
-                        byteBuffer.putInt(PacketType.PRIVATE.getId());
-                        Utils.putString(byteBuffer, recipient);
-                        Utils.putString(byteBuffer, message);
-
-                        packet = new DatagramPacket(
-                                byteBuffer.array(),
-                                byteBuffer.position(),
-                                InetAddress.getByName("localhost"),
-                                port
-                        );
-                        socket.send(packet);
+                        client.sendPrivateMessage(recipient, message);
 
                         System.out.println("[You -> " + recipient + "]: " + message);
                     } else if (input.startsWith("/bc")) {
@@ -241,17 +138,7 @@ public class ChatUDPClient {
                             continue;
                         }
 
-                        byteBuffer = ByteBuffer.allocate(1024);
-                        byteBuffer.putInt(PacketType.BROADCAST.getId());
-                        Utils.putString(byteBuffer, message);
-
-                        packet = new DatagramPacket(
-                                byteBuffer.array(),
-                                byteBuffer.position(),
-                                InetAddress.getByName("localhost"),
-                                port
-                        );
-                        socket.send(packet);
+                        client.broadcast(message);
                     } else if (input.startsWith("/room")) {
                         if (!input.startsWith("/room ")) {
                             System.out.println("Usage: /room <room_name>");
@@ -265,100 +152,153 @@ public class ChatUDPClient {
                             continue;
                         }
 
-                        if (currentRoom.get().equals(roomName)) {
+                        if (roomName.equals(state.currentRoom())) {
                             System.out.println("You are already in this room");
                             continue;
                         }
 
-                        if (!roomList.contains(roomName)) {
+                        if (!state.rooms().contains(roomName)) {
                             System.out.println("Room does not exist");
                             continue;
                         }
 
-                        byteBuffer = ByteBuffer.allocate(1024);
-                        byteBuffer.putInt(PacketType.ROOM_SWITCH.getId());
-                        Utils.putString(byteBuffer, roomName);
-
-                        packet = new DatagramPacket(
-                                byteBuffer.array(),
-                                byteBuffer.position(),
-                                InetAddress.getByName("localhost"),
-                                port
-                        );
-                        socket.send(packet);
+                        client.switchRoom(roomName);
+                    } else if (input.startsWith("/subscribe ") || input.startsWith("/unsubscribe ")) {
+                        boolean subscribe = input.startsWith("/subscribe ");
+                        String roomName = input.substring(input.indexOf(' ') + 1);
+
+                        if (!state.rooms().contains(roomName)) {
+                            System.out.println("Room does not exist");
+                            continue;
+                        }
+
+                        if (subscribe) {
+                            client.subscribe(roomName);
+                        } else {
+                            client.unsubscribe(roomName);
+                        }
                     } else if (input.startsWith("/createroom")) {
-                        String roomName = input.substring(12);
+                        String roomName = input.length() > 12 ? input.substring(12) : "";
 
                         if (roomName.isBlank()) {
                             System.out.println("Error: Room name cannot be empty");
                             continue;
                         }
 
-                        if (roomList.contains(roomName)) {
+                        if (state.rooms().contains(roomName)) {
                             System.out.println("Room already exists");
                             continue;
                         }
 
-                        byteBuffer = ByteBuffer.allocate(1024);
-                        byteBuffer.putInt(PacketType.CREATE_ROOM.getId());
-                        Utils.putString(byteBuffer, roomName);
-
-                        packet = new DatagramPacket(
-                                byteBuffer.array(),
-                                byteBuffer.position(),
-                                InetAddress.getByName("localhost"),
-                                port
-                        );
-                        socket.send(packet);
+                        client.createRoom(roomName);
                     } else if (input.startsWith("/deleteroom")) {
-                        String roomName = input.substring(12);
+                        String roomName = input.length() > 12 ? input.substring(12) : "";
 
                         if (roomName.isBlank()) {
                             System.out.println("Error: Room name cannot be empty");
                             continue;
                         }
 
-                        if (!roomList.contains(roomName)) {
+                        if (!state.rooms().contains(roomName)) {
                             System.out.println("Room does not exist");
                             continue;
                         }
 
-                        byteBuffer = ByteBuffer.allocate(1024);
-                        byteBuffer.putInt(PacketType.DELETE_ROOM.getId());
-                        Utils.putString(byteBuffer, roomName);
-
-                        packet = new DatagramPacket(
-                                byteBuffer.array(),
-                                byteBuffer.position(),
-                                InetAddress.getByName("localhost"),
-                                port
-                        );
-                        socket.send(packet);
+                        client.deleteRoom(roomName);
                     } else {
                         System.out.println("Unknown command (type /help for help)");
                     }
                 } else {
                     // if not a command, send message as is to current room
-                    if (currentRoom.get() == null) {
+                    if (state.currentRoom() == null) {
                         System.out.println("You are not in a room");
                         continue;
                     }
 
-                    byteBuffer = ByteBuffer.allocate(1024);
-                    byteBuffer.putInt(PacketType.ROOM_MESSAGE.getId());
-                    Utils.putString(byteBuffer, input);
-
-                    packet = new DatagramPacket(
-                            byteBuffer.array(),
-                            byteBuffer.position(),
-                            InetAddress.getByName("localhost"),
-                            port
-                    );
-                    socket.send(packet);
+                    client.sendRoomMessage(input);
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Prints the events of the client to the console
+     */
+    private static class ConsoleListener implements ChatClientListener {
+        /**
+         * Query and cursor of the next page of the last search, for /more
+         */
+        private volatile String lastQuery;
+        private volatile int nextPage;
+
+        @Override
+        public void onBroadcast(String message) {
+            System.out.println("[Broadcast]: " + message);
+        }
+
+        @Override
+        public void onPrivateMessage(String sender, String message) {
+            System.out.println("[" + sender + " -> You]: " + message);
+        }
+
+        @Override
+        public void onRoomMessage(String sender, String message) {
+            System.out.println("<" + sender + "> " + message);
+        }
+
+        @Override
+        public void onSubscribedRoomMessage(String room, String sender, String message) {
+            System.out.println("[" + room + "] <" + sender + "> " + message);
+        }
+
+        @Override
+        public void onSubscriptions(List<String> rooms) {
+            System.out.println("Subscriptions: " + rooms);
+        }
+
+        @Override
+        public void onUserList(List<String> users) {
+            System.out.println("User list: " + users);
+        }
+
+        @Override
+        public void onRoomList(List<String> rooms) {
+            System.out.println("Room list: " + rooms);
+        }
+
+        @Override
+        public void onRoomSwitch(String room) {
+            System.out.println("Joined room: " + room);
+        }
+
+        @Override
+        public void onSearchResults(String room, String query, List<SearchHit> hits, int next) {
+            lastQuery = query;
+            nextPage = next;
+
+            System.out.println("===== RESULTS IN " + room + " =====");
+            if (hits.isEmpty()) {
+                System.out.println("No message found");
+            }
+            for (SearchHit hit : hits) {
+                System.out.println("<" + hit.sender() + "> " + hit.message());
+            }
+            if (next != 0) {
+                System.out.println("(/more for the next results)");
+            }
+            System.out.println("=======================");
+        }
+
+        @Override
+        public void onMessagesLost(PacketType channel, int count) {
+            System.out.println("(" + count + " message(s) lost)");
+        }
+
+        @Override
+        public void onUnexpectedPacket(PacketType type) {
+            System.out.println("Unknown packet type: " + type);
+        }
+    }
 }
@@ -1,13 +1,28 @@
 package fr.polytech;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A UDP-based chat server that allows multiple clients to connect, join rooms, and communicate.
@@ -22,100 +37,465 @@ public class ChatUDPServer {
     /**
      * The default room that users join when connecting to the server
      */
-    private static final String baseRoom = "general";
+    static final String baseRoom = "general";
 
     /**
-     * List of all currently available chat rooms in the server
+     * List of all currently available chat rooms in the server, in the order of the room list
+     * (its lock guards the creation and the deletion of the rooms)
      */
-    private static final List<String> rooms = Collections.synchronizedList(new ArrayList<>());
+    static final List<String> rooms = Collections.synchronizedList(new ArrayList<>());
     /**
      * Map of all active user sessions, indexed by username
      */
-    private static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * The rooms of {@link #rooms}, by name. Looking a room up never creates it, so a message or a switch racing
+     * with the deletion of a room cannot bring it back.
+     */
+    private static final ConcurrentHashMap<String, Room> roomsByName = new ConcurrentHashMap<>();
+    /**
+     * Numeric ids of the existing rooms, sent instead of their names to clients using the ids feature, and the last
+     * sequence numbers of the deleted rooms by id (guarded by rooms).
+     * <p>
+     * A new room takes the lowest free id, so the ids, and the subscription bitsets indexed by them, stay below
+     * the highest number of rooms the server had at once. A room reusing an id goes on from the last sequence number
+     * of the deleted room, so the clients that received the deleted room keep the reorder buffer of the channel.
+     */
+    private static final BitSet roomIdsInUse = new BitSet();
+    private static final Map<Integer, Integer> retiredSequences = new HashMap<>();
+
+    /**
+     * Number of messages kept by the room and broadcast channels for the clients asking for missing ones
+     */
+    private static final int CHANNEL_HISTORY = 256;
+    /**
+     * Sequenced channel of the broadcasts (the channels of the rooms are held by the rooms)
+     */
+    private static final SequencedChannel broadcastChannel = new SequencedChannel(0, CHANNEL_HISTORY);
+
+    /**
+     * Memory the full-text index of each room may use, in bytes
+     * (replaced in main with the configured one, 0 disables the search)
+     */
+    static long searchMemory = 1024 * 1024;
+
+    /**
+     * Next id given to a user (user id 0 is reserved for the server notifications)
+     */
+    private static final AtomicInteger nextUserId = new AtomicInteger(Packet.SERVER_USER_ID + 1);
+    /**
+     * Generates the resume tokens of the sessions
+     */
+    private static final SecureRandom tokens = new SecureRandom();
+
+    /**
+     * Multicast fan-out of the large rooms (null when only unicast is used)
+     */
+    static MulticastFanOut multicast = null;
+
+    /**
+     * Executor of the broadcasts and room messages (replaced in serve with the configured one, which is closed
+     * when the server stops)
+     */
+    static FanOutExecutor fanOut = new FanOutExecutor(sessions, Runtime.getRuntime().availableProcessors(), 256);
+
+    /**
+     * Coalesces the user list updates and the room announcements (replaced in main with the configured window)
+     */
+    static PresenceAggregator presence = new PresenceAggregator(
+            0,
+            ChatUDPServer::sendUserList,
+            (room, message) -> sendRoomMessage("Server", room, message)
+    );
 
     public static void main(String[] args) {
+        ServerOptions options;
+        try {
+            options = ServerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            ServerOptions.printUsage();
+            return;
+        }
+
+        serve(options, options.transport);
+    }
+
+    /**
+     * Runs the server until its main socket fails.
+     * <p>
+     * The sockets are bound by the given binder, so the server can run over a simulated network
+     * (the multicast fan-out still uses the real network).
+     *
+     * @param options The configuration of the server
+     * @param binder  Binds the main socket and the session sockets
+     */
+    static void serve(ServerOptions options, Transport.Binder binder) {
+        // Wire format features offered to the clients
+        int supportedFeatures = Packet.FLAG_IDS
+                | Packet.FLAG_SEQUENCES
+                | (options.compression ? Packet.FLAG_COMPRESSED : 0);
+
+        // The executor is owned by this run of the server, and closed when it stops
+        FanOutExecutor executor = new FanOutExecutor(sessions, options.fanOutThreads, options.fanOutInline);
+        fanOut.close();
+        fanOut = executor;
+        searchMemory = options.searchMemory * 1024L;
+
         // Add the default room to the list of rooms
-        rooms.add(baseRoom);
+        addRoom(baseRoom);
+        presence = new PresenceAggregator(
+                options.presenceWindow,
+                ChatUDPServer::sendUserList,
+                (room, message) -> sendRoomMessage("Server", room, message)
+        );
+
+        if (options.multicastGroup != null) {
+            try {
+                NetworkInterface networkInterface = options.multicastInterface != null
+                        ? options.multicastInterface
+                        : NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+                multicast = new MulticastFanOut(
+                        options.multicastGroup,
+                        options.multicastPort,
+                        networkInterface,
+                        options.multicastThreshold,
+                        sessions::values,
+                        ChatUDPServer::roomId
+                );
+            } catch (IOException e) {
+                System.out.println("Multicast is not available, using unicast only: " + e.getMessage());
+            }
+        }
+
+        // Pre-bind the session sockets, so that no socket is bound on the join path
+        SessionPortAllocator portAllocator = new SessionPortAllocator(
+                binder,
+                options.sessionPorts,
+                options.warmPool,
+                options.quarantine
+        );
+
+        // Resume the rooms and sessions of the previous run, and keep saving them
+        if (options.snapshot != null) {
+            restore(options.snapshot, portAllocator);
+            startSnapshots(options.snapshot, options.snapshotInterval);
+        }
 
         // Create main server socket
-        try (DatagramSocket socket = new DatagramSocket(1234)) {
+        try (Transport socket = binder.bind(1234)) {
             System.out.println("Server is running on port 1234");
 
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
             while (true) {
-                byte[] buffer = new byte[1024];
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
-
-                // Received a packet
-                ByteBuffer byteBuffer = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
-                if (byteBuffer.getInt() != PacketType.HELLO.getId()) {
-                    System.out.println("Received invalid packet type from new connection");
-                    continue;
-                }
+                byteBuffer.clear();
+                InetSocketAddress sender = socket.receive(byteBuffer, 0);
+                byteBuffer.flip();
+
+                // A malformed HELLO (e.g. cut short) is dropped, the server goes on
+                try {
+                    // Received a packet
+                    if (byteBuffer.getInt() != PacketType.HELLO.getId()) {
+                        System.out.println("Received invalid packet type from new connection");
+                        continue;
+                    }
 
-                // The packet should contain the username
-                String name = Utils.extractString(byteBuffer);
-
-                // If username is already taken, reject the connection
-                if (sessions.containsKey(name)) {
-                    System.out.println("Rejecting connection using name " + name + " (already taken)");
-                    DatagramPacket usernameTakenPacket = new DatagramPacket(
-                            ByteBuffer.allocate(4).putInt(PacketType.NAME_ALREADY_TAKEN.getId()).array(),
-                            4,
-                            packet.getAddress(),
-                            packet.getPort()
+                    // The packet should contain the username
+                    String name = Utils.extractString(byteBuffer);
+
+                    // Clients supporting the version 2 of the wire format append their highest version and features
+                    boolean negotiated = byteBuffer.remaining() >= 8;
+                    int version = Packet.VERSION_1;
+                    int features = 0;
+                    if (negotiated) {
+                        version = Math.clamp(byteBuffer.getInt(), Packet.VERSION_1, Packet.VERSION_2);
+                        features = version == Packet.VERSION_1 ? 0 : byteBuffer.getInt() & supportedFeatures;
+                    }
+
+                    // If username is already taken, reject the connection
+                    if (sessions.containsKey(name)) {
+                        System.out.println("Rejecting connection using name " + name + " (already taken)");
+                        socket.send(ByteBuffer.allocate(4).putInt(0, PacketType.NAME_ALREADY_TAKEN.getId()), sender);
+                        continue;
+                    }
+
+                    // Get a socket for the new session, or reject the connection if every session port is in use
+                    Transport sessionSocket = portAllocator.acquire();
+                    if (sessionSocket == null) {
+                        System.out.println("Rejecting connection using name " + name + " (no session port available)");
+                        socket.send(ByteBuffer.allocate(4).putInt(0, PacketType.SERVER_FULL.getId()), sender);
+                        continue;
+                    }
+
+                    // Create a new session for the user
+                    System.out.println("User " + name + " joined");
+
+                    String resumeToken = HexFormat.of().toHexDigits(tokens.nextLong());
+                    Session session = openSession(
+                            name,
+                            nextUserId.getAndIncrement(),
+                            baseRoom,
+                            sessionSocket,
+                            version,
+                            features,
+                            resumeToken,
+                            null,
+                            portAllocator
                     );
-                    socket.send(usernameTakenPacket);
-                    continue;
-                }
+                    roomsByName.get(baseRoom).join(session);
+                    sessions.put(name, session);
 
-                // Create a new session for the user
-                System.out.println("User " + name + " joined");
-
-                Session session = new Session(
-                        name,
-                        baseRoom,
-                        () -> sessions.remove(name),
-                        ChatUDPServer::broadcast,
-                        (String target, String msg) -> sendPrivateMessage(name, target, msg),
-                        ChatUDPServer::forgeUserListPacket,
-                        ChatUDPServer::forgeRoomListPacket,
-                        (String room) -> {
-                            if (createRoom(room)) {
-                                switchRoom(name, room);
-                                return true;
-                            }
-                            return false;
-                        },
-                        ChatUDPServer::deleteRoom,
-                        (String room, String message) -> ChatUDPServer.sendRoomMessage(name, room, message),
-                        (String roomName) -> switchRoom(name, roomName)
-                );
-                sessions.put(name, session);
-
-                // Send new port to the user
-                ByteBuffer portBuffer = ByteBuffer.allocate(8);
-                portBuffer.putInt(PacketType.PORT.getId());
-                portBuffer.putInt(session.getPort());
-                DatagramPacket portPacket = new DatagramPacket(
-                        portBuffer.array(),
-                        portBuffer.position(),
-                        packet.getAddress(),
-                        packet.getPort()
-                );
-                socket.send(portPacket);
-
-                // Resend updated user list to everyone except the new user
-                // (will be sent automatically to the new user once we receive the initial heartbeat)
-                ByteBuffer userListBuffer = forgeUserListPacket();
-                sessions.entrySet()
-                        .stream()
-                        .filter((entry) -> !entry.getKey().equals(name))
-                        .forEach((entry) -> entry.getValue().send(userListBuffer));
+                    // Send new port to the user, followed by the negotiated wire format and the resume token
+                    // if the client asked for it
+                    ByteBuffer portBuffer = ByteBuffer.allocate(64);
+                    portBuffer.putInt(PacketType.PORT.getId());
+                    portBuffer.putInt(session.getPort());
+                    if (negotiated) {
+                        portBuffer.putInt(version);
+                        portBuffer.putInt(features);
+                        Utils.putString(portBuffer, resumeToken);
+                    }
+                    socket.send(portBuffer.flip(), sender);
+
+                    // Resend updated user list to everyone, with the other joins of the presence window
+                    // (the new user gets it on its initial heartbeat, until then nothing can be sent to it)
+                    presence.userListChanged();
+                } catch (RuntimeException e) {
+                    System.out.println("Dropping invalid HELLO from " + sender + ": " + e);
+                }
             }
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
+        } finally {
+            executor.close();
+        }
+    }
+
+    /**
+     * Creates a session and starts its thread (the session is neither registered in {@link #sessions}
+     * nor a member of its room yet).
+     *
+     * @param name          The name of the user
+     * @param id            The id of the user
+     * @param room          The room the user is in
+     * @param transport     The socket of the session, given back to the allocator when the session ends
+     * @param version       The negotiated wire format version
+     * @param features      The negotiated wire format features
+     * @param resumeToken   The resume token given to the client
+     * @param resumeAddress The address of the client before a restart, or null for a new session
+     * @param portAllocator The allocator the socket comes from
+     * @return the new session
+     */
+    private static Session openSession(
+            String name,
+            int id,
+            String room,
+            Transport transport,
+            int version,
+            int features,
+            String resumeToken,
+            InetSocketAddress resumeAddress,
+            SessionPortAllocator portAllocator) {
+        return new Session(
+                name,
+                id,
+                room,
+                transport,
+                version,
+                features,
+                resumeToken,
+                resumeAddress,
+                () -> {
+                    endSession(name);
+                    portAllocator.release(transport);
+                    presence.userListChanged();
+                },
+                ChatUDPServer::broadcast,
+                (String target, String msg) -> sendPrivateMessage(name, target, msg),
+                ChatUDPServer::forgeUserListPacket,
+                ChatUDPServer::forgeRoomListPacket,
+                ChatUDPServer::forgeRoomSwitchPacket,
+                (PacketType channel, Integer channelId) -> sequencedChannel(name, channel, channelId),
+                (String newRoom) -> {
+                    if (createRoom(name, newRoom)) {
+                        switchRoom(name, newRoom);
+                        return true;
+                    }
+                    return false;
+                },
+                ChatUDPServer::deleteRoom,
+                (String roomName, String message) -> postRoomMessage(name, roomName, message),
+                (String roomName) -> switchRoom(name, roomName),
+                (String query, Integer before) -> search(name, query, before),
+                (String roomName, Boolean subscribed) -> subscribe(name, roomName, subscribed)
+        );
+    }
+
+    /**
+     * Takes a snapshot of the rooms and the live sessions.
+     *
+     * @return the state of the server
+     */
+    static ServerSnapshot snapshot() {
+        List<ServerSnapshot.RoomState> roomStates;
+        int nextRoomId;
+        synchronized (rooms) {
+            roomStates = rooms.stream()
+                    .map(roomsByName::get)
+                    .map((room) -> new ServerSnapshot.RoomState(
+                            room.getName(),
+                            room.getId(),
+                            room.getChannel().getLastSequence()
+                    ))
+                    .toList();
+            nextRoomId = roomIdsInUse.length();
         }
+
+        List<ServerSnapshot.SessionState> sessionStates = sessions.values()
+                .stream()
+                .map((session) -> new ServerSnapshot.SessionState(
+                        session.getName(),
+                        session.getId(),
+                        session.getCurrentRoom(),
+                        session.getPort(),
+                        session.getVersion(),
+                        session.getFeatures(),
+                        session.getClientAddress(),
+                        session.getResumeToken(),
+                        session.getPrivateChannel().getLastSequence(),
+                        Arrays.stream(session.getSubscriptions()).boxed().toList()
+                ))
+                .toList();
+
+        // The counter is read last, so that it is above every user id of the snapshot
+        return new ServerSnapshot(
+                System.currentTimeMillis(),
+                nextUserId.get(),
+                nextRoomId,
+                broadcastChannel.getLastSequence(),
+                roomStates,
+                sessionStates
+        );
+    }
+
+    /**
+     * Saves a snapshot of the server, keeping the previous one if it cannot be written.
+     *
+     * @param file The snapshot file
+     */
+    private static synchronized void saveSnapshot(Path file) {
+        try {
+            snapshot().write(file);
+        } catch (IOException e) {
+            System.out.println("Could not save the snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves a snapshot periodically, and a last one when the server is stopped (e.g. for a deploy).
+     *
+     * @param file           The snapshot file
+     * @param intervalMillis Delay between two snapshots, in milliseconds
+     */
+    private static void startSnapshots(Path file, int intervalMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((task) -> {
+            Thread thread = new Thread(task, "snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(
+                () -> saveSnapshot(file),
+                intervalMillis,
+                intervalMillis,
+                TimeUnit.MILLISECONDS
+        );
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> saveSnapshot(file), "snapshot-on-exit"));
+    }
+
+    /**
+     * Restores the rooms and the sessions saved by a previous run of the server.
+     * <p>
+     * Each session gets back the port its client knows, so the clients keep heartbeating and re-attach without
+     * a new HELLO. Sessions whose port cannot be bound anymore, or whose client never sent a heartbeat, are dropped
+     * (their clients have to join again), and the other ones time out as usual if their client is gone.
+     *
+     * @param file          The snapshot file (nothing is restored if it does not exist or is invalid)
+     * @param portAllocator The allocator of the session sockets
+     */
+    private static void restore(Path file, SessionPortAllocator portAllocator) {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        ServerSnapshot snapshot;
+        try {
+            snapshot = ServerSnapshot.read(file);
+        } catch (IOException e) {
+            System.out.println("Ignoring snapshot " + file + ": " + e.getMessage());
+            return;
+        }
+
+        nextUserId.set(Math.max(nextUserId.get(), snapshot.nextUserId()));
+        broadcastChannel.restore(snapshot.broadcastLast());
+
+        // The saved rooms replace the ones of the same name (the base room), with their saved ids
+        synchronized (rooms) {
+            for (ServerSnapshot.RoomState room : snapshot.rooms()) {
+                Room existing = roomsByName.remove(room.name());
+                if (existing != null) {
+                    rooms.remove(room.name());
+                    roomIdsInUse.clear(existing.getId());
+                }
+            }
+            for (ServerSnapshot.RoomState room : snapshot.rooms()) {
+                if (roomIdsInUse.get(room.id())) {
+                    System.out.println("Could not restore room " + room.name() + ": id " + room.id() + " is taken");
+                    continue;
+                }
+                registerRoom(room.name(), room.id(), room.lastSequence());
+            }
+        }
+
+        int restored = 0;
+        for (ServerSnapshot.SessionState state : snapshot.sessions()) {
+            Room room = roomsByName.get(state.room());
+            if (state.clientAddress() == null || room == null) {
+                continue;
+            }
+
+            Transport sessionSocket = portAllocator.acquire(state.port());
+            if (sessionSocket == null) {
+                System.out.println("Could not restore the session of " + state.name() + " on port " + state.port());
+                continue;
+            }
+
+            Session session = openSession(
+                    state.name(),
+                    state.id(),
+                    state.room(),
+                    sessionSocket,
+                    state.version(),
+                    state.features(),
+                    state.resumeToken(),
+                    state.clientAddress(),
+                    portAllocator
+            );
+            session.getPrivateChannel().restore(state.privateLast());
+            room.join(session);
+            for (int roomId : state.subscriptions()) {
+                Room subscribed = roomById(roomId);
+                if (subscribed != null && subscribed.join(session)) {
+                    session.setSubscribed(roomId, true);
+                }
+            }
+            sessions.put(state.name(), session);
+            restored++;
+        }
+
+        System.out.println("Restored " + snapshot.rooms().size() + " rooms and " + restored + "/"
+                + snapshot.sessions().size() + " sessions from a snapshot taken "
+                + (System.currentTimeMillis() - snapshot.savedAt()) + " ms ago");
     }
 
     /**
@@ -124,13 +504,19 @@ public class ChatUDPServer {
      *
      * @param message The message to broadcast to all connected users
      */
-    private static void broadcast(String message) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.BROADCAST.getId());
-        Utils.putString(buffer, message);
+    static void broadcast(String message) {
+        Packet packet = broadcastChannel.stamp(
+                (sequence) -> Packet.of(PacketType.BROADCAST, sequence, new Packet.Text(message))
+        );
 
-        sessions.values()
-                .forEach((session) -> session.send(buffer));
+        // The members of the multicast rooms receive it through the groups
+        Set<String> multicastRooms = multicast != null ? multicast.sendToAll(packet) : Set.of();
+
+        fanOut.submit(
+                FanOutExecutor.BROADCAST_LANE,
+                (session) -> !session.isMulticastMember() || !multicastRooms.contains(session.getCurrentRoom()),
+                packet
+        );
     }
 
     /**
@@ -140,50 +526,106 @@ public class ChatUDPServer {
      * @param username The name of the user sending the message
      * @param target   The name of the user receiving the message
      * @param message  The content of the private message
-     * @return true if the message was sent successfully, false otherwise
+     * @return true if the message was sent successfully, false if the target is not connected
      */
     private static boolean sendPrivateMessage(String username, String target, String message) {
-        if (!sessions.containsKey(username)) {
+        Session targetSession = sessions.get(target);
+        if (targetSession == null) {
             return false;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.PRIVATE.getId());
-        Utils.putString(buffer, username);
-        Utils.putString(buffer, message);
-
-        sessions.get(target).send(buffer);
+        targetSession.send(targetSession.getPrivateChannel().stamp(
+                (sequence) -> Packet.of(PacketType.PRIVATE, sequence, userReference(username), new Packet.Text(message))
+        ));
 
         return true;
     }
 
-    private static ByteBuffer forgeUserListPacket() {
-        String userList = String.join(",", sessions.keySet());
+    /**
+     * Sends the list of the connected users to every user, through the control lane.
+     */
+    private static void sendUserList() {
+        fanOut.submitControl((s) -> true, forgeUserListPacket());
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.USER_LIST.getId());
-        Utils.putString(buffer, userList);
+    /**
+     * Creates a packet containing the list of all connected users, with their ids.
+     *
+     * @return A USER_LIST packet with all usernames
+     */
+    static Packet forgeUserListPacket() {
+        List<Packet.Named> users = sessions.values()
+                .stream()
+                .map((session) -> new Packet.Named(session.getId(), session.getName()))
+                .toList();
 
-        return buffer;
+        return Packet.of(PacketType.USER_LIST, new Packet.NamedList(users));
     }
 
     /**
      * Creates a packet containing the list of all available chat rooms.
      * <p>
-     * This method formats the room names into a comma-separated string and
-     * constructs a ByteBuffer containing a ROOM_LIST packet that can be
-     * sent to clients.
+     * This method lists the room names with their ids and constructs a ROOM_LIST packet
+     * that can be sent to clients.
      *
-     * @return A ByteBuffer containing the ROOM_LIST packet with all room names
+     * @return A ROOM_LIST packet with all room names
      */
-    private static ByteBuffer forgeRoomListPacket() {
-        String roomList = String.join(",", rooms);
+    static Packet forgeRoomListPacket() {
+        List<Packet.Named> roomList;
+        synchronized (rooms) {
+            roomList = rooms.stream()
+                    .map(roomsByName::get)
+                    .map((room) -> new Packet.Named(room.getId(), room.getName()))
+                    .toList();
+        }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.ROOM_LIST.getId());
-        Utils.putString(buffer, roomList);
+        return Packet.of(PacketType.ROOM_LIST, new Packet.NamedList(roomList));
+    }
 
-        return buffer;
+    /**
+     * Adds a room without members, with the lowest free id.
+     *
+     * @param name The name of the room
+     * @return the new room, or null if a room already has this name
+     */
+    static Room addRoom(String name) {
+        synchronized (rooms) {
+            if (roomsByName.containsKey(name)) {
+                return null;
+            }
+
+            int id = roomIdsInUse.nextClearBit(0);
+            return registerRoom(name, id, retiredSequences.getOrDefault(id, 0));
+        }
+    }
+
+    /**
+     * Forgets every room and the ids they had, so that the benchmarks start from a server without rooms.
+     */
+    static void clearRooms() {
+        synchronized (rooms) {
+            rooms.clear();
+            roomsByName.clear();
+            roomIdsInUse.clear();
+            retiredSequences.clear();
+        }
+    }
+
+    /**
+     * Adds a room with a given id (the caller holds the lock of rooms, and checked that the name and the id are free).
+     *
+     * @param name         The name of the room
+     * @param id           The id of the room
+     * @param lastSequence The sequence number the channel of the room goes on from
+     * @return the new room
+     */
+    private static Room registerRoom(String name, int id, int lastSequence) {
+        Room room = new Room(name, id, lastSequence, CHANNEL_HISTORY, searchMemory);
+        roomIdsInUse.set(id);
+        retiredSequences.remove(id);
+        roomsByName.put(name, room);
+        rooms.add(name);
+        return room;
     }
 
     /**
@@ -191,18 +633,25 @@ public class ChatUDPServer {
      * <p>
      * This method adds the specified room name to the list of available chat rooms
      * and notifies all connected clients about the updated room list.
+     * <p>
+     * The creator gets the list right away, so that it knows the room before being switched to it,
+     * the other clients get it through the control lane.
      *
-     * @param room The name of the room to create
+     * @param creator The name of the user creating the room
+     * @param room    The name of the room to create
      * @return true if the room was created successfully, false if the room already exists
      */
-    private static boolean createRoom(String room) {
-        if (rooms.contains(room)) {
+    private static boolean createRoom(String creator, String room) {
+        if (addRoom(room) == null) {
             return false;
         }
 
-        rooms.add(room);
-        ByteBuffer buffer = forgeRoomListPacket();
-        sessions.values().forEach((s) -> s.send(buffer));
+        Packet packet = forgeRoomListPacket();
+        Session creatorSession = sessions.get(creator);
+        if (creatorSession != null) {
+            creatorSession.send(packet);
+        }
+        fanOut.submitControl((s) -> !s.getName().equals(creator), packet);
 
         return true;
     }
@@ -211,25 +660,53 @@ public class ChatUDPServer {
      * Deletes an existing chat room and moves all users in that room to the default room.
      * <p>
      * This method checks if the specified room exists, and if it does:
-     * 1. Moves all users currently in that room to the base room
-     * 2. Removes the room from the list of available rooms
-     * 3. Notifies all connected clients about the updated room list
+     * 1. Marks the room as deleted, so that no user can switch or subscribe to it anymore
+     * 2. Moves all users currently in that room to the base room, and unsubscribes the other members
+     * 3. Removes the room from the list of available rooms, and frees its id
+     * 4. Notifies all connected clients about the updated room list
+     * <p>
+     * The base room cannot be deleted, since the users of the deleted rooms are moved to it.
      *
      * @param room The name of the room to delete
      * @return true if the room was successfully deleted, false if the room doesn't exist
      */
-    private static boolean deleteRoom(String room) {
-        if (!rooms.contains(room)) {
+    static boolean deleteRoom(String room) {
+        Room deleted = roomsByName.get(room);
+        if (deleted == null || room.equals(baseRoom)) {
             return false;
         }
 
-        sessions.values().stream()
-                .filter((session) -> session.getCurrentRoom().equals(room))
-                .forEach(session -> switchRoom(session.getName(), baseRoom));
+        List<Session> members = deleted.delete();
+        if (members == null) {
+            // Deleted meanwhile by another user
+            return false;
+        }
+
+        int roomId = deleted.getId();
+        List<Session> unsubscribed = new ArrayList<>();
+        for (Session session : members) {
+            synchronized (session) {
+                if (session.isSubscribed(roomId)) {
+                    session.setSubscribed(roomId, false);
+                    unsubscribed.add(session);
+                }
+                if (session.getCurrentRoom().equals(room)) {
+                    switchRoom(session, baseRoom);
+                }
+            }
+        }
+
+        // The id is only freed once no session has it in its subscriptions
+        synchronized (rooms) {
+            roomsByName.remove(room, deleted);
+            rooms.remove(room);
+            roomIdsInUse.clear(roomId);
+            retiredSequences.put(roomId, deleted.getChannel().getLastSequence());
+        }
 
-        rooms.remove(room);
-        ByteBuffer buffer = forgeRoomListPacket();
-        sessions.values().forEach((s) -> s.send(buffer));
+        unsubscribed.forEach((session) -> session.send(forgeSubscriptionsPacket(session)));
+        fanOut.forget(room);
+        fanOut.submitControl((s) -> true, forgeRoomListPacket());
 
         return true;
     }
@@ -238,71 +715,323 @@ public class ChatUDPServer {
      * Sends a message to all users in a specific chat room.
      * <p>
      * This method creates a ROOM_MESSAGE packet containing the sender's username and message content,
-     * then sends it to all users who are currently in the specified room.
+     * then sends it to all users who are currently in the specified room or subscribed to it.
      * If the room doesn't exist, the method returns without sending any message.
+     * The message is not indexed for the searches (see {@link #postRoomMessage}).
      *
      * @param username The name of the user sending the message
      * @param room     The name of the room where the message should be sent
      * @param message  The content of the message to be sent
      */
-    private static void sendRoomMessage(String username, String room, String message) {
-        if (!rooms.contains(room)) {
+    static void sendRoomMessage(String username, String room, String message) {
+        Room target = roomsByName.get(room);
+        if (target != null) {
+            sendRoomMessage(username, target, message);
+        }
+    }
+
+    /**
+     * Sends a message to the members of a room: the users for which it is the current room, or who subscribed to it.
+     *
+     * @param username The name of the user sending the message
+     * @param room     The room where the message should be sent
+     * @param message  The content of the message to be sent
+     */
+    private static void sendRoomMessage(String username, Room room, String message) {
+        Packet packet = room.getChannel().stamp((sequence) -> Packet.of(
+                PacketType.ROOM_MESSAGE,
+                sequence,
+                userReference(username),
+                new Packet.Text(message)
+        ));
+
+        // If the room is sent by multicast, only the members that did not join its group are sent the packet
+        // (the group is only joined for the current room, so the subscribers are always sent the packet)
+        String name = room.getName();
+        boolean sentToGroup = multicast != null && multicast.send(name, packet);
+        int roomId = room.getId();
+
+        fanOut.submit(
+                name,
+                room.getMembers(),
+                (s) -> s.getCurrentRoom().equals(name)
+                        ? !sentToGroup || !s.isMulticastMember()
+                        : s.isSubscribed(roomId),
+                packet
+        );
+    }
+
+    /**
+     * Sends a message written by a user to a room, and indexes it for the searches of the room.
+     * Only the messages of the users are indexed: the notices of the server (joins and leaves) would drown them.
+     *
+     * @param username The name of the user sending the message
+     * @param room     The name of the room where the message should be sent
+     * @param message  The content of the message to be sent
+     */
+    private static void postRoomMessage(String username, String room, String message) {
+        Room target = roomsByName.get(room);
+        if (target == null) {
             return;
         }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.ROOM_MESSAGE.getId());
-        Utils.putString(buffer, username);
-        Utils.putString(buffer, message);
+        sendRoomMessage(username, target, message);
+        if (target.getSearchIndex() != null) {
+            target.getSearchIndex().add(username, message);
+        }
+    }
+
+    /**
+     * Searches the messages of the current room of a user.
+     * <p>
+     * The SEARCH_RESULTS packet holds the room, the query, the cursor of the next page (0 if there is none),
+     * the number of results, then the sender and the content of each result, newest first.
+     *
+     * @param username The name of the user searching
+     * @param query    The words to look for
+     * @param before   The cursor of the page (0 for the first page)
+     * @return a SEARCH_RESULTS packet
+     */
+    private static Packet search(String username, String query, int before) {
+        Session session = sessions.get(username);
+        Room room = roomOrBase(session == null ? baseRoom : session.getCurrentRoom());
+
+        RoomSearchIndex index = room.getSearchIndex();
+        RoomSearchIndex.Page page = index == null
+                ? new RoomSearchIndex.Page(List.of(), 0)
+                : index.search(query, before);
+
+        List<Packet.Field> fields = new ArrayList<>();
+        fields.add(new Packet.Named(room.getId(), room.getName()));
+        fields.add(new Packet.Text(query));
+        fields.add(new Packet.Int(page.next()));
+        fields.add(new Packet.Int(page.hits().size()));
+        for (SearchHit hit : page.hits()) {
+            fields.add(new Packet.Text(hit.sender()));
+            fields.add(new Packet.Text(hit.message()));
+        }
+
+        return Packet.of(PacketType.SEARCH_RESULTS, fields.toArray(Packet.Field[]::new));
+    }
+
+    /**
+     * Subscribes a user to a room, or unsubscribes them, and sends them their subscriptions.
+     * <p>
+     * Subscribed rooms are received besides the current room, whatever the room switches. Only the clients
+     * using the ids and sequences features can subscribe: they tell the rooms of the messages apart by the channel
+     * of their sequence number, which is the id of the room. The subscriptions of the other clients are left
+     * unchanged (and empty).
+     *
+     * @param username   The name of the user
+     * @param room       The name of the room
+     * @param subscribed true to subscribe, false to unsubscribe
+     */
+    static void subscribe(String username, String room, boolean subscribed) {
+        Session session = sessions.get(username);
+        if (session == null) {
+            return;
+        }
 
-        sessions.values()
+        Room target = roomsByName.get(room);
+        int required = Packet.FLAG_IDS | Packet.FLAG_SEQUENCES;
+        if (target != null && (session.getFeatures() & required) == required) {
+            synchronized (session) {
+                if (!subscribed) {
+                    session.setSubscribed(target.getId(), false);
+                    if (!room.equals(session.getCurrentRoom())) {
+                        target.leave(session);
+                    }
+                } else if (target.join(session)) {
+                    session.setSubscribed(target.getId(), true);
+                }
+            }
+        }
+        session.send(forgeSubscriptionsPacket(session));
+    }
+
+    /**
+     * Creates a packet containing the rooms a user subscribed to, with their ids.
+     *
+     * @param session The session of the user
+     * @return a SUBSCRIPTIONS packet with the subscribed rooms, by increasing id
+     */
+    static Packet forgeSubscriptionsPacket(Session session) {
+        List<Packet.Named> subscribed = roomsByName.values()
                 .stream()
-                .filter(s -> s.getCurrentRoom().equals(room))
-                .forEach((s) -> s.send(buffer));
+                .filter((room) -> session.isSubscribed(room.getId()))
+                .map((room) -> new Packet.Named(room.getId(), room.getName()))
+                .sorted(Comparator.comparingInt(Packet.Named::id))
+                .toList();
+
+        return Packet.of(PacketType.SUBSCRIPTIONS, new Packet.NamedList(subscribed));
     }
 
     /**
      * Switches a user from their current chat room to another room.
-     * <p>
-     * This method handles the entire room switching process:
-     * 1. Verifies the target room exists
-     * 2. Notifies users in the old room that the user has left
-     * 3. Updates the user's current room
-     * 4. Sends a ROOM_SWITCH packet to the user
-     * 5. Notifies users in the new room that the user has joined
      *
      * @param username The name of the user to be moved
      * @param room     The name of the room the user shall be moved to
      */
-    private static void switchRoom(String username, String room) {
-        if (!rooms.contains(room)) {
+    static void switchRoom(String username, String room) {
+        Session session = sessions.get(username);
+        if (session != null) {
+            switchRoom(session, room);
+        }
+    }
+
+    /**
+     * Switches a session from its current chat room to another room.
+     * <p>
+     * This method handles the entire room switching process:
+     * 1. Verifies the target room exists, and joins it (unless it is being deleted)
+     * 2. Leaves the previous room, unless the user subscribed to it
+     * 3. Notifies users in the old room that the user has left
+     * 4. Updates the user's current room
+     * 5. Sends a ROOM_SWITCH packet to the user
+     * 6. Notifies users in the new room that the user has joined
+     * (the notifications are coalesced with the other switches of the presence window)
+     *
+     * @param session The session of the user to be moved
+     * @param room    The name of the room the user shall be moved to
+     */
+    private static void switchRoom(Session session, String room) {
+        Room target = roomsByName.get(room);
+        if (target == null) {
             return;
         }
 
+        String username = session.getName();
+        synchronized (session) {
+            // An ended session is not brought back into a room
+            if (sessions.get(username) != session || !target.join(session)) {
+                return;
+            }
+
+            String previous = session.getCurrentRoom();
+            Room left = roomsByName.get(previous);
+            if (left != null && left != target && !session.isSubscribed(left.getId())) {
+                left.leave(session);
+            }
+
+            presence.left(previous, username);
+            session.setCurrentRoom(room);
+            session.send(Packet.of(PacketType.ROOM_SWITCH, new Packet.Named(target.getId(), room)));
+            if (multicast != null) {
+                multicast.offer(session);
+            }
+            presence.joined(room, username);
+        }
+    }
+
+    /**
+     * Removes an ended session from the sessions and from the members of the rooms.
+     *
+     * @param username The name of the user of the session
+     */
+    private static void endSession(String username) {
         Session session = sessions.get(username);
+        if (session == null) {
+            return;
+        }
 
-        sendRoomMessage("Server", session.getCurrentRoom(), username + " left this room");
-        sessions.get(username).setCurrentRoom(room);
-        session.send(forgeRoomSwitchPacket(room));
-        sendRoomMessage("Server", room, username + " joined this room");
+        synchronized (session) {
+            sessions.remove(username, session);
+            roomsByName.values().forEach((room) -> room.leave(session));
+        }
     }
 
     /**
      * Creates a packet for notifying a client about a room switch.
      * <p>
-     * This method constructs a ByteBuffer containing a ROOM_SWITCH packet
-     * with the name of the room the user has been switched to. This packet
-     * is sent to the client to update their current room state.
+     * This method constructs a ROOM_SWITCH packet with the room the user has been switched to.
+     * This packet is sent to the client to update their current room state.
+     * A room deleted meanwhile is replaced with the base room, where its users are being moved.
      *
      * @param room The name of the room the user shall be moved to
-     * @return A ByteBuffer containing the ROOM_SWITCH packet with room name
+     * @return A ROOM_SWITCH packet with the room reference
+     */
+    static Packet forgeRoomSwitchPacket(String room) {
+        Room target = roomOrBase(room);
+        return Packet.of(PacketType.ROOM_SWITCH, new Packet.Named(target.getId(), target.getName()));
+    }
+
+    /**
+     * Returns a sequenced channel received by a user, so that the messages it missed can be sent again.
+     *
+     * @param username The name of the user
+     * @param channel   The type of the messages of the channel (BROADCAST, PRIVATE or ROOM_MESSAGE)
+     * @param channelId The id of the channel (the id of the room for room messages)
+     * @return the broadcast channel, the private channel of the user, or the channel of its current room
+     * or of a room it subscribed to (null if the user left, the type has no channel or the user does not
+     * receive the room)
+     */
+    private static SequencedChannel sequencedChannel(String username, PacketType channel, int channelId) {
+        Session session = sessions.get(username);
+        if (session == null) {
+            return null;
+        }
+
+        return switch (channel) {
+            case BROADCAST -> broadcastChannel;
+            case PRIVATE -> session.getPrivateChannel();
+            case ROOM_MESSAGE -> {
+                Room current = roomsByName.get(session.getCurrentRoom());
+                if (current != null && current.getId() == channelId) {
+                    yield current.getChannel();
+                }
+                Room subscribed = session.isSubscribed(channelId) ? roomById(channelId) : null;
+                yield subscribed == null ? null : subscribed.getChannel();
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * Returns the reference to a user, used as the sender of a message.
+     * "Server" (or a user that already left) is sent as the reserved server id.
+     *
+     * @param username The name of the user
+     * @return the id and name of the user
      */
-    private static ByteBuffer forgeRoomSwitchPacket(String room) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        buffer.putInt(PacketType.ROOM_SWITCH.getId());
+    private static Packet.Named userReference(String username) {
+        Session session = sessions.get(username);
+        return new Packet.Named(session == null ? Packet.SERVER_USER_ID : session.getId(), username);
+    }
+
+    /**
+     * Returns a room, or the base room if it does not exist (anymore).
+     *
+     * @param room The name of the room
+     * @return the room
+     */
+    private static Room roomOrBase(String room) {
+        Room found = roomsByName.get(room);
+        return found != null ? found : roomsByName.get(baseRoom);
+    }
 
-        Utils.putString(buffer, room);
+    /**
+     * Returns the room having an id.
+     *
+     * @param id The id of the room
+     * @return the room, or null if no room has this id
+     */
+    private static Room roomById(int id) {
+        for (Room room : roomsByName.values()) {
+            if (room.getId() == id) {
+                return room;
+            }
+        }
+        return null;
+    }
 
-        return buffer;
+    /**
+     * Returns the id of a room.
+     *
+     * @param room The name of the room
+     * @return the id of the room, or -1 if it does not exist
+     */
+    private static int roomId(String room) {
+        Room found = roomsByName.get(room);
+        return found == null ? -1 : found.getId();
     }
 }
@@ -0,0 +1,201 @@
+package fr.polytech;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Predicate;
+
+/**
+ * Executes the fan-outs of the server (broadcasts, room messages) off the thread of the sending session.
+ * <p>
+ * Fan-outs are ordered per lane (one lane per room, and one for the broadcasts): a fan-out only starts once the
+ * previous one of its lane is done, so the messages of a room are never reordered. Large fan-outs run on a
+ * dedicated egress pool, where the sessions are split into partitions sent in parallel, so a big announcement
+ * neither delays the next packets of its sender nor keeps a single core busy. Small servers, below the inline
+ * threshold, still send on the calling thread when their lane is idle, which is cheaper than a hand-off.
+ * <p>
+ * Control packets (user and room lists) have their own lane and thread, so they never wait behind a storm of
+ * chat fan-outs queued on the egress pool: chat volume cannot delay membership and liveness updates. When several
+ * fan-outs reach the same session at once, the session itself sends the control packets before its queued chat
+ * messages (see {@link Session#send(Packet)}).
+ * <p>
+ * The threads of the executor are daemons, so an executor that is never closed (e.g. the default one of the server,
+ * replaced on start) does not keep the JVM running. A server closes its executor when it stops.
+ */
+class FanOutExecutor implements AutoCloseable {
+    /**
+     * Lane used by the broadcasts (room names are never empty)
+     */
+    static final String BROADCAST_LANE = "";
+
+    /**
+     * Number of sessions below which a partition is not split any further
+     */
+    private static final long PARTITION_SIZE = 512;
+
+    /**
+     * Tail of the fan-outs of a lane
+     */
+    private static final class Lane {
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions;
+    private final ForkJoinPool pool;
+    private final int inlineThreshold;
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    /**
+     * Lane of the control fan-outs, run by their own thread
+     */
+    private final Lane controlLane = new Lane();
+    private final ExecutorService controlThread;
+
+    /**
+     * Creates a fan-out executor. The threads of the egress pool are started on demand.
+     *
+     * @param sessions        The sessions of the server
+     * @param threads         Number of threads of the egress pool
+     * @param inlineThreshold Number of sessions below which fan-outs are sent on the calling thread
+     */
+    FanOutExecutor(ConcurrentHashMap<String, Session> sessions, int threads, int inlineThreshold) {
+        this.sessions = sessions;
+        this.inlineThreshold = inlineThreshold;
+
+        pool = new ForkJoinPool(threads, (forkJoinPool) -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("fan-out-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+
+        controlThread = Executors.newSingleThreadExecutor((task) -> {
+            Thread thread = new Thread(task, "fan-out-control");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Sends a packet to the sessions matching a filter, after the previous fan-outs of the same lane.
+     *
+     * @param lane       The lane of the fan-out (the room, or {@link #BROADCAST_LANE})
+     * @param recipients Filter of the sessions to send the packet to (evaluated when the fan-out runs)
+     * @param packet     The packet to send
+     */
+    void submit(String lane, Predicate<Session> recipients, Packet packet) {
+        submit(lane, sessions, recipients, packet);
+    }
+
+    /**
+     * Sends a packet to some of the sessions matching a filter, after the previous fan-outs of the same lane.
+     * Only the given sessions are iterated, so a room message costs the size of the room, not of the server.
+     *
+     * @param lane       The lane of the fan-out (the room, or {@link #BROADCAST_LANE})
+     * @param targets    The sessions to iterate, by name (e.g. the members of a room)
+     * @param recipients Filter of the sessions to send the packet to (evaluated when the fan-out runs)
+     * @param packet     The packet to send
+     */
+    void submit(String lane, ConcurrentHashMap<String, Session> targets, Predicate<Session> recipients, Packet packet) {
+        Lane state = lanes.computeIfAbsent(lane, (key) -> new Lane());
+
+        synchronized (state) {
+            if (state.tail.isDone() && targets.size() < inlineThreshold) {
+                // Holding the lane keeps concurrent inline fan-outs of the same room in order
+                fanOut(targets, Long.MAX_VALUE, recipients, packet);
+                return;
+            }
+
+            // Once the executor is closed, the fan-out is rejected and dropped (the server is stopping)
+            state.tail = state.tail
+                    .thenRunAsync(() -> fanOut(targets, PARTITION_SIZE, recipients, packet), pool)
+                    .exceptionally((e) -> null);
+        }
+    }
+
+    /**
+     * Sends a control packet to the sessions matching a filter, after the previous control fan-outs,
+     * ahead of the chat fan-outs.
+     *
+     * @param recipients Filter of the sessions to send the packet to (evaluated when the fan-out runs)
+     * @param packet     The control packet to send
+     */
+    void submitControl(Predicate<Session> recipients, Packet packet) {
+        if (!packet.getType().isControl()) {
+            throw new IllegalArgumentException("Not a control packet: " + packet.getType());
+        }
+
+        synchronized (controlLane) {
+            if (controlLane.tail.isDone() && sessions.size() < inlineThreshold) {
+                fanOut(sessions, Long.MAX_VALUE, recipients, packet);
+                return;
+            }
+
+            controlLane.tail = controlLane.tail
+                    .thenRunAsync(() -> fanOut(sessions, Long.MAX_VALUE, recipients, packet), controlThread)
+                    .exceptionally((e) -> null);
+        }
+    }
+
+    /**
+     * Forgets the lane of a deleted room.
+     *
+     * @param lane The lane to forget
+     */
+    void forget(String lane) {
+        lanes.remove(lane);
+    }
+
+    /**
+     * Waits for all the submitted fan-outs to be sent.
+     */
+    void flush() {
+        CompletableFuture<Void> controlTail;
+        synchronized (controlLane) {
+            controlTail = controlLane.tail;
+        }
+        controlTail.join();
+
+        for (Lane state : lanes.values()) {
+            CompletableFuture<Void> tail;
+            synchronized (state) {
+                tail = state.tail;
+            }
+            tail.join();
+        }
+    }
+
+    /**
+     * Stops the threads of the executor once the fan-outs already submitted are sent.
+     * The fan-outs submitted afterwards are only sent if they run inline.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        controlThread.shutdown();
+    }
+
+    /**
+     * Sends a packet to the matching targets. When run on the egress pool, the targets are split into partitions
+     * forked on the pool.
+     */
+    private static void fanOut(
+            ConcurrentHashMap<String, Session> targets,
+            long partitionSize,
+            Predicate<Session> recipients,
+            Packet packet) {
+        try {
+            targets.forEachValue(partitionSize, (session) -> {
+                if (recipients.test(session)) {
+                    session.send(packet);
+                }
+            });
+        } catch (RuntimeException e) {
+            // A failed fan-out must not block the next ones of its lane
+            e.printStackTrace();
+        }
+    }
+}
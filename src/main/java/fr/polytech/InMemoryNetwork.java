@@ -0,0 +1,426 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Simulated datagram network living in the JVM, whose endpoints are {@link Transport}s.
+ * <p>
+ * Every datagram goes through the {@link Conditions} of the network: it can be lost, duplicated, delayed
+ * and reordered. The decisions are drawn from a random generator per sending endpoint, seeded from the seed of
+ * the network and the address of the endpoint. Delayed datagrams are delivered by a single scheduler thread.
+ * <p>
+ * A run is only reproduced as long as each endpoint sends the same datagrams in the same order. This holds for
+ * an endpoint sending from a single thread, but not for the sessions of a server, which send from the fan-out
+ * threads: their datagrams interleave by thread timing, so each one draws other decisions from run to run.
+ * The same seed then gives the same impairment rates, not the same lost datagrams.
+ * <p>
+ * Endpoints are addressed like sockets, by a (virtual) host address and a port, so the server and clients run
+ * unchanged. Each host has its own 64k ports, and each endpoint holds up to {@link #QUEUE_CAPACITY} datagrams
+ * not handled yet like a socket receive buffer, whether they are queued or handed to its event loop: the next
+ * ones are dropped. No file descriptor is used, but a server still binds a port per session, so it holds at most
+ * about 64k sessions.
+ */
+public class InMemoryNetwork implements AutoCloseable {
+    /**
+     * Maximum number of datagrams waiting to be read by an endpoint
+     */
+    static final int QUEUE_CAPACITY = 1024;
+    /**
+     * Extra delay of the reordered datagrams (on top of the delay and jitter), in milliseconds
+     */
+    private static final int REORDER_DELAY = 5;
+    private static final int FIRST_EPHEMERAL_PORT = 1024;
+    private static final int LAST_PORT = 65535;
+
+    /**
+     * Impairments applied to every datagram.
+     *
+     * @param loss        Probability that a datagram is lost
+     * @param duplication Probability that a datagram is delivered twice
+     * @param reordering  Probability that a datagram is held back behind the next ones
+     * @param delay       Base delay of the datagrams, in milliseconds
+     * @param jitter      Maximum random delay added to the base delay, in milliseconds
+     */
+    public record Conditions(double loss, double duplication, double reordering, int delay, int jitter) {
+        /**
+         * Network delivering every datagram once, in order and right away
+         */
+        public static final Conditions PERFECT = new Conditions(0, 0, 0, 0, 0);
+
+        public Conditions {
+            if (loss < 0 || loss > 1 || duplication < 0 || duplication > 1 || reordering < 0 || reordering > 1) {
+                throw new IllegalArgumentException("Probabilities must be between 0 and 1");
+            }
+            if (delay < 0 || jitter < 0) {
+                throw new IllegalArgumentException("Delay and jitter cannot be negative");
+            }
+        }
+    }
+
+    /**
+     * Datagram waiting to be read
+     *
+     * @param source The address of the sending endpoint
+     * @param data   The content of the datagram
+     */
+    private record Datagram(InetSocketAddress source, byte[] data) {
+    }
+
+    /**
+     * Queued when an endpoint is closed, to wake up its blocked readers
+     */
+    private static final Datagram CLOSED = new Datagram(null, new byte[0]);
+
+    private final long seed;
+    private final Conditions conditions;
+    private final ConcurrentHashMap<InetSocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+    /**
+     * Next ephemeral port to try, by host (guarded by the network)
+     */
+    private final Map<InetAddress, Integer> ephemeralCursors = new HashMap<>();
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Creates a network.
+     *
+     * @param seed       The seed of the impairments
+     * @param conditions The impairments applied to every datagram
+     */
+    public InMemoryNetwork(long seed, Conditions conditions) {
+        this.seed = seed;
+        this.conditions = conditions;
+
+        scheduler = new ScheduledThreadPoolExecutor(1, (task) -> {
+            Thread thread = new Thread(task, "in-memory-network");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a binder of endpoints on a host of this network.
+     *
+     * @param host The address of the host
+     * @return a binder of endpoints with this address
+     */
+    public Transport.Binder host(InetAddress host) {
+        return (port) -> bind(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Binds a new endpoint.
+     *
+     * @param address The address of the endpoint (port 0 for any free port of the host)
+     * @return the bound endpoint
+     * @throws BindException if the port is already bound, or if the host has no free port left
+     */
+    public synchronized Transport bind(InetSocketAddress address) throws BindException {
+        InetAddress host = address.getAddress();
+        if (address.getPort() != 0) {
+            return register(address);
+        }
+
+        int cursor = ephemeralCursors.getOrDefault(host, FIRST_EPHEMERAL_PORT);
+        for (int i = FIRST_EPHEMERAL_PORT; i <= LAST_PORT; i++) {
+            int port = cursor;
+            cursor = cursor == LAST_PORT ? FIRST_EPHEMERAL_PORT : cursor + 1;
+
+            InetSocketAddress candidate = new InetSocketAddress(host, port);
+            if (!endpoints.containsKey(candidate)) {
+                ephemeralCursors.put(host, cursor);
+                return register(candidate);
+            }
+        }
+
+        throw new BindException("No free port left on " + host.getHostAddress());
+    }
+
+    /**
+     * Returns whether an endpoint is bound to the given address.
+     *
+     * @param address The address of the endpoint
+     * @return true if the address is bound
+     */
+    public boolean isBound(InetSocketAddress address) {
+        return endpoints.containsKey(address);
+    }
+
+    /**
+     * Returns the number of datagrams sent through this network (before the impairments).
+     *
+     * @return the number of sent datagrams
+     */
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * Returns the number of datagrams lost on purpose.
+     *
+     * @return the number of lost datagrams
+     */
+    public long getLost() {
+        return lost.sum();
+    }
+
+    /**
+     * Returns the number of datagrams delivered twice on purpose.
+     *
+     * @return the number of duplicated datagrams
+     */
+    public long getDuplicated() {
+        return duplicated.sum();
+    }
+
+    /**
+     * Returns the number of datagrams held back behind the next ones on purpose.
+     *
+     * @return the number of reordered datagrams
+     */
+    public long getReordered() {
+        return reordered.sum();
+    }
+
+    /**
+     * Returns the number of datagrams dropped because their endpoint was full, closed or never bound.
+     *
+     * @return the number of dropped datagrams
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Closes every endpoint and stops the delivery of the delayed datagrams.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        endpoints.values().forEach(Endpoint::close);
+    }
+
+    private Endpoint register(InetSocketAddress address) throws BindException {
+        Endpoint endpoint = new Endpoint(address);
+        if (endpoints.putIfAbsent(address, endpoint) != null) {
+            throw new BindException("Address already in use: " + address);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Applies the conditions of the network to a datagram, and delivers its copies right away or later.
+     */
+    private void transmit(Endpoint source, ByteBuffer data, InetSocketAddress target) {
+        byte[] datagram = new byte[data.remaining()];
+        data.get(datagram);
+        sent.increment();
+
+        int copies;
+        int[] delays = new int[2];
+        synchronized (source.random) {
+            SplittableRandom random = source.random;
+            if (conditions.loss() > 0 && random.nextDouble() < conditions.loss()) {
+                lost.increment();
+                return;
+            }
+
+            copies = conditions.duplication() > 0 && random.nextDouble() < conditions.duplication() ? 2 : 1;
+            for (int i = 0; i < copies; i++) {
+                delays[i] = conditions.delay() + (conditions.jitter() > 0 ? random.nextInt(conditions.jitter() + 1) : 0);
+                if (conditions.reordering() > 0 && random.nextDouble() < conditions.reordering()) {
+                    delays[i] += conditions.jitter() + REORDER_DELAY;
+                    reordered.increment();
+                }
+            }
+        }
+        if (copies == 2) {
+            duplicated.increment();
+        }
+
+        Datagram packet = new Datagram(source.address, datagram);
+        for (int i = 0; i < copies; i++) {
+            if (delays[i] == 0) {
+                deliver(target, packet);
+            } else {
+                scheduler.schedule(() -> deliver(target, packet), delays[i], TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void deliver(InetSocketAddress target, Datagram datagram) {
+        Endpoint endpoint = endpoints.get(target);
+        if (endpoint == null || !endpoint.accept(datagram)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Endpoint of the network
+     */
+    private final class Endpoint implements Transport {
+        private final InetSocketAddress address;
+        private final SplittableRandom random;
+        private final LinkedBlockingQueue<Datagram> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        /**
+         * Number of datagrams handed to the event loop and not handled yet
+         */
+        private final AtomicInteger handed = new AtomicInteger();
+
+        /**
+         * Event loop and handler of the received datagrams, once registered (guarded by the endpoint)
+         */
+        private ChatEventLoop loop;
+        private Consumer<ByteBuffer> handler;
+        private volatile boolean open = true;
+
+        private Endpoint(InetSocketAddress address) {
+            this.address = address;
+            random = new SplittableRandom(seed ^ address.hashCode() * 0x9E3779B97F4A7C15L);
+        }
+
+        @Override
+        public int getLocalPort() {
+            return open ? address.getPort() : -1;
+        }
+
+        @Override
+        public void send(ByteBuffer data, InetSocketAddress target) throws IOException {
+            if (!open) {
+                throw new SocketException("Socket closed");
+            }
+
+            transmit(this, data, target);
+        }
+
+        @Override
+        public InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) throws IOException {
+            Datagram datagram;
+            try {
+                datagram = timeoutMillis == 0 ? queue.take() : queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Receive interrupted");
+            }
+
+            if (datagram == null) {
+                throw new SocketTimeoutException("Receive timed out");
+            }
+            if (datagram == CLOSED) {
+                // Other readers must be woken up too
+                queue.offer(CLOSED);
+                throw new SocketException("Socket closed");
+            }
+
+            buffer.put(datagram.data(), 0, Math.min(datagram.data().length, buffer.remaining()));
+            return datagram.source();
+        }
+
+        @Override
+        public void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) throws IOException {
+            synchronized (this) {
+                if (!open) {
+                    throw new SocketException("Socket closed");
+                }
+
+                this.loop = loop;
+                this.handler = handler;
+            }
+
+            // Datagrams received before the registration are handled first
+            Datagram datagram;
+            while ((datagram = queue.poll()) != null) {
+                if (datagram != CLOSED) {
+                    handler.accept(ByteBuffer.wrap(datagram.data()));
+                }
+            }
+        }
+
+        @Override
+        public void drain() throws IOException {
+            if (!open) {
+                throw new SocketException("Socket closed");
+            }
+
+            queue.clear();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+            }
+
+            endpoints.remove(address, this);
+            queue.clear();
+            queue.offer(CLOSED);
+        }
+
+        /**
+         * Queues a datagram, or hands it to the event loop if the endpoint is registered. Either way, at most
+         * {@link #QUEUE_CAPACITY} datagrams wait to be handled.
+         *
+         * @return false if the datagram was dropped
+         */
+        private boolean accept(Datagram datagram) {
+            ChatEventLoop registeredLoop;
+            Consumer<ByteBuffer> registeredHandler;
+            synchronized (this) {
+                if (!open) {
+                    return false;
+                }
+                if (handler == null) {
+                    return queue.offer(datagram);
+                }
+
+                registeredLoop = loop;
+                registeredHandler = handler;
+            }
+
+            if (handed.incrementAndGet() > QUEUE_CAPACITY) {
+                handed.decrementAndGet();
+                return false;
+            }
+            registeredLoop.execute(() -> {
+                try {
+                    if (open) {
+                        registeredHandler.accept(ByteBuffer.wrap(datagram.data()));
+                    }
+                } finally {
+                    handed.decrementAndGet();
+                }
+            });
+            return true;
+        }
+    }
+}
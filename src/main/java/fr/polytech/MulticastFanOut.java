@@ -0,0 +1,274 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Multicast fan-out of the messages sent to large rooms.
+ * <p>
+ * Every room with at least {@code threshold} members is mapped to a multicast group (the base group address plus
+ * the id of the room, rooms whose group would leave the multicast range staying on unicast), and its messages
+ * are sent once to the group instead of once per member.
+ * The members of such a room are offered the group with a MULTICAST_GROUP packet, and only receive the room
+ * by multicast once they answered with MULTICAST_JOINED: the others (old clients, networks without multicast,
+ * members that just joined) keep receiving it by unicast. A room goes back to unicast when it falls below half
+ * of the threshold, and its members are told to leave the group.
+ * <p>
+ * Group packets are encoded in version 2 with names (every version 2 client reads them) and sequence numbers:
+ * a member switching between unicast and the group, or losing group datagrams, relies on them to drop duplicates,
+ * reorder and ask for the missing messages. The group is offered to the sessions that negotiated sequences,
+ * whatever their other features.
+ */
+class MulticastFanOut implements AutoCloseable {
+    /**
+     * Delay between two updates of the multicast rooms, in milliseconds
+     */
+    private static final long UPDATE_INTERVAL = 1000;
+    /**
+     * Wire format features of the group packets (version 2)
+     */
+    private static final int GROUP_FEATURES = Packet.FLAG_SEQUENCES;
+    /**
+     * Last IPv4 multicast address (239.255.255.255)
+     */
+    private static final long LAST_MULTICAST_ADDRESS = 0xEFFF_FFFFL;
+
+    private final DatagramChannel channel;
+    private final byte[] baseGroup;
+    private final int port;
+    private final int threshold;
+    private final Supplier<Collection<Session>> sessions;
+    private final ToIntFunction<String> roomIds;
+
+    /**
+     * Group of a room sent by multicast, with the id the room had when it got the group
+     * (a deleted room has no id anymore, but its members must still be told to leave the group)
+     */
+    private record Group(int roomId, InetSocketAddress address) {
+    }
+
+    /**
+     * Rooms currently sent by multicast, with their group
+     */
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Opens the multicast channel and starts the thread updating the multicast rooms.
+     *
+     * @param baseGroup        The first group address (IPv4), the id of each room is added to it
+     * @param port             The port of the groups
+     * @param networkInterface The interface the groups are sent on
+     * @param threshold        Number of members from which a room is sent by multicast
+     * @param sessions         Supplier of the sessions of the server
+     * @param roomIds          Gives the id of a room (-1 for a deleted room, which gets no group)
+     * @throws IOException if the multicast channel could not be opened
+     */
+    MulticastFanOut(
+            InetAddress baseGroup,
+            int port,
+            NetworkInterface networkInterface,
+            int threshold,
+            Supplier<Collection<Session>> sessions,
+            ToIntFunction<String> roomIds) throws IOException {
+        if (!baseGroup.isMulticastAddress() || baseGroup.getAddress().length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 multicast address: " + baseGroup.getHostAddress());
+        }
+
+        this.baseGroup = baseGroup.getAddress();
+        this.port = port;
+        this.threshold = threshold;
+        this.sessions = sessions;
+        this.roomIds = roomIds;
+
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        // Clients may run on the same host as the server
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+
+        Thread thread = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(UPDATE_INTERVAL);
+                    update();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "multicast-fan-out");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Sends a packet to the group of a room, if the room is sent by multicast.
+     *
+     * @param room   The name of the room
+     * @param packet The packet to send
+     * @return true if the packet was sent to the group, so that only the members not receiving the group
+     * have to be sent the packet by unicast
+     */
+    boolean send(String room, Packet packet) {
+        Group group = groups.get(room);
+        if (group == null) {
+            return false;
+        }
+
+        try {
+            channel.send(ByteBuffer.wrap(packet.encode(Packet.VERSION_2, GROUP_FEATURES)), group.address());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Sends a packet to the groups of all the multicast rooms.
+     *
+     * @param packet The packet to send
+     * @return the rooms whose group received the packet
+     */
+    Set<String> sendToAll(Packet packet) {
+        Set<String> rooms = new HashSet<>();
+        for (String room : groups.keySet()) {
+            if (send(room, packet)) {
+                rooms.add(room);
+            }
+        }
+        return rooms;
+    }
+
+    /**
+     * Offers the group of a room to a session that just joined it, if the room is sent by multicast.
+     *
+     * @param session The session that joined the room
+     */
+    void offer(Session session) {
+        Group group = groups.get(session.getCurrentRoom());
+        if (group != null && isEligible(session)) {
+            session.send(forgeGroupPacket(session.getCurrentRoom(), group.roomId(), group.address()));
+        }
+    }
+
+    /**
+     * Switches the rooms between unicast and multicast depending on their number of members,
+     * and offers their group again to the members that did not join it yet.
+     */
+    void update() {
+        Map<String, Integer> members = new HashMap<>();
+        for (Session session : sessions.get()) {
+            members.merge(session.getCurrentRoom(), 1, Integer::sum);
+        }
+
+        // Rooms going back to unicast (hysteresis, so that rooms around the threshold do not flap)
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            String room = entry.getKey();
+            if (members.getOrDefault(room, 0) < Math.max(1, threshold / 2)) {
+                groups.remove(room);
+                for (Session session : sessions.get()) {
+                    if (session.isMulticastMember() && session.getCurrentRoom().equals(room)) {
+                        session.setMulticastMember(false);
+                        session.send(forgeGroupPacket(room, entry.getValue().roomId(), null));
+                    }
+                }
+                System.out.println("Room " + room + " is now sent by unicast");
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : members.entrySet()) {
+            if (entry.getValue() >= threshold && !groups.containsKey(entry.getKey())) {
+                int roomId = roomIds.applyAsInt(entry.getKey());
+                InetSocketAddress group = group(baseGroup, port, roomId);
+                if (group == null) {
+                    System.out.println("No multicast group left for room " + entry.getKey() + ", keeping unicast");
+                    continue;
+                }
+                groups.put(entry.getKey(), new Group(roomId, group));
+                System.out.println("Room " + entry.getKey() + " is now sent by multicast");
+            }
+        }
+
+        for (Session session : sessions.get()) {
+            if (!session.isMulticastMember()) {
+                offer(session);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a session can decode the group packets.
+     *
+     * @param session The session
+     * @return true if the session negotiated version 2 with the features of the group packets
+     */
+    private static boolean isEligible(Session session) {
+        return session.getVersion() == Packet.VERSION_2 && (session.getFeatures() & GROUP_FEATURES) == GROUP_FEATURES;
+    }
+
+    /**
+     * Returns the group of a room.
+     *
+     * @param baseGroup The first group address (IPv4)
+     * @param port      The port of the groups
+     * @param roomId    The id of the room
+     * @return the base group address plus the id of the room (carried over the whole address), or null if it is
+     * past the last multicast address or the id is unknown
+     */
+    static InetSocketAddress group(byte[] baseGroup, int port, int roomId) {
+        long value = (ByteBuffer.wrap(baseGroup).getInt() & 0xFFFF_FFFFL) + roomId;
+        if (roomId < 0 || value > LAST_MULTICAST_ADDRESS) {
+            return null;
+        }
+
+        byte[] address = ByteBuffer.allocate(4).putInt((int) value).array();
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a MULTICAST_GROUP packet.
+     *
+     * @param room   The name of the room
+     * @param roomId The id of the room when it got its group (it may have been deleted since)
+     * @param group  The group of the room, or null to tell the members to leave it
+     * @return A MULTICAST_GROUP packet with the room reference, the group address (empty to leave) and its port
+     */
+    private static Packet forgeGroupPacket(String room, int roomId, InetSocketAddress group) {
+        return Packet.of(
+                PacketType.MULTICAST_GROUP,
+                new Packet.Named(roomId, room),
+                new Packet.Text(group == null ? "" : group.getAddress().getHostAddress()),
+                new Packet.Int(group == null ? 0 : group.getPort())
+        );
+    }
+
+    /**
+     * Stops the update thread and closes the multicast channel.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
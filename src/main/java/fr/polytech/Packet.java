@@ -0,0 +1,300 @@
+package fr.polytech;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+
+/**
+ * Outgoing packet, made of a type and a list of fields, that can be encoded in both wire formats.
+ * <p>
+ * <b>Version 1</b> (legacy): a 4 bytes type id, then every field in order. Strings are a 4 bytes length
+ * followed by their UTF-8 bytes, numbers are 4 bytes ints, user and room references are their name,
+ * and name lists are a single comma-separated string.
+ * <p>
+ * <b>Version 2</b>: a 3 bytes header made of the version (2), the type id and a flags byte, then every field
+ * in order. Strings are a varint length followed by their UTF-8 bytes, numbers are varints, and name lists are
+ * a varint count followed by the entries. With the {@link #FLAG_IDS} flag, user and room references are sent as
+ * their numeric id instead of their name, and list entries carry their id before their name.
+ * With the {@link #FLAG_COMPRESSED} flag, the header is followed by the varint size of the body and the body
+ * compressed by {@link PacketCompression}. With the {@link #FLAG_SEQUENCES} flag, messages carry the sequence
+ * number given by their channel (see {@link Sequence}); the sequence numbers are left out of the other encodings.
+ * <p>
+ * A version 1 packet always starts with a 0 byte, so both formats can be told apart from their first byte.
+ * The version is negotiated in HELLO: a client supporting version 2 appends its highest version and the features
+ * it supports, and the server appends the negotiated version and features to PORT. Old clients and servers
+ * ignore the extra fields and keep using version 1.
+ * <p>
+ * Encodings are computed on first use and cached, so a packet fanned out to many sessions is encoded once
+ * per wire format. The cache takes no lock: threads racing on the same format compute identical arrays,
+ * and the first one published wins. The returned byte arrays are shared and must not be modified.
+ */
+public final class Packet {
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    /**
+     * The body is compressed (only set on the packets big enough to benefit from it)
+     */
+    public static final int FLAG_COMPRESSED = 0x01;
+    /**
+     * The packet is a fragment of a bigger one (reserved)
+     */
+    public static final int FLAG_FRAGMENT = 0x02;
+    /**
+     * User and room references are sent as numeric ids
+     */
+    public static final int FLAG_IDS = 0x04;
+    /**
+     * Messages carry the sequence number of their channel
+     */
+    public static final int FLAG_SEQUENCES = 0x08;
+
+    /**
+     * User id of the server itself, used as the sender of notifications
+     */
+    public static final int SERVER_USER_ID = 0;
+
+    /**
+     * Largest payload of a UDP datagram
+     */
+    static final int MAX_SIZE = 65507;
+
+    /**
+     * Largest packet a client may send to its session (sessions drop bigger ones)
+     */
+    public static final int MAX_CLIENT_SIZE = 4095;
+
+    /**
+     * Size of the version 2 header (version, type, flags)
+     */
+    static final int HEADER_SIZE = 3;
+
+    /**
+     * Field of a packet
+     */
+    public sealed interface Field permits Text, Int, Named, NamedList, Sequence {
+    }
+
+    /**
+     * Free text (message, name typed by the user...)
+     */
+    public record Text(String value) implements Field {
+    }
+
+    /**
+     * Non-negative number
+     */
+    public record Int(int value) implements Field {
+    }
+
+    /**
+     * Sequence number of a message in its channel (a room, the private messages of a user or the broadcasts),
+     * only sent to the peers using the sequences feature
+     *
+     * @param channel The id of the channel (the id of the room for room messages, 0 otherwise)
+     * @param value   The sequence number of the message in the channel
+     */
+    public record Sequence(int channel, int value) implements Field {
+    }
+
+    /**
+     * Reference to a user or a room, sent by id or by name depending on the negotiated features
+     *
+     * @param id   The id of the user or room (-1 if unknown)
+     * @param name The name of the user or room
+     */
+    public record Named(int id, String name) implements Field {
+    }
+
+    /**
+     * List of users or rooms
+     */
+    public record NamedList(List<Named> entries) implements Field {
+        public NamedList {
+            entries = List.copyOf(entries);
+        }
+    }
+
+    /**
+     * Maximum number of idle scratch buffers kept in the pool
+     */
+    private static final int SCRATCH_POOL_SIZE = 16;
+    /**
+     * Scratch buffers used to encode and compress packets before copying them to an exactly sized array.
+     * They are pooled rather than kept by each thread: sessions run on virtual threads, and a buffer of
+     * {@link #MAX_SIZE} bytes kept by each of them would cost more memory than the sessions themselves.
+     */
+    private static final ArrayBlockingQueue<ByteBuffer> scratchPool = new ArrayBlockingQueue<>(SCRATCH_POOL_SIZE);
+
+    private final PacketType type;
+    private final Field[] fields;
+
+    /**
+     * Cached encodings: index 0 for version 1, then 1 + features for version 2
+     */
+    private final AtomicReferenceArray<byte[]> encodings = new AtomicReferenceArray<>(17);
+
+    private Packet(PacketType type, Field[] fields) {
+        this.type = type;
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a packet.
+     *
+     * @param type   The type of the packet
+     * @param fields The fields of the packet, in wire order
+     * @return the new packet
+     */
+    public static Packet of(PacketType type, Field... fields) {
+        return new Packet(type, fields.clone());
+    }
+
+    /**
+     * Creates a packet made of text fields only.
+     *
+     * @param type    The type of the packet
+     * @param strings The text fields of the packet, in wire order
+     * @return the new packet
+     */
+    public static Packet ofText(PacketType type, String... strings) {
+        return new Packet(type, Arrays.stream(strings).map(Text::new).toArray(Field[]::new));
+    }
+
+    public PacketType getType() {
+        return type;
+    }
+
+    /**
+     * Encodes this packet for a peer using the given wire format.
+     *
+     * @param version  The wire format version of the peer
+     * @param features The features negotiated with the peer (ignored for version 1)
+     * @return the encoded packet (shared, must not be modified)
+     */
+    public byte[] encode(int version, int features) {
+        int index = version == VERSION_1
+                ? 0
+                : 1 + (features & (FLAG_COMPRESSED | FLAG_FRAGMENT | FLAG_IDS | FLAG_SEQUENCES));
+        byte[] encoding = encodings.get(index);
+        if (encoding != null) {
+            return encoding;
+        }
+
+        ByteBuffer scratch = takeScratch();
+        try {
+            if (version == VERSION_1) {
+                encodeV1(scratch);
+                encoding = Arrays.copyOf(scratch.array(), scratch.position());
+            } else {
+                int flags = features & (FLAG_IDS | FLAG_SEQUENCES);
+                encodeV2(scratch, flags);
+                encoding = (features & FLAG_COMPRESSED) != 0
+                        && scratch.position() - HEADER_SIZE >= PacketCompression.THRESHOLD
+                        ? compress(scratch, flags)
+                        : Arrays.copyOf(scratch.array(), scratch.position());
+            }
+        } finally {
+            scratchPool.offer(scratch);
+        }
+
+        // Keep the array published first, so that every caller shares the same one
+        return encodings.compareAndSet(index, null, encoding) ? encoding : encodings.get(index);
+    }
+
+    private void encodeV1(ByteBuffer buffer) {
+        buffer.putInt(type.getId());
+
+        for (Field field : fields) {
+            switch (field) {
+                case Text text -> Utils.putString(buffer, text.value());
+                case Int number -> buffer.putInt(number.value());
+                case Named named -> Utils.putString(buffer, named.name());
+                case NamedList list -> Utils.putString(
+                        buffer,
+                        list.entries().stream().map(Named::name).collect(Collectors.joining(","))
+                );
+                case Sequence ignored -> {
+                }
+            }
+        }
+    }
+
+    private void encodeV2(ByteBuffer buffer, int flags) {
+        buffer.put((byte) VERSION_2);
+        buffer.put((byte) type.getId());
+        buffer.put((byte) flags);
+        boolean ids = (flags & FLAG_IDS) != 0;
+        boolean sequences = (flags & FLAG_SEQUENCES) != 0;
+
+        for (Field field : fields) {
+            switch (field) {
+                case Text text -> Utils.putVarString(buffer, text.value());
+                case Int number -> Utils.putVarInt(buffer, number.value());
+                case Named named -> putNamed(buffer, named, ids);
+                case NamedList list -> {
+                    Utils.putVarInt(buffer, list.entries().size());
+                    for (Named named : list.entries()) {
+                        if (ids) {
+                            Utils.putVarInt(buffer, named.id());
+                        }
+                        Utils.putVarString(buffer, named.name());
+                    }
+                }
+                case Sequence sequence -> {
+                    if (sequences) {
+                        Utils.putVarInt(buffer, sequence.channel());
+                        Utils.putVarInt(buffer, sequence.value());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses the body of an encoded version 2 packet.
+     *
+     * @param packet The encoded packet, from 0 to its position
+     * @param flags  The flags of the packet
+     * @return the compressed packet, or the given one if compressing does not make it smaller
+     */
+    private byte[] compress(ByteBuffer packet, int flags) {
+        int bodySize = packet.position() - HEADER_SIZE;
+
+        ByteBuffer compressed = takeScratch();
+        try {
+            compressed.put((byte) VERSION_2);
+            compressed.put((byte) type.getId());
+            compressed.put((byte) (flags | FLAG_COMPRESSED));
+            Utils.putVarInt(compressed, bodySize);
+            compressed.limit(packet.position() - 1);
+
+            ByteBuffer result = PacketCompression.compress(packet.slice(HEADER_SIZE, bodySize), compressed)
+                    ? compressed
+                    : packet;
+            return Arrays.copyOf(result.array(), result.position());
+        } finally {
+            scratchPool.offer(compressed);
+        }
+    }
+
+    /**
+     * Takes a cleared scratch buffer from the pool, or allocates one if the pool is empty.
+     * (the buffer is given back with {@code scratchPool.offer}, and dropped if the pool is full)
+     */
+    private static ByteBuffer takeScratch() {
+        ByteBuffer scratch = scratchPool.poll();
+        return scratch != null ? scratch.clear() : ByteBuffer.allocate(MAX_SIZE);
+    }
+
+    private static void putNamed(ByteBuffer buffer, Named named, boolean ids) {
+        if (ids) {
+            Utils.putVarInt(buffer, named.id());
+        } else {
+            Utils.putVarString(buffer, named.name());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package fr.polytech;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the version 2 packet bodies (see {@link Packet#FLAG_COMPRESSED}).
+ * <p>
+ * Bodies are compressed with raw deflate and a preset dictionary made of the words and names that are repeated
+ * in the chat traffic, so that even packets of a few hundred bytes get smaller. Only bodies of at least
+ * {@link #THRESHOLD} bytes are compressed, and the compressed body is only sent if it is smaller.
+ * <p>
+ * Deflaters and inflaters hold native memory and are expensive to create, so they are pooled and reused.
+ */
+final class PacketCompression {
+    /**
+     * Minimum size of a body to be compressed, in bytes (smaller bodies do not get smaller)
+     */
+    static final int THRESHOLD = 96;
+
+    /**
+     * Maximum number of idle deflaters and inflaters kept in each pool
+     */
+    private static final int POOL_SIZE = 16;
+
+    /**
+     * Preset dictionary, shared by both peers: it must never change without a new feature flag.
+     * Deflate favors the end of the dictionary, so the most frequent strings come last.
+     */
+    private static final byte[] DICTIONARY = (
+            "http://https://www.com .org .fr lol ok okay thanks thank you please sorry yes no maybe what why "
+                    + "when where who how today tomorrow tonight morning evening meeting lunch coffee game play "
+                    + "anyone here hello hi hey bye see you later good night great nice cool the and that this "
+                    + "with for have are was not but just like know think will can what's I'm don't it's "
+                    + "room lobby random dev test team chat user admin bot guest general Server "
+                    + " created the room  deleted the room  left this room joined this room"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private PacketCompression() {
+    }
+
+    /**
+     * Compresses a body.
+     *
+     * @param body   The body to compress, from its position to its limit (consumed)
+     * @param output The buffer receiving the compressed body, from its position
+     * @return true if the whole body was compressed in the remaining space of the output
+     */
+    static boolean compress(ByteBuffer body, ByteBuffer output) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(body);
+            deflater.finish();
+            deflater.deflate(output);
+            return deflater.finished();
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Decompresses a body.
+     *
+     * @param compressed The compressed body, from its position to its limit (consumed)
+     * @param output     The buffer receiving the body, from its position
+     * @param length     The size of the decompressed body
+     * @throws IllegalArgumentException if the compressed body is malformed or does not have the given size
+     */
+    static void decompress(ByteBuffer compressed, ByteBuffer output, int length) {
+        if (length > output.remaining()) {
+            throw new IllegalArgumentException("Decompressed body too big: " + length);
+        }
+
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(compressed);
+
+            // Inflate into a view limited to the announced size, so a malformed body cannot overflow it
+            ByteBuffer target = output.slice(output.position(), length);
+            while (target.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(target) == 0 && inflater.needsInput()) {
+                    break;
+                }
+            }
+            if (target.hasRemaining() || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed body does not match its size");
+            }
+            output.position(output.position() + length);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed body", e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package fr.polytech;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Reads the fields of an incoming packet, in either wire format (see {@link Packet}).
+ * <p>
+ * The format is detected from the first byte of the packet, and the flags of a version 2 header
+ * tell whether the body is compressed and whether user and room references are sent as ids or as names.
+ * <p>
+ * The body of a compressed packet is decompressed into a buffer of its announced size, owned by the reader.
+ */
+public final class PacketReader {
+    private final ByteBuffer buffer;
+    private final int version;
+    private final PacketType type;
+    private final int flags;
+
+    private PacketReader(ByteBuffer buffer, int version, PacketType type, int flags) {
+        this.buffer = buffer;
+        this.version = version;
+        this.type = type;
+        this.flags = flags;
+    }
+
+    /**
+     * Reads the header of a packet.
+     *
+     * @param buffer The received packet, positioned at its first byte
+     * @return a reader positioned at the first field of the packet
+     * @throws IllegalArgumentException if the packet type or the version is unknown, or if its body is malformed
+     */
+    public static PacketReader read(ByteBuffer buffer) {
+        int first = buffer.get(buffer.position());
+        if (first == 0) {
+            return new PacketReader(buffer, Packet.VERSION_1, PacketType.fromId(buffer.getInt()), 0);
+        }
+        if (first != Packet.VERSION_2) {
+            throw new IllegalArgumentException("Unknown wire format version: " + first);
+        }
+
+        buffer.get();
+        PacketType type = PacketType.fromId(buffer.get() & 0xFF);
+        int flags = buffer.get() & 0xFF;
+
+        if ((flags & Packet.FLAG_COMPRESSED) != 0) {
+            int length = Utils.extractVarInt(buffer);
+            if (length < 0 || length > Packet.MAX_SIZE) {
+                throw new IllegalArgumentException("Decompressed body too big: " + length);
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            PacketCompression.decompress(buffer, body, length);
+            buffer = body.flip();
+        }
+
+        return new PacketReader(buffer, Packet.VERSION_2, type, flags);
+    }
+
+    public PacketType getType() {
+        return type;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns whether the packet has fields left to read.
+     *
+     * @return true if there are bytes left in the packet
+     */
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Reads a {@link Packet.Text} field.
+     *
+     * @return the text
+     */
+    public String readText() {
+        return version == Packet.VERSION_1 ? Utils.extractString(buffer) : Utils.extractVarString(buffer);
+    }
+
+    /**
+     * Reads a {@link Packet.Int} field.
+     *
+     * @return the number
+     */
+    public int readInt() {
+        return version == Packet.VERSION_1 ? buffer.getInt() : Utils.extractVarInt(buffer);
+    }
+
+    /**
+     * Reads a {@link Packet.Sequence} field.
+     *
+     * @return the sequence number, or null if the packet was encoded without sequence numbers
+     */
+    public Packet.Sequence readSequence() {
+        if ((flags & Packet.FLAG_SEQUENCES) == 0) {
+            return null;
+        }
+
+        int channel = Utils.extractVarInt(buffer);
+        return new Packet.Sequence(channel, Utils.extractVarInt(buffer));
+    }
+
+    /**
+     * Reads a {@link Packet.Named} field.
+     *
+     * @param names Resolves the id of a reference sent by id to its name
+     * @return the name of the user or room
+     */
+    public String readName(IntFunction<String> names) {
+        if ((flags & Packet.FLAG_IDS) != 0) {
+            return names.apply(Utils.extractVarInt(buffer));
+        }
+
+        return readText();
+    }
+
+    /**
+     * Reads a {@link Packet.NamedList} field.
+     *
+     * @return the entries of the list (with an id of -1 if the ids were not sent)
+     */
+    public List<Packet.Named> readList() {
+        List<Packet.Named> entries = new ArrayList<>();
+
+        if (version == Packet.VERSION_1) {
+            for (String name : Utils.extractString(buffer).split(",")) {
+                entries.add(new Packet.Named(-1, name));
+            }
+            return entries;
+        }
+
+        boolean ids = (flags & Packet.FLAG_IDS) != 0;
+        int count = Utils.extractVarInt(buffer);
+        for (int i = 0; i < count; i++) {
+            int id = ids ? Utils.extractVarInt(buffer) : -1;
+            entries.add(new Packet.Named(id, Utils.extractVarString(buffer)));
+        }
+        return entries;
+    }
+}
@@ -1,43 +1,90 @@
 package fr.polytech;
 
+/**
+ * Types of the packets exchanged between the clients and the server.
+ * <p>
+ * Every type has an explicit, stable wire id: ids must never be changed or reused,
+ * so that types can be reordered or added without breaking existing clients.
+ * <p>
+ * Chat messages are the data plane, every other type is the control plane (liveness, membership, lists),
+ * which is sent ahead of the chat traffic (see {@link #isControl()}).
+ */
 public enum PacketType {
-    HELLO,
-    BROADCAST,
-    PRIVATE,
-    ROOM_MESSAGE,
+    HELLO(0),
+    BROADCAST(1),
+    PRIVATE(2),
+    ROOM_MESSAGE(3),
 
     // Server-Only
-    PORT,
-    NAME_ALREADY_TAKEN,
-    NEW_USER,
-    USER_LIST,
-    ROOM_LIST,
-    ROOM_SWITCH,
+    PORT(4),
+    NAME_ALREADY_TAKEN(5),
+    NEW_USER(6),
+    USER_LIST(7),
+    ROOM_LIST(8),
+    ROOM_SWITCH(9),
+    SERVER_FULL(14),
+    MULTICAST_GROUP(15),
+    SEARCH_RESULTS(19),
+    SUBSCRIPTIONS(22),
 
     // Client-Only,
-    HEARTBEAT,
-    CREATE_ROOM,
-    DELETE_ROOM,
-    JOIN_ROOM;
+    HEARTBEAT(10),
+    CREATE_ROOM(11),
+    DELETE_ROOM(12),
+    JOIN_ROOM(13),
+    MULTICAST_JOINED(16),
+    RESEND(17),
+    SEARCH(18),
+    SUBSCRIBE(20),
+    UNSUBSCRIBE(21);
 
-    private int id;
+    /**
+     * Packet types indexed by wire id (null for unused ids)
+     */
+    private static final PacketType[] byId;
 
     static {
-        int i = 0;
+        int maxId = 0;
         for (PacketType type : PacketType.values()) {
-            type.id = i++;
+            maxId = Math.max(maxId, type.id);
         }
+
+        byId = new PacketType[maxId + 1];
+        for (PacketType type : PacketType.values()) {
+            if (byId[type.id] != null) {
+                throw new IllegalStateException("Duplicate packet id: " + type.id);
+            }
+            byId[type.id] = type;
+        }
+    }
+
+    private final int id;
+
+    PacketType(int id) {
+        this.id = id;
     }
 
     public int getId() {
         return id;
     }
 
+    /**
+     * Returns whether this type belongs to the control plane, which must not wait behind the chat messages.
+     *
+     * @return false for the chat messages (broadcast, private and room messages), true otherwise
+     */
+    public boolean isControl() {
+        return switch (this) {
+            case BROADCAST, PRIVATE, ROOM_MESSAGE -> false;
+            default -> true;
+        };
+    }
+
     public static PacketType fromId(int id) {
-        if (id < 0 || id >= PacketType.values().length) {
+        if (id < 0 || id >= byId.length || byId[id] == null) {
             throw new IllegalArgumentException("Unknown packet type: " + id);
         }
 
-        return PacketType.values()[id];
+        return byId[id];
     }
-}
\ No newline at end of file
+}
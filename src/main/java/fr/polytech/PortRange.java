@@ -0,0 +1,80 @@
+package fr.polytech;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Inclusive range of UDP ports.
+ *
+ * @param first First port of the range
+ * @param last  Last port of the range (inclusive)
+ */
+public record PortRange(int first, int last) {
+    public PortRange {
+        if (first < 0 || last > 65535 || first > last) {
+            throw new IllegalArgumentException("Invalid port range: " + first + "-" + last);
+        }
+    }
+
+    /**
+     * Returns the number of ports in this range.
+     *
+     * @return the number of ports in this range
+     */
+    public int size() {
+        return last - first + 1;
+    }
+
+    /**
+     * Parses a comma-separated list of ports and port ranges, such as {@code 53,1000-2000,5000}.
+     *
+     * @param string The list to parse
+     * @return the parsed ranges, in the order they were given
+     * @throws IllegalArgumentException if the list is malformed or a port is out of bounds
+     */
+    public static List<PortRange> parseList(String string) {
+        List<PortRange> ranges = new ArrayList<>();
+
+        for (String part : string.split(",")) {
+            String[] bounds = part.trim().split("-", 2);
+            try {
+                int first = Integer.parseInt(bounds[0].trim());
+                int last = bounds.length == 2 ? Integer.parseInt(bounds[1].trim()) : first;
+                ranges.add(new PortRange(first, last));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid port range: " + part);
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Formats a set of ports as a compact comma-separated list of ranges, such as {@code 53, 1000-2000}.
+     *
+     * @param ports The set of ports to format
+     * @return the formatted list, or "none" if the set is empty
+     */
+    public static String format(BitSet ports) {
+        if (ports.isEmpty()) {
+            return "none";
+        }
+
+        StringBuilder builder = new StringBuilder();
+        int first = ports.nextSetBit(0);
+        while (first >= 0) {
+            int end = ports.nextClearBit(first);
+            if (!builder.isEmpty()) {
+                builder.append(", ");
+            }
+            builder.append(first);
+            if (end - 1 > first) {
+                builder.append('-').append(end - 1);
+            }
+            first = ports.nextSetBit(end);
+        }
+
+        return builder.toString();
+    }
+}
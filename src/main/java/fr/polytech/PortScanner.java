@@ -0,0 +1,280 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+/**
+ * UDP port scanning engine.
+ * <p>
+ * Two kinds of scans are supported:
+ * <ul>
+ *   <li>Local scans check whether ports can be bound on this host. Port ranges are split into chunks
+ *   that are checked in parallel on a {@link ForkJoinPool}.</li>
+ *   <li>Remote scans send a probe datagram to each port of a host. Up to {@code concurrency} probes are in flight
+ *   at the same time, all driven by a single {@link Selector} with a per-port timeout.
+ *   A port answering the probe is open, a port answering with an ICMP port unreachable is closed,
+ *   and a port that stays silent until the timeout is either open or filtered.</li>
+ * </ul>
+ * Both kinds of scans can be rate limited, which matters for remote scans since most hosts rate limit
+ * their ICMP replies (ports may then wrongly appear as silent).
+ */
+public class PortScanner {
+    /**
+     * Number of ports below which a local scan chunk is not split anymore
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Result of a remote scan
+     *
+     * @param open    Ports that answered the probe
+     * @param closed  Ports that answered with an ICMP port unreachable
+     * @param silent  Ports that did not answer before the timeout (open or filtered)
+     */
+    public record ProbeResult(BitSet open, BitSet closed, BitSet silent) {
+    }
+
+    /**
+     * Maximum number of ports checked or probed at the same time
+     */
+    private final int concurrency;
+    /**
+     * Minimum delay between two checks or probes, in nanoseconds (0 if not rate limited)
+     */
+    private final long interval;
+    /**
+     * Delay after which a probed port that did not answer is considered silent, in nanoseconds
+     */
+    private final long timeout;
+
+    /**
+     * Next instant at which a check is allowed by the rate limit
+     */
+    private final AtomicLong nextSlot = new AtomicLong();
+
+    /**
+     * Creates a new port scanner.
+     *
+     * @param concurrency Maximum number of ports checked or probed at the same time
+     * @param rateLimit   Maximum number of ports checked or probed per second (0 for no limit)
+     * @param timeoutMs   Delay after which a probed port that did not answer is considered silent, in milliseconds
+     */
+    public PortScanner(int concurrency, int rateLimit, int timeoutMs) {
+        if (concurrency <= 0 || rateLimit < 0 || timeoutMs <= 0) {
+            throw new IllegalArgumentException("Concurrency and timeout must be positive, rate limit cannot be negative");
+        }
+
+        this.concurrency = concurrency;
+        this.interval = rateLimit == 0 ? 0 : 1_000_000_000L / rateLimit;
+        this.timeout = timeoutMs * 1_000_000L;
+    }
+
+    /**
+     * Checks which ports of the given ranges can be bound on this host.
+     *
+     * @param ranges The port ranges to check
+     * @return the set of ports that could be bound
+     */
+    public BitSet scanLocal(List<PortRange> ranges) {
+        try (ForkJoinPool pool = new ForkJoinPool(concurrency)) {
+            BitSet available = new BitSet(65536);
+            for (PortRange range : ranges) {
+                available.or(pool.invoke(new LocalScanTask(range.first(), range.last())));
+            }
+            return available;
+        }
+    }
+
+    /**
+     * Probes the ports of the given ranges on a remote host.
+     *
+     * @param host    The host to probe
+     * @param ranges  The port ranges to probe
+     * @param payload The content of the probe datagrams (a single zero byte is sent if it is empty,
+     *                since a connected channel does not send empty datagrams)
+     * @return the state of every probed port
+     * @throws IOException if the selector or a probe channel could not be opened
+     */
+    public ProbeResult probeRemote(InetAddress host, List<PortRange> ranges, byte[] payload) throws IOException {
+        byte[] probePayload = payload.length == 0 ? new byte[1] : payload;
+        ProbeResult result = new ProbeResult(new BitSet(65536), new BitSet(65536), new BitSet(65536));
+        PrimitiveIterator.OfInt ports = ranges.stream()
+                .flatMapToInt((range) -> IntStream.rangeClosed(range.first(), range.last()))
+                .distinct()
+                .iterator();
+
+        // All probes share the same timeout, so the in-flight queue is ordered by deadline
+        // (answered probes stay in the queue until they reach its head, but no longer count as active)
+        ArrayDeque<Probe> inFlight = new ArrayDeque<>(concurrency);
+        ByteBuffer receiveBuffer = ByteBuffer.allocate(1024);
+        long nextSend = System.nanoTime();
+        int active = 0;
+
+        try (Selector selector = Selector.open()) {
+            while (ports.hasNext() || !inFlight.isEmpty()) {
+                long now = System.nanoTime();
+
+                // Start new probes while the concurrency and the rate limit allow it
+                while (ports.hasNext() && active < concurrency && now >= nextSend) {
+                    int port = ports.nextInt();
+                    DatagramChannel channel = DatagramChannel.open();
+                    channel.configureBlocking(false);
+                    channel.connect(new InetSocketAddress(host, port));
+
+                    Probe probe = new Probe(port, channel, now + timeout);
+                    channel.register(selector, SelectionKey.OP_READ, probe);
+                    channel.write(ByteBuffer.wrap(probePayload));
+                    inFlight.add(probe);
+                    active++;
+                    nextSend = now + interval;
+                }
+
+                // Expire the probes that did not get any answer
+                while (!inFlight.isEmpty() && (inFlight.peek().done || inFlight.peek().deadline <= now)) {
+                    Probe probe = inFlight.poll();
+                    if (!probe.done) {
+                        result.silent().set(probe.port);
+                        probe.channel.close();
+                        active--;
+                    }
+                }
+
+                long wakeup = inFlight.isEmpty() ? nextSend : inFlight.peek().deadline;
+                if (ports.hasNext() && active < concurrency) {
+                    wakeup = Math.min(wakeup, nextSend);
+                }
+                long timeoutMillis = Math.max(1, (wakeup - System.nanoTime() + 999_999) / 1_000_000);
+                if (selector.select(timeoutMillis) == 0) {
+                    continue;
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    try {
+                        receiveBuffer.clear();
+                        if (probe.channel.receive(receiveBuffer) == null) {
+                            continue;
+                        }
+                        result.open().set(probe.port);
+                    } catch (IOException e) {
+                        // Usually a PortUnreachableException, raised by the ICMP reply
+                        result.closed().set(probe.port);
+                    }
+                    probe.done = true;
+                    probe.channel.close();
+                    active--;
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (Probe probe : inFlight) {
+                probe.channel.close();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Waits until the rate limit allows another check.
+     * Slots are reserved atomically, so that concurrent workers share the same budget.
+     */
+    private void acquire() {
+        if (interval == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long slot = nextSlot.getAndUpdate((next) -> Math.max(next, now) + interval);
+        slot = Math.max(slot, now);
+        while (slot > System.nanoTime()) {
+            LockSupport.parkNanos(slot - System.nanoTime());
+        }
+    }
+
+    /**
+     * Checks whether a port can be bound on this host.
+     *
+     * @param port The port to check
+     * @return true if the port could be bound, false otherwise
+     */
+    private boolean isAvailable(int port) {
+        acquire();
+
+        try (DatagramSocket _ = new DatagramSocket(port)) {
+            return true;
+        } catch (IOException e) {
+            // Usually a BindException, the port is in use or reserved
+            return false;
+        }
+    }
+
+    /**
+     * In-flight probe of a remote port
+     */
+    private static final class Probe {
+        final int port;
+        final DatagramChannel channel;
+        final long deadline;
+        /**
+         * Set once the port answered, so that the probe is skipped when it expires
+         */
+        boolean done;
+
+        Probe(int port, DatagramChannel channel, long deadline) {
+            this.port = port;
+            this.channel = channel;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Local scan of a chunk of ports, split in halves until it is small enough
+     */
+    private final class LocalScanTask extends RecursiveTask<BitSet> {
+        private final int first;
+        private final int last;
+
+        LocalScanTask(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected BitSet compute() {
+            if (last - first < CHUNK_SIZE) {
+                BitSet available = new BitSet(last + 1);
+                for (int port = first; port <= last; port++) {
+                    if (isAvailable(port)) {
+                        available.set(port);
+                    }
+                }
+                return available;
+            }
+
+            int middle = (first + last) >>> 1;
+            LocalScanTask low = new LocalScanTask(first, middle);
+            LocalScanTask high = new LocalScanTask(middle + 1, last);
+            high.fork();
+
+            BitSet available = low.compute();
+            available.or(high.join());
+            return available;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package fr.polytech;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces the presence events of the server (users joining the server, leaving it, or switching rooms)
+ * over a short window.
+ * <p>
+ * Instead of one user list fan-out per join or leave and two announcements per room switch, each window sends
+ * at most one user list, and one announcement per room listing the users who left and joined it
+ * ("alice and bob joined this room"). A user who leaves a room and comes back, or only passes through it,
+ * within the window is not announced.
+ * A mass reconnect or room migration then costs a few packets per room instead of one fan-out per user.
+ * <p>
+ * With a window of 0, every event is sent right away, one by one.
+ */
+class PresenceAggregator {
+    /**
+     * Maximum number of names listed in an announcement, the next ones are counted
+     */
+    private static final int MAX_NAMES = 10;
+
+    /**
+     * Users who left and joined a room during the current window
+     */
+    private static final class RoomChanges {
+        private final LinkedHashSet<String> left = new LinkedHashSet<>();
+        private final LinkedHashSet<String> joined = new LinkedHashSet<>();
+    }
+
+    private final long windowMillis;
+    private final Runnable userListSender;
+    private final BiConsumer<String, String> announcer;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Pending events of the current window (guarded by the aggregator)
+     */
+    private boolean userListChanged;
+    private final Map<String, RoomChanges> rooms = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    /**
+     * Creates an aggregator.
+     *
+     * @param windowMillis   Duration of a window, in milliseconds (0 to send every event right away)
+     * @param userListSender Sends the current user list to every user
+     * @param announcer      Sends an announcement of the server to a room (room, message)
+     */
+    PresenceAggregator(long windowMillis, Runnable userListSender, BiConsumer<String, String> announcer) {
+        this.windowMillis = windowMillis;
+        this.userListSender = userListSender;
+        this.announcer = announcer;
+
+        scheduler = windowMillis == 0 ? null : Executors.newSingleThreadScheduledExecutor((task) -> {
+            Thread thread = new Thread(task, "presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Records that a user joined or left the server.
+     */
+    void userListChanged() {
+        synchronized (this) {
+            userListChanged = true;
+        }
+        eventAdded();
+    }
+
+    /**
+     * Records that a user joined a room.
+     *
+     * @param room The name of the room
+     * @param user The name of the user
+     */
+    void joined(String room, String user) {
+        synchronized (this) {
+            RoomChanges changes = rooms.computeIfAbsent(room, (key) -> new RoomChanges());
+            // Coming back to a room left during the window is not a change
+            if (!changes.left.remove(user)) {
+                changes.joined.add(user);
+            }
+        }
+        eventAdded();
+    }
+
+    /**
+     * Records that a user left a room.
+     *
+     * @param room The name of the room
+     * @param user The name of the user
+     */
+    void left(String room, String user) {
+        synchronized (this) {
+            RoomChanges changes = rooms.computeIfAbsent(room, (key) -> new RoomChanges());
+            if (!changes.joined.remove(user)) {
+                changes.left.add(user);
+            }
+        }
+        eventAdded();
+    }
+
+    /**
+     * Sends the pending events right away.
+     */
+    void flush() {
+        boolean sendUserList;
+        Map<String, String> announcements = new LinkedHashMap<>();
+        synchronized (this) {
+            sendUserList = userListChanged;
+            userListChanged = false;
+            flushScheduled = false;
+
+            for (Iterator<Map.Entry<String, RoomChanges>> it = rooms.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, RoomChanges> entry = it.next();
+                it.remove();
+
+                String announcement = describe(entry.getValue());
+                if (announcement != null) {
+                    announcements.put(entry.getKey(), announcement);
+                }
+            }
+        }
+
+        announcements.forEach(announcer);
+        if (sendUserList) {
+            userListSender.run();
+        }
+    }
+
+    /**
+     * Sends the events right away without window, or makes sure that the end of the window is scheduled.
+     */
+    private void eventAdded() {
+        if (scheduler == null) {
+            flush();
+            return;
+        }
+
+        synchronized (this) {
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        scheduler.schedule(this::flushSafely, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates the announcement of the changes of a room, e.g. "bob left this room; alice and carol joined this room".
+     *
+     * @return the announcement, or null if nothing changed
+     */
+    private static String describe(RoomChanges changes) {
+        List<String> parts = new ArrayList<>(2);
+        if (!changes.left.isEmpty()) {
+            parts.add(listNames(changes.left) + " left this room");
+        }
+        if (!changes.joined.isEmpty()) {
+            parts.add(listNames(changes.joined) + " joined this room");
+        }
+
+        return parts.isEmpty() ? null : String.join("; ", parts);
+    }
+
+    /**
+     * Lists names in English ("alice", "alice and bob", "alice, bob and 3 others").
+     */
+    private static String listNames(LinkedHashSet<String> names) {
+        List<String> listed = names.stream().limit(MAX_NAMES).toList();
+        int others = names.size() - listed.size();
+
+        if (others > 0) {
+            return String.join(", ", listed) + " and " + others + (others == 1 ? " other" : " others");
+        }
+        if (listed.size() == 1) {
+            return listed.getFirst();
+        }
+
+        return String.join(", ", listed.subList(0, listed.size() - 1)) + " and " + listed.getLast();
+    }
+}
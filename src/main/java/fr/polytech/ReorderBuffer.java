@@ -0,0 +1,156 @@
+package fr.polytech;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Delivers the messages of one sequenced channel (a room, the private messages or the broadcasts) in the order
+ * of their sequence numbers (only used on the loop thread of the client).
+ * <p>
+ * Messages arriving ahead of a gap are held back, and the missing ones are asked to the server once. If the gap
+ * is still there after a timeout, or if too many messages are held back, the missing messages are given up on,
+ * and the held back ones are delivered. Duplicates and messages arriving after their turn are dropped.
+ */
+final class ReorderBuffer {
+    private final ChatEventLoop loop;
+    private final int capacity;
+    private final long timeoutMillis;
+    private final BiConsumer<Integer, Integer> missingHandler;
+    private final IntConsumer lostHandler;
+
+    /**
+     * Held back messages, by sequence number
+     */
+    private final TreeMap<Integer, Runnable> pending = new TreeMap<>();
+    /**
+     * Sequence number of the next message to deliver (-1 until the first message)
+     */
+    private int expected = -1;
+    /**
+     * Last sequence number already asked to the server
+     */
+    private int requestedUpTo = 0;
+    private ChatEventLoop.Timer gapTimer;
+
+    /**
+     * Creates a reorder buffer.
+     *
+     * @param loop           The event loop of the client
+     * @param capacity       Maximum number of held back messages
+     * @param timeoutMillis  Delay after which a gap is given up on, in milliseconds
+     * @param missingHandler Asks the server for the messages between two sequence numbers (inclusive)
+     * @param lostHandler    Called with the number of messages given up on
+     */
+    ReorderBuffer(
+            ChatEventLoop loop,
+            int capacity,
+            long timeoutMillis,
+            BiConsumer<Integer, Integer> missingHandler,
+            IntConsumer lostHandler) {
+        this.loop = loop;
+        this.capacity = capacity;
+        this.timeoutMillis = timeoutMillis;
+        this.missingHandler = missingHandler;
+        this.lostHandler = lostHandler;
+    }
+
+    /**
+     * Delivers a message, or holds it back until the previous ones are delivered.
+     *
+     * @param sequence The sequence number of the message
+     * @param delivery Delivers the message to the listener
+     */
+    void offer(int sequence, Runnable delivery) {
+        if (expected == -1) {
+            expected = sequence;
+            requestedUpTo = sequence - 1;
+        }
+        if (sequence < expected || pending.containsKey(sequence)) {
+            return;
+        }
+
+        if (sequence == expected) {
+            delivery.run();
+            expected++;
+            drain();
+            return;
+        }
+
+        pending.put(sequence, delivery);
+        if (pending.size() > capacity) {
+            skipGap();
+        } else {
+            watchGap();
+        }
+    }
+
+    /**
+     * Delivers all the held back messages, and forgets the sequence numbers (e.g. when leaving a room).
+     */
+    void flush() {
+        cancelTimer();
+        for (Runnable delivery : pending.values()) {
+            delivery.run();
+        }
+        pending.clear();
+        expected = -1;
+    }
+
+    /**
+     * Delivers the held back messages that are now in order, and watches the next gap if any.
+     */
+    private void drain() {
+        while (!pending.isEmpty() && pending.firstKey() == expected) {
+            pending.pollFirstEntry().getValue().run();
+            expected++;
+        }
+
+        // The head of the sequence moved, so the timeout restarts for the next gap
+        cancelTimer();
+        watchGap();
+    }
+
+    /**
+     * Asks for the messages missing before the first held back one, and starts the timeout of the gap.
+     */
+    private void watchGap() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        int last = pending.firstKey() - 1;
+        if (last > requestedUpTo) {
+            missingHandler.accept(Math.max(expected, requestedUpTo + 1), last);
+            requestedUpTo = last;
+        }
+        if (gapTimer == null) {
+            gapTimer = loop.schedule(timeoutMillis, () -> {
+                gapTimer = null;
+                skipGap();
+            });
+        }
+    }
+
+    /**
+     * Gives up on the messages missing before the first held back one.
+     */
+    private void skipGap() {
+        Map.Entry<Integer, Runnable> first = pending.firstEntry();
+        if (first == null) {
+            return;
+        }
+
+        lostHandler.accept(first.getKey() - expected);
+        expected = first.getKey();
+        drain();
+    }
+
+    private void cancelTimer() {
+        if (gapTimer != null) {
+            gapTimer.cancel();
+            gapTimer = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package fr.polytech;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chat room of the server: its id, its sequenced channel, its search index and its members.
+ * <p>
+ * The members are the sessions receiving the room, whether it is their current room or a room they subscribed to,
+ * so that a room message is only fanned out to them instead of being tested against every session of the server.
+ * <p>
+ * Once deleted, a room takes no new member, so a session switching or subscribing to it while it is deleted
+ * cannot be left behind in it: either it joined before the deletion and is moved out by it, or it is refused.
+ */
+class Room {
+    private final String name;
+    private final int id;
+    private final SequencedChannel channel;
+    /**
+     * Index of the messages of the users (null when the search is disabled)
+     */
+    private final RoomSearchIndex searchIndex;
+
+    /**
+     * Sessions receiving the room, by name
+     */
+    private final ConcurrentHashMap<String, Session> members = new ConcurrentHashMap<>();
+    /**
+     * Flag indicating that the room was deleted (guarded by the room)
+     */
+    private boolean deleted = false;
+
+    /**
+     * Creates a room without members.
+     *
+     * @param name         The name of the room
+     * @param id           The id of the room, which is also the id of its channel
+     * @param lastSequence The sequence number the channel goes on from (0 for a new channel)
+     * @param history      Number of messages kept by the channel for the clients asking for missing ones
+     * @param searchMemory Memory the search index may use in bytes, or 0 for no search index
+     */
+    Room(String name, int id, int lastSequence, int history, long searchMemory) {
+        this.name = name;
+        this.id = id;
+        this.channel = new SequencedChannel(id, history);
+        this.searchIndex = searchMemory > 0 ? new RoomSearchIndex(searchMemory) : null;
+
+        if (lastSequence > 0) {
+            channel.restore(lastSequence);
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    SequencedChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the search index of the room.
+     *
+     * @return the index of the messages of the users, or null if the search is disabled
+     */
+    RoomSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Returns the sessions receiving the room.
+     *
+     * @return the members of the room, by name (a live view)
+     */
+    ConcurrentHashMap<String, Session> getMembers() {
+        return members;
+    }
+
+    /**
+     * Adds a member to the room, unless the room was deleted.
+     *
+     * @param session The session receiving the room
+     * @return true if the session is a member, false if the room was deleted
+     */
+    synchronized boolean join(Session session) {
+        if (deleted) {
+            return false;
+        }
+
+        members.put(session.getName(), session);
+        return true;
+    }
+
+    /**
+     * Removes a member from the room.
+     *
+     * @param session The session not receiving the room anymore
+     */
+    void leave(Session session) {
+        members.remove(session.getName(), session);
+    }
+
+    /**
+     * Marks the room as deleted, so that it takes no new member.
+     *
+     * @return the members of the room at the time of the deletion, or null if the room was already deleted
+     */
+    synchronized List<Session> delete() {
+        if (deleted) {
+            return null;
+        }
+
+        deleted = true;
+        return List.copyOf(members.values());
+    }
+}
@@ -0,0 +1,262 @@
+package fr.polytech;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Full-text index of the last messages of a room, so that users can find earlier messages.
+ * <p>
+ * Messages are indexed as they are sent: each message gets a document id (increasing), and each word of the message
+ * gets the id appended to its posting list, a plain int array sorted by construction. A query intersects the
+ * posting lists of its words, starting from the shortest one and binary searching the others, newest first, so it
+ * costs a few lookups per candidate instead of a scan of the history.
+ * <p>
+ * The index has a memory budget: once it is exceeded, the oldest messages are forgotten. The oldest message is
+ * always at the head of the posting lists of its words, so forgetting it only moves their heads forward.
+ * Words are the runs of letters and digits of a message, lowercased; a query matches the messages containing
+ * all of its words.
+ */
+class RoomSearchIndex {
+    /**
+     * Maximum number of results in a page
+     */
+    static final int PAGE_SIZE = 10;
+    /**
+     * Maximum number of characters of the messages of a page, so that a page fits in a datagram
+     */
+    private static final int MAX_PAGE_CHARS = 8192;
+    /**
+     * Words longer than this are truncated
+     */
+    private static final int MAX_WORD_LENGTH = 32;
+    /**
+     * Estimated overhead of an object (header, references, array bookkeeping), in bytes
+     */
+    private static final int OBJECT_OVERHEAD = 48;
+
+    /**
+     * Page of results, newest first.
+     *
+     * @param hits The messages of the page
+     * @param next The cursor of the next page, or 0 if this is the last page
+     */
+    record Page(List<SearchHit> hits, int next) {
+    }
+
+    /**
+     * Ids of the messages containing a word, in increasing order, from head to size
+     */
+    private static final class PostingList {
+        private int[] ids = new int[4];
+        private int head;
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                // Reclaim the forgotten head before growing
+                if (head > ids.length / 2) {
+                    System.arraycopy(ids, head, ids, 0, size - head);
+                    size -= head;
+                    head = 0;
+                } else {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+            }
+            ids[size++] = id;
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(ids, head, size, id) >= 0;
+        }
+
+        private int length() {
+            return size - head;
+        }
+    }
+
+    private final long memoryBudget;
+
+    /**
+     * Posting lists by word (guarded by the index)
+     */
+    private final HashMap<String, PostingList> postings = new HashMap<>();
+    /**
+     * Indexed messages, in a ring: the message of id {@code firstId + i} is at {@code (start + i) % length}
+     */
+    private SearchHit[] messages = new SearchHit[16];
+    private int start;
+    private int count;
+    /**
+     * Id of the oldest indexed message (ids start at 1, 0 is the cursor of the first page)
+     */
+    private int firstId = 1;
+    /**
+     * Estimated memory used by the index, in bytes
+     */
+    private long memory;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param memoryBudget Memory the index may use, in bytes (estimated), before forgetting the oldest messages
+     */
+    RoomSearchIndex(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Indexes a new message of the room.
+     *
+     * @param sender  The name of the user who sent the message
+     * @param message The content of the message
+     */
+    synchronized void add(String sender, String message) {
+        if (count == messages.length) {
+            SearchHit[] grown = new SearchHit[messages.length * 2];
+            for (int i = 0; i < count; i++) {
+                grown[i] = messages[(start + i) % messages.length];
+            }
+            messages = grown;
+            start = 0;
+        }
+
+        int id = firstId + count;
+        messages[(start + count) % messages.length] = new SearchHit(sender, message);
+        count++;
+        memory += OBJECT_OVERHEAD + 2L * (sender.length() + message.length()) + 8;
+
+        for (String word : words(message)) {
+            PostingList list = postings.get(word);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(word, list);
+                memory += 2 * OBJECT_OVERHEAD + 2L * word.length() + 4L * list.ids.length;
+            } else if (list.size == list.ids.length && list.head <= list.ids.length / 2) {
+                memory += 4L * list.ids.length;
+            }
+            list.add(id);
+        }
+
+        while (memory > memoryBudget && count > 1) {
+            forgetOldest();
+        }
+    }
+
+    /**
+     * Finds the messages containing every word of a query, newest first.
+     *
+     * @param query  The words to look for
+     * @param before Cursor of the page: only messages older than it are returned (0 for the first page)
+     * @return the page of results (empty if the query has no word or nothing matches)
+     */
+    synchronized Page search(String query, int before) {
+        Set<String> words = words(query);
+        if (words.isEmpty() || count == 0) {
+            return new Page(List.of(), 0);
+        }
+
+        PostingList[] lists = new PostingList[words.size()];
+        int index = 0;
+        for (String word : words) {
+            PostingList list = postings.get(word);
+            if (list == null) {
+                return new Page(List.of(), 0);
+            }
+            lists[index++] = list;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length(), b.length()));
+
+        // Walk the shortest list from the newest candidate older than the cursor
+        PostingList shortest = lists[0];
+        int position = before <= 0 ? shortest.size - 1 : lowerPosition(shortest, before);
+
+        List<SearchHit> hits = new ArrayList<>();
+        int chars = 0;
+        int lastId = 0;
+        for (; position >= shortest.head; position--) {
+            int id = shortest.ids[position];
+            if (!containsAll(lists, id)) {
+                continue;
+            }
+
+            SearchHit hit = messages[(start + id - firstId) % messages.length];
+            int length = hit.sender().length() + hit.message().length();
+            if (hits.size() == PAGE_SIZE || (!hits.isEmpty() && chars + length > MAX_PAGE_CHARS)) {
+                // There is at least one more result
+                return new Page(hits, lastId);
+            }
+
+            hits.add(hit);
+            chars += length;
+            lastId = id;
+        }
+
+        return new Page(hits, 0);
+    }
+
+    /**
+     * Forgets the oldest message, whose id is at the head of the posting list of each of its words.
+     */
+    private void forgetOldest() {
+        SearchHit oldest = messages[start];
+        messages[start] = null;
+        start = (start + 1) % messages.length;
+        count--;
+        firstId++;
+        memory -= OBJECT_OVERHEAD + 2L * (oldest.sender().length() + oldest.message().length()) + 8;
+
+        for (String word : words(oldest.message())) {
+            PostingList list = postings.get(word);
+            list.head++;
+            if (list.length() == 0) {
+                postings.remove(word);
+                memory -= 2 * OBJECT_OVERHEAD + 2L * word.length() + 4L * list.ids.length;
+            }
+        }
+    }
+
+    private static boolean containsAll(PostingList[] lists, int id) {
+        for (int i = 1; i < lists.length; i++) {
+            if (!lists[i].contains(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position of the last id lower than the given one, or head - 1 if there is none.
+     */
+    private static int lowerPosition(PostingList list, int id) {
+        int position = Arrays.binarySearch(list.ids, list.head, list.size, id);
+        // Insertion point when not found, the id itself is excluded when found
+        return position >= 0 ? position - 1 : -position - 2;
+    }
+
+    /**
+     * Splits a text into its distinct words: runs of letters and digits, lowercased.
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int wordStart = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i > wordStart) {
+                words.add(text.substring(wordStart, Math.min(i, wordStart + MAX_WORD_LENGTH)).toLowerCase(Locale.ROOT));
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,10 @@
+package fr.polytech;
+
+/**
+ * Message of a room found by a search.
+ *
+ * @param sender  The name of the user who sent the message ("Server" for notifications)
+ * @param message The content of the message
+ */
+public record SearchHit(String sender, String message) {
+}
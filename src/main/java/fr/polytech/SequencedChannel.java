@@ -0,0 +1,93 @@
+package fr.polytech;
+
+import java.util.function.Function;
+
+/**
+ * Channel of messages stamped with consecutive sequence numbers: a room, the private messages of a user,
+ * or the broadcasts.
+ * <p>
+ * The last messages of the channel are kept, so that clients detecting a gap in the sequence numbers can ask
+ * for the missing ones (RESEND). Older messages are lost for good: this gives ordering, not full reliability.
+ */
+class SequencedChannel {
+    /**
+     * Id of the channel, sent with the sequence numbers
+     */
+    private final int id;
+    private final int historySize;
+
+    /**
+     * Ring of the last messages and their sequence numbers (allocated on the first message)
+     */
+    private Packet[] history;
+    private int[] sequences;
+    private int lastSequence = 0;
+
+    /**
+     * Creates a channel, whose first message will have the sequence number 1.
+     *
+     * @param id          The id of the channel
+     * @param historySize Number of messages kept for the clients asking for missing ones
+     */
+    SequencedChannel(int id, int historySize) {
+        this.id = id;
+        this.historySize = historySize;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the sequence number of the last stamped message.
+     *
+     * @return the last sequence number (0 if nothing was stamped)
+     */
+    synchronized int getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Goes on from the last sequence number of a previous run of the server, so that the clients keep their
+     * reorder buffers across a restart (the messages of the previous run are not in the history).
+     *
+     * @param lastSequence The last sequence number stamped by the previous run
+     */
+    synchronized void restore(int lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Stamps a new message with the next sequence number, and keeps it in the history.
+     *
+     * @param factory Creates the message from its {@link Packet.Sequence} field
+     * @return the message
+     */
+    synchronized Packet stamp(Function<Packet.Sequence, Packet> factory) {
+        if (history == null) {
+            history = new Packet[historySize];
+            sequences = new int[historySize];
+        }
+
+        int sequence = ++lastSequence;
+        Packet packet = factory.apply(new Packet.Sequence(id, sequence));
+        history[sequence % historySize] = packet;
+        sequences[sequence % historySize] = sequence;
+
+        return packet;
+    }
+
+    /**
+     * Returns a message of the history.
+     *
+     * @param sequence The sequence number of the message
+     * @return the message, or null if it is not in the history anymore (or was never sent)
+     */
+    synchronized Packet get(int sequence) {
+        if (history == null || sequence <= 0 || sequences[sequence % historySize] != sequence) {
+            return null;
+        }
+
+        return history[sequence % historySize];
+    }
+}
@@ -0,0 +1,186 @@
+package fr.polytech;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+
+/**
+ * Configuration of the chat server, filled from the command line arguments ({@code --option=value}).
+ */
+class ServerOptions {
+    /**
+     * Range of ports the session sockets are bound to (null for ephemeral ports)
+     */
+    PortRange sessionPorts = null;
+    /**
+     * Number of pre-bound session sockets kept ready for new users
+     */
+    int warmPool = 32;
+    /**
+     * Duration during which the socket of an ended session is not reused, in milliseconds
+     */
+    int quarantine = 20000;
+    /**
+     * Whether big packets are compressed for the clients supporting it
+     */
+    boolean compression = true;
+    /**
+     * First multicast group of the large rooms (null to always use unicast)
+     */
+    InetAddress multicastGroup = null;
+    /**
+     * Port of the multicast groups
+     */
+    int multicastPort = 4446;
+    /**
+     * Number of members from which a room is sent by multicast
+     */
+    int multicastThreshold = 100;
+    /**
+     * Interface the multicast groups are sent on (null for the loopback interface)
+     */
+    NetworkInterface multicastInterface = null;
+    /**
+     * Number of threads sending the large broadcasts and room messages
+     */
+    int fanOutThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of sessions below which broadcasts and room messages are sent by the thread of their sender
+     */
+    int fanOutInline = 256;
+    /**
+     * Binds the main socket and the session sockets
+     */
+    Transport.Binder transport = ChannelTransport::bind;
+    /**
+     * Window over which the user list updates and the room announcements are coalesced, in milliseconds
+     */
+    int presenceWindow = 200;
+    /**
+     * File the rooms and sessions are saved to and restored from on start (null to start from scratch)
+     */
+    Path snapshot = null;
+    /**
+     * Delay between two snapshots, in milliseconds
+     */
+    int snapshotInterval = 5000;
+    /**
+     * Memory of the search index of each room, in KB (0 to disable the search)
+     */
+    int searchMemory = 1024;
+
+    /**
+     * Parses the command line arguments of the server.
+     *
+     * @param args The command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if an argument is malformed or unknown
+     */
+    static ServerOptions parse(String[] args) {
+        ServerOptions options = new ServerOptions();
+
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (!arg.startsWith("--") || parts.length != 2) {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+
+            String value = parts[1];
+            switch (parts[0]) {
+                case "--session-ports" -> {
+                    PortRange range = PortRange.parseList(value).getFirst();
+                    if (range.first() == 0) {
+                        throw new IllegalArgumentException("Session ports cannot include port 0");
+                    }
+                    options.sessionPorts = range;
+                }
+                case "--warm-pool" -> options.warmPool = Integer.parseInt(value);
+                case "--quarantine" -> options.quarantine = Integer.parseInt(value);
+                case "--compression" -> options.compression = switch (value) {
+                    case "on" -> true;
+                    case "off" -> false;
+                    default -> throw new IllegalArgumentException("Compression must be on or off: " + value);
+                };
+                case "--multicast" -> options.multicastGroup = parseMulticastGroup(value);
+                case "--multicast-port" -> options.multicastPort = Integer.parseInt(value);
+                case "--multicast-threshold" -> options.multicastThreshold = Integer.parseInt(value);
+                case "--multicast-interface" -> options.multicastInterface = parseInterface(value);
+                case "--fan-out-threads" -> options.fanOutThreads = Integer.parseInt(value);
+                case "--fan-out-inline" -> options.fanOutInline = Integer.parseInt(value);
+                case "--presence-window" -> options.presenceWindow = Integer.parseInt(value);
+                case "--snapshot" -> options.snapshot = Path.of(value);
+                case "--snapshot-interval" -> {
+                    options.snapshotInterval = Integer.parseInt(value);
+                    if (options.snapshotInterval <= 0) {
+                        throw new IllegalArgumentException("Snapshot interval must be positive: " + value);
+                    }
+                }
+                case "--search-memory" -> options.searchMemory = Integer.parseInt(value);
+                case "--transport" -> options.transport = switch (value) {
+                    case "socket" -> SocketTransport::bind;
+                    case "channel" -> ChannelTransport::bind;
+                    default -> throw new IllegalArgumentException("Transport must be socket or channel: " + value);
+                };
+                default -> throw new IllegalArgumentException("Unknown option: " + parts[0]);
+            }
+        }
+
+        return options;
+    }
+
+    private static InetAddress parseMulticastGroup(String value) {
+        try {
+            InetAddress group = InetAddress.getByName(value);
+            if (!group.isMulticastAddress() || group.getAddress().length != 4) {
+                throw new IllegalArgumentException("Not an IPv4 multicast address: " + value);
+            }
+            return group;
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid multicast address: " + value);
+        }
+    }
+
+    private static NetworkInterface parseInterface(String value) {
+        try {
+            NetworkInterface networkInterface = NetworkInterface.getByName(value);
+            if (networkInterface == null) {
+                throw new IllegalArgumentException("Unknown interface: " + value);
+            }
+            return networkInterface;
+        } catch (SocketException e) {
+            throw new IllegalArgumentException("Invalid interface: " + value);
+        }
+    }
+
+    /**
+     * Prints the list of the available options.
+     */
+    static void printUsage() {
+        System.out.println("Usage: ChatUDPServer [--option=value]...");
+        System.out.println("--session-ports=<first>-<last>  Ports of the session sockets (default: ephemeral ports)");
+        System.out.println("--warm-pool=<n>                 Pre-bound session sockets kept ready (default: 32)");
+        System.out.println("--quarantine=<ms>               Delay before the socket of an ended session is reused"
+                + " (default: 20000)");
+        System.out.println("--compression=<on|off>          Compress big packets for the clients supporting it"
+                + " (default: on)");
+        System.out.println("--multicast=<address>           First multicast group of the large rooms"
+                + " (default: unicast only)");
+        System.out.println("--multicast-port=<port>         Port of the multicast groups (default: 4446)");
+        System.out.println("--multicast-threshold=<n>       Members from which a room is sent by multicast"
+                + " (default: 100)");
+        System.out.println("--multicast-interface=<name>    Interface of the multicast groups (default: loopback)");
+        System.out.println("--fan-out-threads=<n>           Threads sending the large fan-outs (default: cores)");
+        System.out.println("--fan-out-inline=<n>            Sessions below which fan-outs are sent by their sender"
+                + " (default: 256)");
+        System.out.println("--presence-window=<ms>          Window coalescing the joins, leaves and room switches"
+                + " (default: 200)");
+        System.out.println("--snapshot=<file>               Save the rooms and sessions, and restore them on start"
+                + " (default: none)");
+        System.out.println("--snapshot-interval=<ms>        Delay between two snapshots (default: 5000)");
+        System.out.println("--search-memory=<KB>            Memory of the search index of each room, 0 to disable"
+                + " (default: 1024)");
+        System.out.println("--transport=<socket|channel>    Blocking sockets or NIO channels (default: channel)");
+    }
+}
@@ -0,0 +1,259 @@
+package fr.polytech;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * State of the server saved on disk, so that a restarted server resumes the rooms and the live sessions
+ * instead of making every client join again.
+ * <p>
+ * The snapshot holds the rooms with their ids and last sequence numbers, and the sessions with their port,
+ * negotiated wire format, current and subscribed rooms, client address and resume token. Ids and sequence numbers go on from
+ * where they were, so the clients keep their names by id and their reorder buffers (the history of the channels
+ * is not saved: messages missed across the restart are lost).
+ * <p>
+ * The file is binary: a magic number and format version, the state, and a CRC32 of everything before it.
+ * It is written to a temporary file, synced to disk, then atomically renamed over the previous snapshot,
+ * so a crash at any point leaves either the previous or the new snapshot, never a torn one.
+ *
+ * @param savedAt        Instant at which the snapshot was taken (System.currentTimeMillis)
+ * @param nextUserId     Next id given to a user
+ * @param nextRoomId     One past the highest room id in use (the lower free ids are given first)
+ * @param broadcastLast  Last sequence number of the broadcast channel
+ * @param rooms          The rooms, in the order of the room list
+ * @param sessions       The live sessions
+ */
+record ServerSnapshot(
+        long savedAt,
+        int nextUserId,
+        int nextRoomId,
+        int broadcastLast,
+        List<RoomState> rooms,
+        List<SessionState> sessions) {
+    /**
+     * "CHAT" in ASCII
+     */
+    private static final int MAGIC = 0x43484154;
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Saved room.
+     *
+     * @param name         The name of the room
+     * @param id           The id of the room
+     * @param lastSequence Last sequence number of the room channel (0 if nothing was sent to the room)
+     */
+    record RoomState(String name, int id, int lastSequence) {
+    }
+
+    /**
+     * Saved session.
+     *
+     * @param name          The name of the user
+     * @param id            The id of the user
+     * @param room          The current room of the user
+     * @param port          The port of the session socket, known by the client
+     * @param version       The negotiated wire format version
+     * @param features      The negotiated wire format features
+     * @param clientAddress The address of the client (null if no heartbeat was received yet)
+     * @param resumeToken   The resume token given to the client
+     * @param privateLast   Last sequence number of the private channel of the user
+     * @param subscriptions The ids of the rooms the user subscribed to
+     */
+    record SessionState(
+            String name,
+            int id,
+            String room,
+            int port,
+            int version,
+            int features,
+            InetSocketAddress clientAddress,
+            String resumeToken,
+            int privateLast,
+            List<Integer> subscriptions) {
+        SessionState {
+            subscriptions = List.copyOf(subscriptions);
+        }
+    }
+
+    ServerSnapshot {
+        rooms = List.copyOf(rooms);
+        sessions = List.copyOf(sessions);
+    }
+
+    /**
+     * Writes this snapshot to a file, replacing the previous one atomically.
+     *
+     * @param file The snapshot file
+     * @throws IOException if the snapshot could not be written (the previous one is then left untouched)
+     */
+    void write(Path file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(savedAt);
+        out.writeInt(nextUserId);
+        out.writeInt(nextRoomId);
+        out.writeInt(broadcastLast);
+
+        out.writeInt(rooms.size());
+        for (RoomState room : rooms) {
+            out.writeUTF(room.name());
+            out.writeInt(room.id());
+            out.writeInt(room.lastSequence());
+        }
+
+        out.writeInt(sessions.size());
+        for (SessionState session : sessions) {
+            out.writeUTF(session.name());
+            out.writeInt(session.id());
+            out.writeUTF(session.room());
+            out.writeInt(session.port());
+            out.writeInt(session.version());
+            out.writeInt(session.features());
+            writeAddress(out, session.clientAddress());
+            out.writeUTF(session.resumeToken());
+            out.writeInt(session.privateLast());
+            out.writeInt(session.subscriptions().size());
+            for (int roomId : session.subscriptions()) {
+                out.writeInt(roomId);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(Path)}.
+     *
+     * @param file The snapshot file
+     * @return the snapshot
+     * @throws IOException if the file could not be read, or is not a valid snapshot (e.g. corrupted)
+     */
+    static ServerSnapshot read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < Long.BYTES) {
+            throw new IOException("Snapshot is truncated");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot file");
+        }
+        int formatVersion = in.readInt();
+        // Version 1 is version 2 without the subscriptions
+        if (formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot version: " + formatVersion);
+        }
+
+        long savedAt = in.readLong();
+        int nextUserId = in.readInt();
+        int nextRoomId = in.readInt();
+        int broadcastLast = in.readInt();
+
+        int roomCount = in.readInt();
+        List<RoomState> rooms = new ArrayList<>(roomCount);
+        for (int i = 0; i < roomCount; i++) {
+            rooms.add(new RoomState(in.readUTF(), in.readInt(), in.readInt()));
+        }
+
+        int sessionCount = in.readInt();
+        List<SessionState> sessions = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            sessions.add(new SessionState(
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt(),
+                    readAddress(in),
+                    in.readUTF(),
+                    in.readInt(),
+                    formatVersion >= 2 ? readIds(in) : List.of()
+            ));
+        }
+
+        return new ServerSnapshot(savedAt, nextUserId, nextRoomId, broadcastLast, rooms, sessions);
+    }
+
+    /**
+     * Writes an address as the length of its IP address (0 for none), the IP address and the port.
+     */
+    private static void writeAddress(DataOutputStream out, InetSocketAddress address) throws IOException {
+        if (address == null || address.getAddress() == null) {
+            out.writeByte(0);
+            return;
+        }
+
+        byte[] ip = address.getAddress().getAddress();
+        out.writeByte(ip.length);
+        out.write(ip);
+        out.writeShort(address.getPort());
+    }
+
+    private static List<Integer> readIds(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(in.readInt());
+        }
+        return ids;
+    }
+
+    private static InetSocketAddress readAddress(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] ip = new byte[length];
+        in.readFully(ip);
+        return new InetSocketAddress(InetAddress.getByAddress(ip), in.readUnsignedShort());
+    }
+}
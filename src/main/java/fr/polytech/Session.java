@@ -1,10 +1,13 @@
 package fr.polytech;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.*;
 
 /**
@@ -18,18 +21,14 @@ import java.util.function.*;
  */
 public class Session {
     /**
-     * Socket for UDP communication with the client
+     * Transport for UDP communication with the client (owned by the server's port allocator)
      */
-    private DatagramSocket socket;
+    private final Transport transport;
 
     /**
-     * Client's IP address (set after first heartbeat)
+     * Client's address and port for sending responses (set after first heartbeat)
      */
-    private InetAddress address;
-    /**
-     * Client's port number for sending responses (set after first heartbeat)
-     */
-    private int destinationPort;
+    private volatile InetSocketAddress clientAddress;
 
     /**
      * Flag indicating if initial heartbeat has already been received
@@ -37,122 +36,282 @@ public class Session {
     private boolean firstHeartbeatReceived = false;
 
     /**
-     * Name of the chat room where the user is currently active
+     * Secret given to the client in PORT, which it sends back in its heartbeats to re-attach to its session
+     * after a restart of the server
      */
-    private String currentRoom;
+    private final String resumeToken;
+    /**
+     * Address of the client before the restart of the server, for a restored session (null for a new session)
+     */
+    private final InetSocketAddress resumeAddress;
+
+    /**
+     * Name of the chat room where the user is currently active (read by the fan-out threads)
+     */
+    private volatile String currentRoom;
     /**
      * Immutable username of the client associated with this session
      */
     private final String name;
+    /**
+     * Numeric id of the user, sent instead of their name to clients using the ids feature
+     */
+    private final int id;
+
+    /**
+     * Wire format version negotiated with the client (see {@link Packet})
+     */
+    private final int version;
+    /**
+     * Wire format features negotiated with the client
+     */
+    private final int features;
+
+    /**
+     * Number of private messages kept for the client asking for missing ones
+     */
+    private static final int PRIVATE_HISTORY = 32;
+    /**
+     * Maximum number of messages sent again for one RESEND packet
+     */
+    private static final int MAX_RESEND = 64;
+    /**
+     * Size of the receive buffer: clients only send commands and chat messages, so bigger packets are dropped
+     * rather than costing 64 KB per session (a datagram filling the buffer may have been truncated, so the buffer
+     * is one byte bigger than the largest packet accepted)
+     */
+    private static final int RECEIVE_BUFFER_SIZE = Packet.MAX_CLIENT_SIZE + 1;
+
+    /**
+     * Sequenced channel of the private messages received by the user
+     */
+    private final SequencedChannel privateChannel = new SequencedChannel(0, PRIVATE_HISTORY);
+
+    /**
+     * Flag indicating if the client joined the multicast group of its current room
+     */
+    private volatile boolean multicastMember = false;
+
+    /**
+     * Ids of the rooms the client receives besides its current room, as a bitset indexed by room id
+     * (copied on write, so that the fan-outs test it without locking)
+     */
+    private volatile long[] subscriptions = new long[0];
+
+    /**
+     * Packets waiting for the transport of the session, because another thread is sending to it: the control
+     * packets are sent before the queued chat messages (see {@link PacketType#isControl()})
+     */
+    private final Queue<Packet> controlQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<Packet> dataQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * Flag held by the thread sending to the transport of the session
+     */
+    private final AtomicBoolean sending = new AtomicBoolean();
 
     /**
      * Creates a new Session for a client connection.
      * <p>
-     * This constructor initializes a UDP socket for communication with the client and starts
-     * a daemon thread to handle incoming packets. The session processes different packet types
-     * including heartbeats, broadcasts, private messages, room management, and more.
+     * This constructor starts a virtual thread to handle incoming packets on the given transport, so that a server
+     * can hold as many sessions as its ports allow.
+     * The session processes different packet types including heartbeats, broadcasts, private messages,
+     * room management, and more.
+     * <p>
+     * The transport is not closed when the session ends: the timeout hook is responsible for giving it back
+     * to the allocator it comes from.
+     * <p>
+     * A session restored from a snapshot already sends to the address its client had before the restart,
+     * and is re-attached by the first heartbeat coming from that address or carrying the resume token
+     * (the client may have moved to another address in between). Heartbeats of other clients are ignored.
      *
      * @param name               The username of the client
+     * @param id                 The numeric id of the user
      * @param firstRoom          The initial room the client joins
+     * @param transport          The pre-bound transport dedicated to this session
+     * @param version            The wire format version negotiated with the client
+     * @param features           The wire format features negotiated with the client
+     * @param resumeToken        The resume token given to the client
+     * @param resumeAddress      The address of the client before a restart, or null for a new session
      * @param sessionTimeoutHook Hook to execute when the session times out
      * @param broadcastHook      Hook used to broadcast messages
      * @param privateMessageHook Hook to handle private messages between users (returns success/failure)
-     * @param userListSupplier   Supplier that provides the current user list as a ByteBuffer
-     * @param roomListSupplier   Supplier that provides the current room list as a ByteBuffer
+     * @param userListSupplier   Supplier that provides the current user list packet
+     * @param roomListSupplier   Supplier that provides the current room list packet
+     * @param roomSwitchFactory  Factory of the ROOM_SWITCH packet sent for a given room
+     * @param channelResolver    Gives the sequenced channel of a message type and channel id received by the client
+     *                           (or null)
      * @param roomCreationHook   Hook to handle room creation requests (returns success/failure)
      * @param roomDeletionHook   Hook to handle room deletion requests (returns success/failure)
      * @param roomMessageHook    Hook to handle messages sent to a specific room
      * @param roomSwitchHook     Hook to handle room switching operations
+     * @param searchHook         Searches the current room of the user (query, cursor) and returns the results packet
+     * @param subscriptionHook   Hook to handle subscriptions to rooms (room, true to subscribe or false to unsubscribe)
      */
     public Session(
             String name,
+            int id,
             String firstRoom,
+            Transport transport,
+            int version,
+            int features,
+            String resumeToken,
+            InetSocketAddress resumeAddress,
             Runnable sessionTimeoutHook,
             Consumer<String> broadcastHook,
             BiPredicate<String, String> privateMessageHook,
-            Supplier<ByteBuffer> userListSupplier,
-            Supplier<ByteBuffer> roomListSupplier,
+            Supplier<Packet> userListSupplier,
+            Supplier<Packet> roomListSupplier,
+            Function<String, Packet> roomSwitchFactory,
+            BiFunction<PacketType, Integer, SequencedChannel> channelResolver,
             Predicate<String> roomCreationHook,
             Predicate<String> roomDeletionHook,
             BiConsumer<String, String> roomMessageHook,
-            Consumer<String> roomSwitchHook) {
+            Consumer<String> roomSwitchHook,
+            BiFunction<String, Integer, Packet> searchHook,
+            BiConsumer<String, Boolean> subscriptionHook) {
         this.name = name;
+        this.id = id;
         this.currentRoom = firstRoom;
-
-        try {
-            socket = new DatagramSocket();
-            socket.setSoTimeout(10000);
-        } catch (Exception e) {
-            e.printStackTrace();
-            sessionTimeoutHook.run();
-            socket.close();
-        }
+        this.transport = transport;
+        this.version = version;
+        this.features = features;
+        this.resumeToken = resumeToken;
+        this.resumeAddress = resumeAddress;
+        this.clientAddress = resumeAddress;
 
         // Start a new thread to handle incoming packets without blocking the main thread
-        Thread thread = new Thread(() -> {
+        Thread.ofVirtual().name("session-" + name).start(() -> {
             try {
+                ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
                 while (true) {
-                    byte[] buffer = new byte[1024];
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    ByteBuffer bb = ByteBuffer.wrap(packet.getData());
-                    int packetType = bb.getInt();
-                    if (packetType == PacketType.HEARTBEAT.getId()) {
-                        if (!firstHeartbeatReceived) {
-                            address = packet.getAddress();
-                            destinationPort = packet.getPort();
-
-                            send(userListSupplier.get());
-                            send(roomListSupplier.get());
-
-                            System.out.println("Received first heartbeat from " + address + ":" + destinationPort);
-
-                            ByteBuffer buf = ByteBuffer.allocate(1024);
-                            buf.putInt(PacketType.ROOM_SWITCH.getId());
-                            byte[] roomNameBytes = currentRoom.getBytes();
-                            buf.putInt(roomNameBytes.length);
-                            buf.put(roomNameBytes);
-
-                            send(buf);
-
-                            firstHeartbeatReceived = true;
-                        }
-                    } else if (packetType == PacketType.BROADCAST.getId()) {
-                        String message = Utils.extractString(bb);
-                        broadcastHook.accept(message);
-                    } else if (packetType == PacketType.PRIVATE.getId()) {
-                        String recipient = Utils.extractString(bb);
-                        String message = Utils.extractString(bb);
-
-                        if (privateMessageHook.test(recipient, message)) {
-                            System.out.println("Message sent to " + recipient);
-                        } else {
-                            System.out.println("Failed to send message to " + recipient);
-                        }
-                    } else if (packetType == PacketType.CREATE_ROOM.getId()) {
-                        String roomName = Utils.extractString(bb);
+                    buffer.clear();
+                    InetSocketAddress sender = transport.receive(buffer, 10000);
+                    if (!buffer.hasRemaining()) {
+                        // The datagram filled the buffer, so it may have been truncated
+                        System.out.println("Dropping oversized packet from " + sender);
+                        continue;
+                    }
+                    buffer.flip();
 
-                        if (roomCreationHook.test(roomName)) {
-                            System.out.println("Room " + roomName + " created");
-                        } else {
-                            System.out.println("Failed to create room " + roomName);
-                        }
-                    } else if (packetType == PacketType.DELETE_ROOM.getId()) {
-                        String roomName = Utils.extractString(bb);
+                    // Clients may send either wire format, whatever was negotiated
+                    PacketReader reader;
+                    try {
+                        reader = PacketReader.read(buffer);
+                    } catch (RuntimeException e) {
+                        System.out.println("Received invalid packet: " + e.getMessage());
+                        continue;
+                    }
+
+                    // A malformed packet (e.g. a field cut short) is dropped, the session goes on
+                    try {
+                        PacketType packetType = reader.getType();
+                        if (packetType == PacketType.HEARTBEAT) {
+                            if (!firstHeartbeatReceived) {
+                                // A restored session only re-attaches its own client
+                                String token = reader.hasRemaining() ? reader.readText() : null;
+                                boolean ownClient = sender.equals(resumeAddress) || resumeToken.equals(token);
+                                if (resumeAddress != null && !ownClient) {
+                                    System.out.println("Ignoring heartbeat from " + sender + " for session " + name);
+                                    continue;
+                                }
+
+                                clientAddress = sender;
 
-                        if (roomDeletionHook.test(roomName)) {
-                            System.out.println("Room " + roomName + " deleted");
+                                send(userListSupplier.get());
+                                send(roomListSupplier.get());
+
+                                System.out.println("Received first heartbeat from " + sender);
+
+                                send(roomSwitchFactory.apply(currentRoom));
+
+                                firstHeartbeatReceived = true;
+                            }
+                        } else if (packetType == PacketType.BROADCAST) {
+                            String message = reader.readText();
+                            broadcastHook.accept(message);
+                        } else if (packetType == PacketType.PRIVATE) {
+                            String recipient = reader.readText();
+                            String message = reader.readText();
+
+                            if (privateMessageHook.test(recipient, message)) {
+                                System.out.println("Message sent to " + recipient);
+                            } else {
+                                System.out.println("Failed to send message to " + recipient);
+                            }
+                        } else if (packetType == PacketType.CREATE_ROOM) {
+                            String roomName = reader.readText();
+
+                            if (roomCreationHook.test(roomName)) {
+                                System.out.println("Room " + roomName + " created");
+                            } else {
+                                System.out.println("Failed to create room " + roomName);
+                            }
+                        } else if (packetType == PacketType.DELETE_ROOM) {
+                            String roomName = reader.readText();
+
+                            if (roomDeletionHook.test(roomName)) {
+                                System.out.println("Room " + roomName + " deleted");
+                            } else {
+                                System.out.println("Failed to delete room " + roomName);
+                            }
+                        } else if (packetType == PacketType.ROOM_MESSAGE) {
+                            String message = reader.readText();
+                            roomMessageHook.accept(currentRoom, message);
+                        } else if (packetType == PacketType.ROOM_SWITCH) {
+                            String roomName = reader.readText();
+                            roomSwitchHook.accept(roomName);
+                        } else if (packetType == PacketType.SEARCH) {
+                            String query = reader.readText();
+                            int before = reader.hasRemaining() ? reader.readInt() : 0;
+                            send(searchHook.apply(query, before));
+                        } else if (packetType == PacketType.SUBSCRIBE || packetType == PacketType.UNSUBSCRIBE) {
+                            String roomName = reader.readText();
+                            subscriptionHook.accept(roomName, packetType == PacketType.SUBSCRIBE);
+                        } else if (packetType == PacketType.RESEND) {
+                            int channelType = reader.readInt();
+                            int channelId = reader.readInt();
+                            int first = reader.readInt();
+                            int last = reader.readInt();
+
+                            // Sequence numbers start at 1, and a range is counted in long so that its end cannot wrap
+                            // (a loop up to Integer.MAX_VALUE would never end)
+                            int count = first > 0 && last >= first
+                                    ? (int) Math.min((long) last - first + 1, MAX_RESEND)
+                                    : 0;
+                            if (count == 0) {
+                                System.out.println("Dropping invalid RESEND range " + first + "-" + last);
+                                continue;
+                            }
+
+                            SequencedChannel channel;
+                            try {
+                                channel = channelResolver.apply(PacketType.fromId(channelType), channelId);
+                            } catch (IllegalArgumentException e) {
+                                channel = null;
+                            }
+                            // The messages are only sent again if they are still in the channel the client asks for
+                            if (channel != null && channel.getId() == channelId) {
+                                for (int i = 0; i < count; i++) {
+                                    Packet missing = channel.get(first + i);
+                                    if (missing != null) {
+                                        send(missing);
+                                    }
+                                }
+                            }
+                        } else if (packetType == PacketType.MULTICAST_JOINED) {
+                            String roomName = reader.readText();
+
+                            // Ignore late answers to the offer of a room the user already left
+                            if (roomName.equals(currentRoom)) {
+                                multicastMember = true;
+                                System.out.println(name + " receives room " + roomName + " by multicast");
+                            }
                         } else {
-                            System.out.println("Failed to delete room " + roomName);
+                            System.out.println("Received invalid packet type");
                         }
-                    } else if (packetType == PacketType.ROOM_MESSAGE.getId()) {
-                        String message = Utils.extractString(bb);
-                        roomMessageHook.accept(currentRoom, message);
-                    } else if (packetType == PacketType.ROOM_SWITCH.getId()) {
-                        String roomName = Utils.extractString(bb);
-                        roomSwitchHook.accept(roomName);
-                    } else {
-                        System.out.println("Received invalid packet type");
+                    } catch (RuntimeException e) {
+                        System.out.println("Dropping invalid " + reader.getType() + " packet from " + sender
+                                + ": " + e);
                     }
                 }
             } catch (SocketTimeoutException e) {
@@ -160,48 +319,98 @@ public class Session {
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
-                socket.close();
                 sessionTimeoutHook.run();
             }
         });
+    }
 
-        thread.setDaemon(true);
-        thread.start();
+    /**
+     * Creates a detached Session that is already bound to a known client endpoint.
+     * <p>
+     * No receiving thread is started: the session only sends through the given transport.
+     * This is used by the benchmarks to exercise the fan-out paths against a stubbed transport.
+     *
+     * @param name            The username of the client
+     * @param id              The numeric id of the user
+     * @param currentRoom     The room the client is in
+     * @param transport       Transport used to send packets to the client
+     * @param version         The wire format version of the client
+     * @param features        The wire format features of the client
+     * @param address         Client's IP address
+     * @param destinationPort Client's port number
+     */
+    Session(String name, int id, String currentRoom, Transport transport, int version, int features,
+            InetAddress address, int destinationPort) {
+        this.name = name;
+        this.id = id;
+        this.currentRoom = currentRoom;
+        this.transport = transport;
+        this.version = version;
+        this.features = features;
+        this.clientAddress = new InetSocketAddress(address, destinationPort);
+        this.firstHeartbeatReceived = true;
+        this.resumeToken = "";
+        this.resumeAddress = null;
     }
 
     /**
-     * Sends a message to the client using the established UDP socket.
+     * Sends a packet to the client using the established UDP transport, encoded in the negotiated wire format.
      * This method verifies that a client connection has been established
      * (via heartbeat) before attempting to send data.
+     * <p>
+     * Can be called from any thread. A single thread sends to the transport at a time: the packets given meanwhile
+     * are queued, and the sending thread sends the queued control packets before the queued chat messages, so a
+     * user list or a room switch does not wait behind a backlog of room messages. The packets of each class stay
+     * in order.
      *
-     * @param buffer The ByteBuffer containing the data to be sent to the client.
+     * @param packet The packet to be sent to the client.
      */
-    public void send(ByteBuffer buffer) {
-        if (address == null || destinationPort == 0) {
+    public void send(Packet packet) {
+        if (controlQueue.isEmpty() && dataQueue.isEmpty() && sending.compareAndSet(false, true)) {
+            // Nothing queued: sent right away, without allocating a queue node
+            try {
+                transmit(packet);
+            } finally {
+                sending.set(false);
+            }
+        } else {
+            (packet.getType().isControl() ? controlQueue : dataQueue).add(packet);
+        }
+
+        // Whoever holds the flag sends the queued packets, checked again once released to not leave any behind
+        while ((!controlQueue.isEmpty() || !dataQueue.isEmpty()) && sending.compareAndSet(false, true)) {
+            try {
+                Packet next;
+                while ((next = controlQueue.poll()) != null || (next = dataQueue.poll()) != null) {
+                    transmit(next);
+                }
+            } finally {
+                sending.set(false);
+            }
+        }
+    }
+
+    private void transmit(Packet packet) {
+        InetSocketAddress target = clientAddress;
+        if (target == null) {
             // First heartbeat not received yet, cannot send data
             return;
         }
 
         try {
-            DatagramPacket packet = new DatagramPacket(
-                    buffer.array(),
-                    buffer.position(),
-                    address,
-                    destinationPort
-            );
-            socket.send(packet);
+            transport.send(ByteBuffer.wrap(packet.encode(version, features)), target);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Returns the local port number to which this session's socket is bound.
+     * Returns the local port number to which this session's transport is bound.
      *
-     * @return the local port number to which this socket is bound
+     * @return the local port number to which this transport is bound
      */
     public int getPort() {
-        return socket.getLocalPort();
+        return transport.getLocalPort();
     }
 
     /**
@@ -213,6 +422,112 @@ public class Session {
         return name;
     }
 
+    /**
+     * Returns the numeric id of the session user.
+     *
+     * @return the id of the user associated with this session
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the address the packets of the client are sent to.
+     *
+     * @return the address of the client, or null if no heartbeat was received yet
+     */
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    /**
+     * Returns the resume token given to the client.
+     *
+     * @return the resume token of the session
+     */
+    String getResumeToken() {
+        return resumeToken;
+    }
+
+    /**
+     * Returns the sequenced channel of the private messages received by the user.
+     *
+     * @return the private channel of the user
+     */
+    SequencedChannel getPrivateChannel() {
+        return privateChannel;
+    }
+
+    /**
+     * Returns the wire format version negotiated with the client.
+     *
+     * @return the wire format version of the client
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the wire format features negotiated with the client.
+     *
+     * @return the wire format features of the client
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    /**
+     * Returns whether the client receives its current room through the multicast group of the room.
+     *
+     * @return true if the client joined the group of its current room
+     */
+    public boolean isMulticastMember() {
+        return multicastMember;
+    }
+
+    /**
+     * Sets whether the client receives its current room through the multicast group of the room.
+     *
+     * @param multicastMember true if the client joined the group of its current room
+     */
+    public void setMulticastMember(boolean multicastMember) {
+        this.multicastMember = multicastMember;
+    }
+
+    /**
+     * Returns whether the client receives a room besides its current room.
+     *
+     * @param roomId The id of the room
+     * @return true if the client subscribed to the room
+     */
+    public boolean isSubscribed(int roomId) {
+        long[] words = subscriptions;
+        int word = roomId >>> 6;
+        return word < words.length && (words[word] & (1L << roomId)) != 0;
+    }
+
+    /**
+     * Returns the ids of the rooms the client receives besides its current room.
+     *
+     * @return the ids of the subscribed rooms, in increasing order
+     */
+    public int[] getSubscriptions() {
+        return BitSet.valueOf(subscriptions).stream().toArray();
+    }
+
+    /**
+     * Subscribes the client to a room, or unsubscribes it.
+     * (does not send a packet to the client, only updates the local state)
+     *
+     * @param roomId     The id of the room
+     * @param subscribed true to receive the room, false to stop receiving it
+     */
+    public synchronized void setSubscribed(int roomId, boolean subscribed) {
+        BitSet bits = BitSet.valueOf(subscriptions);
+        bits.set(roomId, subscribed);
+        subscriptions = bits.toLongArray();
+    }
+
     /**
      * Returns the current room where the user is located.
      *
@@ -231,5 +546,7 @@ public class Session {
      */
     public void setCurrentRoom(String room) {
         currentRoom = room;
+        // The client leaves the group of its previous room when it receives ROOM_SWITCH
+        multicastMember = false;
     }
 }
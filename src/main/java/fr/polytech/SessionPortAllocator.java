@@ -0,0 +1,344 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Allocates the sockets used by the sessions, from a pool of pre-bound sockets.
+ * <p>
+ * A background thread keeps a warm pool of bound sockets, so that a new session gets its socket in O(1)
+ * without binding on the join path. When a session ends, its socket is not closed but quarantined for a while,
+ * so that the datagrams still sent by the old client are not received by a new session on the same port.
+ * Once the quarantine is over, the pending datagrams are drained and the socket goes back to the warm pool
+ * (or is closed if the pool is already full).
+ * <p>
+ * Sockets are bound to ports of a configurable range, so that a firewall can be configured for them.
+ * Without a range, sockets are bound to ephemeral ports chosen by the OS (but still pooled and recycled).
+ * <p>
+ * Sockets are {@link Transport}s bound by the given binder, so the sessions can run over any transport.
+ * The warm pool is refilled without holding the lock of the allocator, so binding never stalls {@link #acquire()}.
+ */
+public class SessionPortAllocator implements AutoCloseable {
+    /**
+     * Delay between two refills of the warm pool, in milliseconds
+     */
+    private static final long MAINTENANCE_INTERVAL = 50;
+
+    /**
+     * Socket of an ended session, waiting for the end of its quarantine
+     *
+     * @param transport  The socket
+     * @param releasedAt Instant at which the session ended (System.nanoTime)
+     */
+    private record QuarantinedSocket(Transport transport, long releasedAt) {
+    }
+
+    /**
+     * Binds the sockets
+     */
+    private final Transport.Binder binder;
+    /**
+     * Range of ports the sockets are bound to (null for ephemeral ports)
+     */
+    private final PortRange range;
+    /**
+     * Number of bound sockets to keep ready for new sessions
+     */
+    private final int warmPoolSize;
+    /**
+     * Duration of the quarantine of released sockets, in nanoseconds
+     */
+    private final long quarantineDuration;
+
+    /**
+     * Bound sockets ready to be handed out
+     */
+    private final ArrayDeque<Transport> warm = new ArrayDeque<>();
+    /**
+     * Released sockets, ordered by release time (they all share the same quarantine duration)
+     */
+    private final ArrayDeque<QuarantinedSocket> quarantine = new ArrayDeque<>();
+    /**
+     * Ports of the range currently bound by this allocator (warm, quarantined or in use)
+     */
+    private final BitSet owned = new BitSet();
+    /**
+     * Port of each socket of the range, recorded when it is bound (a closed socket no longer knows its port)
+     */
+    private final Map<Transport, Integer> ports = new IdentityHashMap<>();
+    /**
+     * Offset in the range of the next port to try to bind
+     */
+    private int cursor;
+    private boolean closed;
+
+    /**
+     * Creates a new allocator and starts filling its warm pool in the background.
+     *
+     * @param binder       Binds the sockets
+     * @param range        Range of ports the sockets are bound to (null for ephemeral ports)
+     * @param warmPoolSize Number of bound sockets to keep ready for new sessions
+     * @param quarantineMs Duration of the quarantine of released sockets, in milliseconds
+     */
+    public SessionPortAllocator(Transport.Binder binder, PortRange range, int warmPoolSize, int quarantineMs) {
+        if (warmPoolSize < 0 || quarantineMs < 0) {
+            throw new IllegalArgumentException("Warm pool size and quarantine cannot be negative");
+        }
+
+        this.binder = binder;
+        this.range = range;
+        this.warmPoolSize = warmPoolSize;
+        this.quarantineDuration = quarantineMs * 1_000_000L;
+
+        Thread maintenance = new Thread(() -> {
+            try {
+                while (maintain()) {
+                    Thread.sleep(MAINTENANCE_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        maintenance.setDaemon(true);
+        maintenance.start();
+    }
+
+    /**
+     * Hands out a bound socket for a new session.
+     * <p>
+     * The socket is taken from the warm pool, or from the sockets whose quarantine is over. It is only bound
+     * on the spot if both are empty (for instance during a burst of joins).
+     *
+     * @return a bound socket, or null if every port of the range is in use
+     */
+    public synchronized Transport acquire() {
+        if (closed) {
+            return null;
+        }
+
+        Transport transport = warm.poll();
+        if (transport == null) {
+            transport = reclaim(System.nanoTime());
+        }
+        if (transport == null) {
+            transport = bind();
+        }
+
+        return transport;
+    }
+
+    /**
+     * Hands out a socket bound to a given port, to restore a session on the port its client already knows.
+     * <p>
+     * The socket is taken from the warm pool if it holds that port, otherwise the port is bound on the spot.
+     *
+     * @param port The port of the socket
+     * @return the bound socket, or null if the port is outside the range, in use or could not be bound
+     */
+    public synchronized Transport acquire(int port) {
+        if (closed || port <= 0) {
+            return null;
+        }
+
+        for (Iterator<Transport> it = warm.iterator(); it.hasNext(); ) {
+            Transport transport = it.next();
+            if (transport.getLocalPort() == port) {
+                it.remove();
+                return transport;
+            }
+        }
+
+        if (range == null) {
+            return open(port);
+        }
+        if (port < range.first() || port > range.last() || owned.get(port)) {
+            return null;
+        }
+
+        Transport transport = open(port);
+        if (transport != null) {
+            owned.set(port);
+            ports.put(transport, port);
+        }
+        return transport;
+    }
+
+    /**
+     * Gives back the socket of an ended session. The socket is quarantined before being handed out again.
+     * <p>
+     * Sessions must not close their socket themselves, the allocator takes care of it.
+     *
+     * @param transport A socket returned by {@link #acquire()}
+     */
+    public synchronized void release(Transport transport) {
+        if (closed || !transport.isOpen()) {
+            discard(transport);
+            return;
+        }
+
+        quarantine.add(new QuarantinedSocket(transport, System.nanoTime()));
+    }
+
+    /**
+     * Closes every pooled and quarantined socket and stops the background refill.
+     * Sockets currently in use are closed when they are released.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        warm.forEach(this::discard);
+        warm.clear();
+        quarantine.forEach((q) -> discard(q.transport()));
+        quarantine.clear();
+    }
+
+    /**
+     * Moves the sockets whose quarantine is over to the warm pool, and binds new sockets until the warm pool
+     * is full (or the range is exhausted).
+     * <p>
+     * The new sockets are bound outside the lock, their port being reserved beforehand, and published to the warm
+     * pool one by one, so that the sessions joining meanwhile are not kept waiting.
+     *
+     * @return false once the allocator is closed
+     */
+    private boolean maintain() {
+        int missing;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+
+            long now = System.nanoTime();
+            Transport transport;
+            while ((transport = reclaim(now)) != null) {
+                if (warm.size() < warmPoolSize) {
+                    warm.add(transport);
+                } else {
+                    discard(transport);
+                }
+            }
+
+            missing = warmPoolSize - warm.size();
+        }
+
+        for (int i = 0; i < missing; i++) {
+            Transport transport = bind();
+            if (transport == null) {
+                break;
+            }
+
+            synchronized (this) {
+                if (closed || warm.size() >= warmPoolSize) {
+                    discard(transport);
+                } else {
+                    warm.add(transport);
+                }
+            }
+        }
+
+        synchronized (this) {
+            return !closed;
+        }
+    }
+
+    /**
+     * Takes the oldest quarantined socket if its quarantine is over, after draining its pending datagrams.
+     *
+     * @param now Current instant (System.nanoTime)
+     * @return a socket ready to be reused, or null if no quarantine is over
+     */
+    private Transport reclaim(long now) {
+        while (!quarantine.isEmpty() && now - quarantine.peek().releasedAt() >= quarantineDuration) {
+            Transport transport = quarantine.poll().transport();
+            try {
+                transport.drain();
+                return transport;
+            } catch (IOException e) {
+                discard(transport);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Binds a new socket, on the next free port of the range (or on an ephemeral port without range).
+     * <p>
+     * The lock is only held to reserve the port, not while binding it.
+     *
+     * @return the bound socket, or null if no port of the range could be bound
+     */
+    private Transport bind() {
+        if (range == null) {
+            return open(0);
+        }
+
+        for (int i = 0; i < range.size(); i++) {
+            int port = reserve();
+            if (port < 0) {
+                return null;
+            }
+
+            Transport transport = open(port);
+            synchronized (this) {
+                if (transport != null) {
+                    ports.put(transport, port);
+                    return transport;
+                }
+                owned.clear(port);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reserves the next port of the range that is not owned yet.
+     *
+     * @return the reserved port, or -1 if every port of the range is owned
+     */
+    private synchronized int reserve() {
+        for (int i = 0; i < range.size(); i++) {
+            int port = range.first() + cursor;
+            cursor = (cursor + 1) % range.size();
+            if (!owned.get(port)) {
+                owned.set(port);
+                return port;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Binds a socket to the given port.
+     *
+     * @param port The port to bind (0 for an ephemeral port)
+     * @return the bound socket, or null if the port could not be bound
+     */
+    private Transport open(int port) {
+        try {
+            return binder.bind(port);
+        } catch (IOException e) {
+            // Usually a BindException, the port is used by another process
+            return null;
+        }
+    }
+
+    /**
+     * Closes a socket for good and frees its port.
+     */
+    private void discard(Transport transport) {
+        // The port recorded when binding, the socket may already be closed and report -1
+        Integer port = ports.remove(transport);
+        if (port != null) {
+            owned.clear(port);
+        }
+
+        transport.close();
+    }
+}
@@ -0,0 +1,128 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * {@link Transport} over a blocking {@link DatagramSocket}.
+ * <p>
+ * When registered on an event loop, a daemon thread receives the datagrams and hands a copy of each of them
+ * to the loop, so this transport is meant for a few endpoints (the server, a console client).
+ */
+public class SocketTransport implements Transport {
+    /**
+     * Timeout used to poll the pending datagrams when draining, in milliseconds
+     */
+    private static final int DRAIN_TIMEOUT = 1;
+
+    private final DatagramSocket socket;
+
+    private SocketTransport(DatagramSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Binds a new endpoint on every local address.
+     *
+     * @param port The local port (0 for any free port)
+     * @return the bound endpoint
+     * @throws IOException if the port could not be bound
+     */
+    public static SocketTransport bind(int port) throws IOException {
+        return new SocketTransport(new DatagramSocket(port));
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress target) throws IOException {
+        byte[] bytes;
+        int offset;
+        if (data.hasArray()) {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            offset = 0;
+        }
+
+        int length = data.remaining();
+        socket.send(new DatagramPacket(bytes, offset, length, target));
+        data.position(data.limit());
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) throws IOException {
+        if (!buffer.hasArray()) {
+            throw new IllegalArgumentException("Blocking sockets need a heap buffer");
+        }
+
+        DatagramPacket packet = new DatagramPacket(
+                buffer.array(),
+                buffer.arrayOffset() + buffer.position(),
+                buffer.remaining()
+        );
+        socket.setSoTimeout(timeoutMillis);
+        socket.receive(packet);
+        buffer.position(buffer.position() + packet.getLength());
+
+        return (InetSocketAddress) packet.getSocketAddress();
+    }
+
+    @Override
+    public void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[Packet.MAX_SIZE];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.setSoTimeout(0);
+                while (true) {
+                    packet.setLength(buffer.length);
+                    socket.receive(packet);
+
+                    byte[] datagram = Arrays.copyOf(buffer, packet.getLength());
+                    loop.execute(() -> handler.accept(ByteBuffer.wrap(datagram)));
+                }
+            } catch (IOException e) {
+                // The socket was closed
+            }
+        }, "socket-transport-" + socket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void drain() throws IOException {
+        byte[] buffer = new byte[Packet.MAX_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        socket.setSoTimeout(DRAIN_TIMEOUT);
+        try {
+            while (true) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            }
+        } catch (SocketTimeoutException e) {
+            // Nothing pending anymore
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
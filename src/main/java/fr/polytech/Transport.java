@@ -0,0 +1,92 @@
+package fr.polytech;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Bound datagram endpoint used by the server and the clients to exchange packets.
+ * <p>
+ * The chat only needs to send datagrams to an address, and to receive them either by blocking with a timeout
+ * (server sessions) or through a {@link ChatEventLoop} (clients), so the network can be swapped:
+ * {@link SocketTransport} uses blocking sockets, {@link ChannelTransport} NIO channels, and {@link InMemoryNetwork}
+ * simulates a lossy network inside the JVM.
+ * <p>
+ * An endpoint is either read with {@link #receive} or registered on an event loop, never both.
+ */
+public interface Transport extends AutoCloseable {
+    /**
+     * Binds new endpoints, e.g. {@code SocketTransport::bind} or {@code network.host(address)}.
+     */
+    @FunctionalInterface
+    interface Binder {
+        /**
+         * Binds a new endpoint.
+         *
+         * @param port The local port (0 for any free port)
+         * @return the bound endpoint
+         * @throws IOException if the port could not be bound (usually a BindException)
+         */
+        Transport bind(int port) throws IOException;
+    }
+
+    /**
+     * Returns the local port of this endpoint.
+     *
+     * @return the local port, or -1 if the endpoint is closed
+     */
+    int getLocalPort();
+
+    /**
+     * Sends a datagram. Can be called from any thread.
+     *
+     * @param data   The content of the datagram, from its position to its limit (consumed)
+     * @param target The address to send the datagram to
+     * @throws IOException if the datagram could not be sent
+     */
+    void send(ByteBuffer data, InetSocketAddress target) throws IOException;
+
+    /**
+     * Waits for a datagram. Datagrams bigger than the remaining space of the buffer are truncated.
+     *
+     * @param buffer        The buffer receiving the datagram, from its position
+     * @param timeoutMillis Maximum time to wait, in milliseconds (0 to wait forever)
+     * @return the address of the sender
+     * @throws SocketTimeoutException if no datagram was received in time
+     * @throws IOException            if the endpoint is closed or failed
+     */
+    InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) throws IOException;
+
+    /**
+     * Passes the received datagrams to a handler on the loop thread (must be called on the loop thread).
+     * <p>
+     * The handler gets a buffer positioned at the start of the datagram, which is only valid during the call.
+     *
+     * @param loop    The event loop running the handler
+     * @param handler The handler of the received datagrams
+     * @throws IOException if the endpoint is closed
+     */
+    void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) throws IOException;
+
+    /**
+     * Discards the datagrams received but not read yet, without waiting.
+     *
+     * @throws IOException if the endpoint is closed or failed
+     */
+    void drain() throws IOException;
+
+    /**
+     * Returns whether this endpoint is still open.
+     *
+     * @return false once the endpoint is closed
+     */
+    boolean isOpen();
+
+    /**
+     * Closes this endpoint. Threads blocked in {@link #receive} get an exception.
+     */
+    @Override
+    void close();
+}
@@ -1,19 +1,100 @@
 package fr.polytech;
 
-import java.net.BindException;
-import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
 
+/**
+ * Command line front-end of {@link PortScanner}.
+ * <p>
+ * By default, checks which UDP ports can be bound on this host. With {@code --mode=remote}, probes the UDP ports
+ * of a remote host instead. Results are printed as compact port ranges.
+ * <p>
+ * Usage: {@code UDPPortScanner [--mode=local|remote] [--host=<host>] [--ports=<ranges>] [--concurrency=<n>]
+ * [--rate=<n>] [--timeout=<ms>] [--payload=<text>]}
+ */
 public class UDPPortScanner {
     public static void main(String[] args) {
-        for (int i = 0; i < 65536; i++) {
-            try (DatagramSocket _ = new DatagramSocket(i)) {
-                System.out.println("Port " + i + " is available");
-            } catch (BindException e) {
-                System.out.println("Port " + i + " is already in use");
+        String mode = "local";
+        String host = "localhost";
+        String ports = "1-65535";
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int rate = 0;
+        int timeout = 1000;
+        String payload = "";
+        boolean concurrencySet = false;
+
+        try {
+            for (String arg : args) {
+                String[] parts = arg.split("=", 2);
+                if (!arg.startsWith("--") || parts.length != 2) {
+                    throw new IllegalArgumentException("Invalid argument: " + arg);
+                }
+
+                switch (parts[0]) {
+                    case "--mode" -> mode = parts[1];
+                    case "--host" -> host = parts[1];
+                    case "--ports" -> ports = parts[1];
+                    case "--concurrency" -> {
+                        concurrency = Integer.parseInt(parts[1]);
+                        concurrencySet = true;
+                    }
+                    case "--rate" -> rate = Integer.parseInt(parts[1]);
+                    case "--timeout" -> timeout = Integer.parseInt(parts[1]);
+                    case "--payload" -> payload = parts[1];
+                    default -> throw new IllegalArgumentException("Unknown option: " + parts[0]);
+                }
+            }
+
+            if (!mode.equals("local") && !mode.equals("remote")) {
+                throw new IllegalArgumentException("Unknown mode: " + mode);
             }
-            catch (Exception e) {
-                System.out.println("Error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.out.println("Usage: UDPPortScanner [--mode=local|remote] [--host=<host>] [--ports=<ranges>]"
+                    + " [--concurrency=<n>] [--rate=<ports/s>] [--timeout=<ms>] [--payload=<text>]");
+            return;
+        }
+
+        // Remote probes mostly wait for answers, so many more of them can be in flight than there are cores
+        if (mode.equals("remote") && !concurrencySet) {
+            concurrency = 512;
+        }
+
+        try {
+            List<PortRange> ranges = PortRange.parseList(ports);
+            int total = ranges.stream().mapToInt(PortRange::size).sum();
+            PortScanner scanner = new PortScanner(concurrency, rate, timeout);
+            long start = System.nanoTime();
+
+            if (mode.equals("local")) {
+                BitSet available = scanner.scanLocal(ranges);
+                BitSet unavailable = new BitSet(65536);
+                ranges.forEach((range) -> unavailable.set(range.first(), range.last() + 1));
+                unavailable.andNot(available);
+
+                System.out.println("Scanned " + total + " ports in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                System.out.println("Available (" + available.cardinality() + "): " + PortRange.format(available));
+                System.out.println("In use (" + unavailable.cardinality() + "): " + PortRange.format(unavailable));
+            } else {
+                InetAddress address = InetAddress.getByName(host);
+                PortScanner.ProbeResult result = scanner.probeRemote(
+                        address,
+                        ranges,
+                        payload.getBytes(StandardCharsets.UTF_8)
+                );
+
+                System.out.println("Probed " + total + " ports on " + address + " in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+                System.out.println("Open (" + result.open().cardinality() + "): " + PortRange.format(result.open()));
+                System.out.println("Open or filtered (" + result.silent().cardinality() + "): "
+                        + PortRange.format(result.silent()));
+                System.out.println("Closed (" + result.closed().cardinality() + "): "
+                        + PortRange.format(result.closed()));
             }
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
         }
     }
 }
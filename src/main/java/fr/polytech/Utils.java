@@ -12,6 +12,65 @@ public class Utils {
 
     public static String extractString(ByteBuffer buffer) {
         int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("String length exceeds the packet size: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non-negative int as a varint (7 bits per byte, least significant group first,
+     * high bit set on every byte but the last one). Values below 128 take a single byte.
+     */
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Varints cannot be negative: " + value);
+        }
+
+        while (value >= 0x80) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a varint written by {@link #putVarInt(ByteBuffer, int)}.
+     */
+    public static int extractVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Writes a string as its UTF-8 length (varint) followed by its UTF-8 bytes.
+     */
+    public static void putVarString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        putVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #putVarString(ByteBuffer, String)}.
+     */
+    public static String extractVarString(ByteBuffer buffer) {
+        int length = extractVarInt(buffer);
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("String length exceeds the packet size: " + length);
+        }
+
         byte[] bytes = new byte[length];
         buffer.get(bytes);
         return new String(bytes, StandardCharsets.UTF_8);
@@ -0,0 +1,262 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the rooms of {@link ChatUDPServer}: their members, their deletion and their ids.
+ * <p>
+ * Sessions are detached (no thread) and send to {@link RecordingTransport}s, and fan-outs run inline.
+ */
+class ChatUDPServerTest {
+    private static final int FEATURES = Packet.FLAG_IDS | Packet.FLAG_SEQUENCES;
+
+    private final Map<String, RecordingTransport> transports = new HashMap<>();
+    private Room base;
+
+    @BeforeEach
+    void resetServer() {
+        ChatUDPServer.sessions.clear();
+        ChatUDPServer.clearRooms();
+        ChatUDPServer.fanOut.close();
+        ChatUDPServer.fanOut = new FanOutExecutor(ChatUDPServer.sessions, 1, Integer.MAX_VALUE);
+        base = ChatUDPServer.addRoom(ChatUDPServer.baseRoom);
+    }
+
+    @AfterEach
+    void clearServer() {
+        ChatUDPServer.sessions.clear();
+        ChatUDPServer.clearRooms();
+        ChatUDPServer.fanOut.close();
+    }
+
+    @Test
+    void sendsRoomMessagesToTheMembersOnly() {
+        Room games = ChatUDPServer.addRoom("games");
+        addSession("alice", base);
+        addSession("bob", games);
+        addSession("carol", base);
+        ChatUDPServer.subscribe("carol", "games", true);
+
+        assertEquals(Set.of("bob", "carol"), games.getMembers().keySet());
+        ChatUDPServer.sendRoomMessage("alice", "games", "hi");
+
+        assertEquals(List.of(), roomMessages("alice"));
+        assertEquals(List.of("hi"), roomMessages("bob"));
+        assertEquals(List.of("hi"), roomMessages("carol"));
+    }
+
+    @Test
+    void updatesTheMembersOnSwitchesAndSubscriptions() {
+        Room games = ChatUDPServer.addRoom("games");
+        addSession("bob", games);
+        addSession("carol", base);
+
+        ChatUDPServer.switchRoom("bob", ChatUDPServer.baseRoom);
+        assertEquals(Set.of(), games.getMembers().keySet());
+        assertEquals(Set.of("bob", "carol"), base.getMembers().keySet());
+
+        ChatUDPServer.subscribe("carol", "games", true);
+        ChatUDPServer.switchRoom("carol", "games");
+        assertEquals(Set.of("bob"), base.getMembers().keySet());
+
+        // Still the current room
+        ChatUDPServer.subscribe("carol", "games", false);
+        assertEquals(Set.of("carol"), games.getMembers().keySet());
+
+        // Subscribed, so still received after the switch
+        ChatUDPServer.subscribe("carol", ChatUDPServer.baseRoom, true);
+        ChatUDPServer.switchRoom("carol", ChatUDPServer.baseRoom);
+        assertEquals(Set.of(), games.getMembers().keySet());
+        assertEquals(Set.of("bob", "carol"), base.getMembers().keySet());
+    }
+
+    @Test
+    void grantsSubscriptionsToTheClientsTellingTheRoomsApart() {
+        ChatUDPServer.addRoom("games");
+        Session old = addSession("dave", base, Packet.VERSION_1, 0);
+
+        ChatUDPServer.subscribe("dave", "games", true);
+
+        assertArrayEquals(new int[0], old.getSubscriptions());
+        // A version 1 list is a joined text, so the empty list reads back as one empty name
+        assertEquals(List.of(new Packet.Named(-1, "")), lastOf("dave", PacketType.SUBSCRIPTIONS).readList());
+    }
+
+    @Test
+    void movesAndUnsubscribesTheMembersOfADeletedRoom() {
+        Room games = ChatUDPServer.addRoom("games");
+        Session bob = addSession("bob", games);
+        Session carol = addSession("carol", base);
+        ChatUDPServer.subscribe("carol", "games", true);
+
+        assertTrue(ChatUDPServer.deleteRoom("games"));
+
+        assertEquals(ChatUDPServer.baseRoom, bob.getCurrentRoom());
+        assertArrayEquals(new int[0], carol.getSubscriptions());
+        assertEquals(Set.of("bob", "carol"), base.getMembers().keySet());
+        assertEquals(List.of(), lastOf("carol", PacketType.SUBSCRIPTIONS).readList());
+        assertEquals("room " + base.getId(), lastOf("bob", PacketType.ROOM_SWITCH).readName((id) -> "room " + id));
+    }
+
+    @Test
+    void doesNotBringBackADeletedRoom() {
+        Room games = ChatUDPServer.addRoom("games");
+        Session alice = addSession("alice", base);
+        ChatUDPServer.deleteRoom("games");
+
+        ChatUDPServer.sendRoomMessage("alice", "games", "hi");
+        ChatUDPServer.switchRoom("alice", "games");
+        ChatUDPServer.subscribe("alice", "games", true);
+
+        assertEquals(List.of(ChatUDPServer.baseRoom), roomNames());
+        assertEquals(ChatUDPServer.baseRoom, alice.getCurrentRoom());
+        assertArrayEquals(new int[0], alice.getSubscriptions());
+        assertFalse(games.join(alice), "a deleted room takes no new member");
+        assertFalse(ChatUDPServer.deleteRoom("games"));
+    }
+
+    @Test
+    void keepsTheBaseRoom() {
+        assertFalse(ChatUDPServer.deleteRoom(ChatUDPServer.baseRoom));
+        assertEquals(List.of(ChatUDPServer.baseRoom), roomNames());
+    }
+
+    @Test
+    void reusesTheIdsOfTheDeletedRoomsAndGoesOnWithTheirSequences() {
+        Room first = ChatUDPServer.addRoom("first");
+        Room second = ChatUDPServer.addRoom("second");
+        assertEquals(List.of(0, 1, 2), List.of(base.getId(), first.getId(), second.getId()));
+        for (int i = 0; i < 3; i++) {
+            ChatUDPServer.sendRoomMessage("Server", "first", "message " + i);
+        }
+
+        ChatUDPServer.deleteRoom("first");
+        Room third = ChatUDPServer.addRoom("third");
+        Room fourth = ChatUDPServer.addRoom("fourth");
+
+        assertEquals(1, third.getId(), "the lowest free id is reused");
+        assertEquals(3, third.getChannel().getLastSequence());
+        assertEquals(3, fourth.getId());
+        assertEquals(0, fourth.getChannel().getLastSequence());
+        assertNull(ChatUDPServer.addRoom("third"), "the name is taken");
+    }
+
+    @Test
+    void snapshotsTheRoomsWithTheirIds() {
+        ChatUDPServer.addRoom("first");
+        ChatUDPServer.addRoom("second");
+        ChatUDPServer.sendRoomMessage("Server", "second", "hello");
+        ChatUDPServer.deleteRoom("first");
+
+        ServerSnapshot snapshot = ChatUDPServer.snapshot();
+
+        assertEquals(
+                List.of(
+                        new ServerSnapshot.RoomState(ChatUDPServer.baseRoom, 0, 0),
+                        new ServerSnapshot.RoomState("second", 2, 1)
+                ),
+                snapshot.rooms()
+        );
+        assertEquals(3, snapshot.nextRoomId());
+    }
+
+    @Test
+    void dropsMalformedHellosAndGoesOn() throws Exception {
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), 1234);
+        Thread server;
+        try (InMemoryNetwork network = new InMemoryNetwork(1, InMemoryNetwork.Conditions.PERFECT)) {
+            server = Thread.ofVirtual().start(
+                    () -> ChatUDPServer.serve(new ServerOptions(), network.host(serverAddress.getAddress()))
+            );
+            while (!network.isBound(serverAddress)) {
+                Thread.sleep(10);
+            }
+            Transport client = network.bind(new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 0));
+
+            // Cut short in the type, cut short before the name, and names longer than the packet
+            client.send(ByteBuffer.wrap(new byte[]{0, 0}), serverAddress);
+            client.send(ByteBuffer.allocate(4).putInt(0, PacketType.HELLO.getId()), serverAddress);
+            client.send(hello(Integer.MAX_VALUE).flip(), serverAddress);
+            client.send(hello(-1).flip(), serverAddress);
+            client.send(hello(5).put("alice".getBytes(StandardCharsets.US_ASCII), 0, 4).flip(), serverAddress);
+
+            ByteBuffer valid = ByteBuffer.allocate(32).putInt(PacketType.HELLO.getId());
+            Utils.putString(valid, "alice");
+            client.send(valid.flip(), serverAddress);
+
+            ByteBuffer reply = ByteBuffer.allocate(64);
+            client.receive(reply, 5000);
+            assertEquals(PacketType.PORT.getId(), reply.flip().getInt());
+            assertThrows(SocketTimeoutException.class, () -> client.receive(ByteBuffer.allocate(64), 50));
+        }
+
+        // The server stops once its socket is closed
+        server.join(5000);
+        assertFalse(server.isAlive());
+    }
+
+    private Session addSession(String name, Room room) {
+        return addSession(name, room, Packet.VERSION_2, FEATURES);
+    }
+
+    private Session addSession(String name, Room room, int version, int features) {
+        RecordingTransport transport = new RecordingTransport();
+        Session session = new Session(
+                name, transports.size() + 1, room.getName(), transport, version, features,
+                InetAddress.getLoopbackAddress(), 10000 + transports.size()
+        );
+        transports.put(name, transport);
+        room.join(session);
+        ChatUDPServer.sessions.put(name, session);
+        return session;
+    }
+
+    /**
+     * Returns the messages of the users received by a session (without the notices of the server).
+     */
+    private List<String> roomMessages(String name) {
+        return transports.get(name).getSent()
+                .stream()
+                .filter((packet) -> packet.getType() == PacketType.ROOM_MESSAGE)
+                .filter((packet) -> {
+                    packet.readSequence();
+                    return packet.readName((id) -> id == Packet.SERVER_USER_ID ? null : "user") != null;
+                })
+                .map(PacketReader::readText)
+                .toList();
+    }
+
+    private PacketReader lastOf(String name, PacketType type) {
+        return transports.get(name).getSent()
+                .stream()
+                .filter((packet) -> packet.getType() == type)
+                .reduce((first, second) -> second)
+                .orElseThrow();
+    }
+
+    /**
+     * Returns a HELLO packet announcing a name of the given length, positioned where the name starts.
+     */
+    private static ByteBuffer hello(int nameLength) {
+        return ByteBuffer.allocate(16).putInt(PacketType.HELLO.getId()).putInt(nameLength);
+    }
+
+    private static List<String> roomNames() {
+        byte[] datagram = ChatUDPServer.forgeRoomListPacket().encode(Packet.VERSION_2, 0);
+        return PacketReader.read(ByteBuffer.wrap(datagram)).readList().stream().map(Packet.Named::name).toList();
+    }
+}
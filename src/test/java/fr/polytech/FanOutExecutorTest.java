@@ -0,0 +1,116 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link FanOutExecutor}: recipients, ordering per lane, inline and partitioned fan-outs, and closing.
+ */
+class FanOutExecutorTest {
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Test
+    void sendsInlineBelowTheThreshold() {
+        RecordingTransport transport = addSession("alice", "general");
+        try (FanOutExecutor executor = new FanOutExecutor(sessions, 2, 256)) {
+            executor.submit("general", (session) -> true, Packet.ofText(PacketType.BROADCAST, "hello"));
+
+            // No flush: the packet was sent on the calling thread
+            assertEquals(1, transport.getSent().size());
+        }
+    }
+
+    @Test
+    void sendsToTheMatchingSessionsOnly() {
+        RecordingTransport alice = addSession("alice", "general");
+        RecordingTransport bob = addSession("bob", "random");
+        try (FanOutExecutor executor = new FanOutExecutor(sessions, 2, 0)) {
+            executor.submit(
+                    "general",
+                    (session) -> session.getCurrentRoom().equals("general"),
+                    Packet.ofText(PacketType.ROOM_MESSAGE, "hello")
+            );
+            executor.flush();
+
+            assertEquals(1, alice.getSent().size());
+            assertEquals(0, bob.getSent().size());
+        }
+    }
+
+    @Test
+    void keepsTheOrderOfALaneAcrossPartitions() {
+        int sessionCount = 2000;
+        int messages = 50;
+        RecordingTransport[] transports = new RecordingTransport[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            transports[i] = addSession("user" + i, "general");
+        }
+        try (FanOutExecutor executor = new FanOutExecutor(sessions, 4, 0)) {
+            for (int i = 0; i < messages; i++) {
+                executor.submit("general", (session) -> true, Packet.ofText(PacketType.ROOM_MESSAGE, "message " + i));
+            }
+            executor.flush();
+
+            for (RecordingTransport transport : transports) {
+                List<PacketReader> sent = transport.getSent();
+                assertEquals(messages, sent.size());
+                for (int i = 0; i < messages; i++) {
+                    assertEquals("message " + i, sent.get(i).readText());
+                }
+            }
+        }
+    }
+
+    @Test
+    void sendsControlPacketsOnTheirOwnLane() {
+        RecordingTransport transport = addSession("alice", "general");
+        try (FanOutExecutor executor = new FanOutExecutor(sessions, 2, 0)) {
+            executor.submitControl((session) -> true, Packet.ofText(PacketType.ROOM_SWITCH, "general"));
+            executor.flush();
+
+            assertEquals(PacketType.ROOM_SWITCH, transport.getSent().getFirst().getType());
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> executor.submitControl((session) -> true, Packet.ofText(PacketType.BROADCAST, "hello"))
+            );
+        }
+    }
+
+    @Test
+    void sendsTheSubmittedFanOutsBeforeStopping() {
+        RecordingTransport transport = addSession("alice", "general");
+        FanOutExecutor executor = new FanOutExecutor(sessions, 2, 0);
+
+        executor.submit("general", (session) -> true, Packet.ofText(PacketType.ROOM_MESSAGE, "before"));
+        executor.submitControl((session) -> true, Packet.ofText(PacketType.ROOM_SWITCH, "general"));
+        executor.close();
+        executor.flush();
+
+        assertEquals(2, transport.getSent().size());
+        // Dropped without failing the caller, the server is stopping
+        executor.submit("general", (session) -> true, Packet.ofText(PacketType.ROOM_MESSAGE, "after"));
+        executor.submitControl((session) -> true, Packet.ofText(PacketType.ROOM_SWITCH, "general"));
+        executor.flush();
+        assertEquals(2, transport.getSent().size());
+    }
+
+    private RecordingTransport addSession(String name, String room) {
+        RecordingTransport transport = new RecordingTransport();
+        sessions.put(name, new Session(
+                name,
+                sessions.size() + 1,
+                room,
+                transport,
+                Packet.VERSION_2,
+                0,
+                InetAddress.getLoopbackAddress(),
+                10000
+        ));
+        return transport;
+    }
+}
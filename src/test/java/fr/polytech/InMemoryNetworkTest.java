@@ -0,0 +1,226 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link InMemoryNetwork} used by the simulation and the tests.
+ */
+class InMemoryNetworkTest {
+    private static final InetAddress HOST = InetAddress.getLoopbackAddress();
+
+    private final List<InMemoryNetwork> networks = new ArrayList<>();
+
+    @AfterEach
+    void closeNetworks() {
+        networks.forEach(InMemoryNetwork::close);
+    }
+
+    @Test
+    void deliversInOrderOnAPerfectNetwork() throws IOException {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport sender = network.bind(new InetSocketAddress(HOST, 0));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        for (int i = 0; i < 3; i++) {
+            sender.send(ByteBuffer.wrap(new byte[]{(byte) i}), new InetSocketAddress(HOST, 4000));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            assertEquals(sender.getLocalPort(), receiver.receive(buffer, 1000).getPort());
+            assertEquals(1, buffer.position());
+            assertEquals(i, buffer.get(0));
+        }
+    }
+
+    @Test
+    void losesAndDuplicatesDatagrams() throws IOException {
+        InMemoryNetwork network = newNetwork(1, new InMemoryNetwork.Conditions(0.5, 1, 0, 0, 0));
+        Transport sender = network.bind(new InetSocketAddress(HOST, 0));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        for (int i = 0; i < 400; i++) {
+            sender.send(ByteBuffer.wrap(new byte[]{1}), new InetSocketAddress(HOST, 4000));
+        }
+
+        assertEquals(400, network.getSent());
+        assertTrue(network.getLost() > 100 && network.getLost() < 300, "lost " + network.getLost());
+        assertEquals(400 - network.getLost(), network.getDuplicated(), "every datagram left is duplicated");
+        assertEquals(2 * network.getDuplicated(), drain(receiver));
+    }
+
+    @Test
+    void drawsTheSameDecisionsFromTheSameSeed() throws IOException {
+        InMemoryNetwork.Conditions conditions = new InMemoryNetwork.Conditions(0.3, 0, 0, 0, 0);
+
+        assertEquals(receivedFrom(newNetwork(42, conditions)), receivedFrom(newNetwork(42, conditions)));
+        assertNotEquals(receivedFrom(newNetwork(42, conditions)), receivedFrom(newNetwork(43, conditions)));
+    }
+
+    @Test
+    void dropsTheQueuedDatagramsPastTheCapacity() throws IOException {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport sender = network.bind(new InetSocketAddress(HOST, 0));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        for (int i = 0; i < InMemoryNetwork.QUEUE_CAPACITY + 10; i++) {
+            sender.send(ByteBuffer.wrap(new byte[]{1}), new InetSocketAddress(HOST, 4000));
+        }
+
+        assertEquals(10, network.getDropped());
+        assertEquals(InMemoryNetwork.QUEUE_CAPACITY, drain(receiver));
+    }
+
+    @Test
+    void dropsTheHandedDatagramsPastTheCapacity() throws Exception {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport sender = network.bind(new InetSocketAddress(HOST, 0));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        try (ChatEventLoop loop = new ChatEventLoop()) {
+            AtomicInteger handled = new AtomicInteger();
+            receiver.register(loop, (data) -> handled.incrementAndGet());
+
+            // The loop is kept busy, so that the datagrams pile up
+            CountDownLatch busy = new CountDownLatch(1);
+            loop.execute(() -> {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < InMemoryNetwork.QUEUE_CAPACITY + 10; i++) {
+                sender.send(ByteBuffer.wrap(new byte[]{1}), new InetSocketAddress(HOST, 4000));
+            }
+            assertEquals(10, network.getDropped());
+
+            busy.countDown();
+            CompletableFuture<Integer> count = new CompletableFuture<>();
+            loop.execute(() -> count.complete(handled.get()));
+            assertEquals(InMemoryNetwork.QUEUE_CAPACITY, count.get(5, TimeUnit.SECONDS));
+
+            // Once handled, the datagrams make room for the next ones
+            sender.send(ByteBuffer.wrap(new byte[]{1}), new InetSocketAddress(HOST, 4000));
+            assertEquals(10, network.getDropped());
+        }
+    }
+
+    @Test
+    void handsTheDatagramsQueuedBeforeTheRegistration() throws Exception {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport sender = network.bind(new InetSocketAddress(HOST, 0));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+        sender.send(ByteBuffer.wrap(new byte[]{7}), new InetSocketAddress(HOST, 4000));
+
+        try (ChatEventLoop loop = new ChatEventLoop()) {
+            CompletableFuture<Byte> first = new CompletableFuture<>();
+            receiver.register(loop, (data) -> first.complete(data.get()));
+
+            assertEquals((byte) 7, first.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void wakesUpTheReadersOfAClosedEndpoint() throws Exception {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        CompletableFuture<Exception> failure = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                receiver.receive(ByteBuffer.allocate(16), 0);
+                failure.complete(null);
+            } catch (Exception e) {
+                failure.complete(e);
+            }
+        });
+        Thread.sleep(50);
+        receiver.close();
+
+        assertInstanceOf(SocketException.class, failure.get(5, TimeUnit.SECONDS));
+        assertFalse(network.isBound(new InetSocketAddress(HOST, 4000)));
+        try (ChatEventLoop loop = new ChatEventLoop()) {
+            assertThrows(SocketException.class, () -> receiver.register(loop, (data) -> {
+            }));
+        }
+    }
+
+    @Test
+    void timesOutWhenNothingIsReceived() throws IOException {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+
+        assertThrows(SocketTimeoutException.class, () -> receiver.receive(ByteBuffer.allocate(16), 20));
+    }
+
+    @Test
+    void bindsEachAddressOnce() throws IOException {
+        InMemoryNetwork network = newNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+        network.bind(new InetSocketAddress(HOST, 4000));
+
+        assertThrows(BindException.class, () -> network.bind(new InetSocketAddress(HOST, 4000)));
+        assertNotEquals(network.bind(new InetSocketAddress(HOST, 0)).getLocalPort(),
+                network.bind(new InetSocketAddress(HOST, 0)).getLocalPort());
+    }
+
+    private InMemoryNetwork newNetwork(long seed, InMemoryNetwork.Conditions conditions) {
+        InMemoryNetwork network = new InMemoryNetwork(seed, conditions);
+        networks.add(network);
+        return network;
+    }
+
+    /**
+     * Sends 100 numbered datagrams from one endpoint and returns the numbers received by another.
+     */
+    private static List<Integer> receivedFrom(InMemoryNetwork network) throws IOException {
+        Transport sender = network.bind(new InetSocketAddress(HOST, 5000));
+        Transport receiver = network.bind(new InetSocketAddress(HOST, 4000));
+        for (int i = 0; i < 100; i++) {
+            sender.send(ByteBuffer.wrap(new byte[]{(byte) i}), new InetSocketAddress(HOST, 4000));
+        }
+
+        List<Integer> received = new ArrayList<>();
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            try {
+                receiver.receive(buffer, 20);
+            } catch (SocketTimeoutException e) {
+                return received;
+            }
+            received.add((int) buffer.get(0));
+        }
+    }
+
+    /**
+     * Reads the datagrams queued on an endpoint and returns their number.
+     */
+    private static long drain(Transport receiver) throws IOException {
+        long count = 0;
+        while (true) {
+            try {
+                receiver.receive(ByteBuffer.allocate(16), 20);
+            } catch (SocketTimeoutException e) {
+                return count;
+            }
+            count++;
+        }
+    }
+}
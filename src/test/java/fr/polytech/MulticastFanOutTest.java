@@ -0,0 +1,101 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the multicast groups given to the rooms by {@link MulticastFanOut}, and of the packets telling
+ * the members to join and leave them.
+ */
+class MulticastFanOutTest {
+    private static final byte[] BASE = {(byte) 239, (byte) 255, 42, 0};
+
+    @Test
+    void addsTheRoomIdToTheBaseGroup() {
+        assertEquals(new InetSocketAddress("239.255.42.0", 4446), MulticastFanOut.group(BASE, 4446, 0));
+        assertEquals(new InetSocketAddress("239.255.42.7", 4446), MulticastFanOut.group(BASE, 4446, 7));
+    }
+
+    @Test
+    void carriesIntoTheUpperOctets() {
+        byte[] base = {(byte) 232, 0, (byte) 255, (byte) 255};
+
+        assertEquals(new InetSocketAddress("232.1.0.0", 4446), MulticastFanOut.group(base, 4446, 1));
+        assertEquals(new InetSocketAddress("232.1.0.255", 4446), MulticastFanOut.group(base, 4446, 256));
+        assertEquals(new InetSocketAddress("232.2.0.0", 4446), MulticastFanOut.group(base, 4446, 65537));
+    }
+
+    @Test
+    void givesDistinctGroupsPastTheLowBits() {
+        byte[] base = {(byte) 232, 0, 0, 0};
+
+        assertNotEquals(MulticastFanOut.group(base, 4446, 1), MulticastFanOut.group(base, 4446, 65537));
+    }
+
+    @Test
+    void stopsAtTheLastMulticastAddress() {
+        assertEquals(new InetSocketAddress("239.255.255.255", 4446), MulticastFanOut.group(BASE, 4446, 0xD5FF));
+        assertNull(MulticastFanOut.group(BASE, 4446, 0xD600));
+        assertNull(MulticastFanOut.group(BASE, 4446, -1));
+    }
+
+    @Test
+    void tellsTheMembersOfADeletedRoomToLeaveItsGroup() throws IOException {
+        Map<String, Integer> roomIds = new ConcurrentHashMap<>(Map.of("general", 0, "games", 3));
+        List<Session> sessions = new CopyOnWriteArrayList<>();
+        List<RecordingTransport> transports = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            RecordingTransport transport = new RecordingTransport();
+            transports.add(transport);
+            sessions.add(new Session(
+                    "user" + i, i + 1, "games", transport, Packet.VERSION_2, Packet.FLAG_SEQUENCES | Packet.FLAG_IDS,
+                    InetAddress.getLoopbackAddress(), 10000 + i
+            ));
+        }
+
+        try (MulticastFanOut multicast = new MulticastFanOut(
+                InetAddress.getByAddress(BASE),
+                4446,
+                NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress()),
+                4,
+                () -> sessions,
+                (room) -> roomIds.getOrDefault(room, -1))) {
+            multicast.update();
+            PacketReader offer = lastGroupPacket(transports.getFirst());
+            assertEquals("#3", offer.readName((id) -> "#" + id));
+            assertEquals("239.255.42.3", offer.readText());
+            sessions.forEach((session) -> session.setMulticastMember(true));
+
+            // The room is deleted while one member is still in it
+            roomIds.remove("games");
+            for (int i = 1; i < 4; i++) {
+                sessions.get(i).setCurrentRoom("general");
+            }
+            multicast.update();
+        }
+
+        PacketReader leave = lastGroupPacket(transports.getFirst());
+        assertEquals("#3", leave.readName((id) -> "#" + id), "the id the room had is sent");
+        assertEquals("", leave.readText());
+        assertFalse(sessions.getFirst().isMulticastMember());
+    }
+
+    private static PacketReader lastGroupPacket(RecordingTransport transport) {
+        return transport.getSent()
+                .stream()
+                .filter((packet) -> packet.getType() == PacketType.MULTICAST_GROUP)
+                .toList()
+                .getLast();
+    }
+}
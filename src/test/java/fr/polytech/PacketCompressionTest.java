@@ -0,0 +1,103 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the compressed version 2 packets ({@link Packet#FLAG_COMPRESSED}).
+ */
+class PacketCompressionTest {
+    @Test
+    void compressesBigBodies() {
+        String message = "hello everyone, anyone up for a game tonight? ".repeat(20);
+        Packet packet = Packet.ofText(PacketType.BROADCAST, message);
+
+        byte[] compressed = packet.encode(Packet.VERSION_2, Packet.FLAG_COMPRESSED);
+        assertTrue(compressed.length < packet.encode(Packet.VERSION_2, 0).length);
+
+        PacketReader reader = PacketReader.read(ByteBuffer.wrap(compressed));
+        assertEquals(Packet.FLAG_COMPRESSED, reader.getFlags() & Packet.FLAG_COMPRESSED);
+        assertEquals(PacketType.BROADCAST, reader.getType());
+        assertEquals(message, reader.readText());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    void leavesSmallBodiesUncompressed() {
+        Packet packet = Packet.ofText(PacketType.BROADCAST, "hi");
+
+        byte[] encoded = packet.encode(Packet.VERSION_2, Packet.FLAG_COMPRESSED);
+        assertArrayEquals(packet.encode(Packet.VERSION_2, 0), encoded);
+        assertEquals(0, PacketReader.read(ByteBuffer.wrap(encoded)).getFlags() & Packet.FLAG_COMPRESSED);
+    }
+
+    @Test
+    void leavesIncompressibleBodiesUncompressed() {
+        SplittableRandom random = new SplittableRandom(1);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            noise.append((char) (0x4E00 + random.nextInt(0x5000)));
+        }
+        Packet packet = Packet.ofText(PacketType.BROADCAST, noise.toString());
+
+        PacketReader reader = PacketReader.read(ByteBuffer.wrap(packet.encode(Packet.VERSION_2, Packet.FLAG_COMPRESSED)));
+        assertEquals(noise.toString(), reader.readText());
+    }
+
+    @Test
+    void readsBackCompressedListsWithIds() {
+        List<Packet.Named> users = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            users.add(new Packet.Named(i + 1, "user" + i));
+        }
+        Packet packet = Packet.of(PacketType.USER_LIST, new Packet.NamedList(users));
+
+        byte[] encoded = packet.encode(Packet.VERSION_2, Packet.FLAG_COMPRESSED | Packet.FLAG_IDS);
+        PacketReader reader = PacketReader.read(ByteBuffer.wrap(encoded));
+
+        assertEquals(Packet.FLAG_COMPRESSED | Packet.FLAG_IDS, reader.getFlags());
+        assertEquals(users, reader.readList());
+    }
+
+    @Test
+    void encodesFromManyThreadsWithTheSharedScratchBuffers() throws InterruptedException {
+        // More threads than pooled buffers, all encoding at once
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            String message = ("message " + i + " for everyone in the room ").repeat(10);
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    for (int j = 0; j < 50; j++) {
+                        Packet packet = Packet.ofText(PacketType.BROADCAST, message);
+                        byte[] encoded = packet.encode(Packet.VERSION_2, Packet.FLAG_COMPRESSED);
+                        assertEquals(message, PacketReader.read(ByteBuffer.wrap(encoded)).readText());
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(List.of(), failures);
+    }
+
+    @Test
+    void rejectsCompressedBodiesAnnouncingMoreThanADatagram() {
+        ByteBuffer packet = ByteBuffer.allocate(16);
+        packet.put((byte) Packet.VERSION_2).put((byte) PacketType.BROADCAST.getId()).put((byte) Packet.FLAG_COMPRESSED);
+        Utils.putVarInt(packet, Integer.MAX_VALUE);
+
+        assertThrows(IllegalArgumentException.class, () -> PacketReader.read(packet.flip()));
+    }
+}
@@ -0,0 +1,196 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the wire formats: {@link Packet} encodings read back by {@link PacketReader}, and the varints.
+ */
+class PacketTest {
+    private static final Map<Integer, String> NAMES = Map.of(7, "alice", 3, "general");
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 127, 128, 300, 16383, 16384, 1 << 21, Integer.MAX_VALUE})
+    void readsBackVarInts(int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        Utils.putVarInt(buffer, value);
+        int size = buffer.position();
+        buffer.flip();
+
+        assertEquals(value, Utils.extractVarInt(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertEquals(value < 128 ? 1 : value < 16384 ? 2 : value < 1 << 21 ? 3 : value < 1 << 28 ? 4 : 5, size);
+    }
+
+    @Test
+    void rejectsNegativeVarInts() {
+        assertThrows(IllegalArgumentException.class, () -> Utils.putVarInt(ByteBuffer.allocate(8), -1));
+    }
+
+    @Test
+    void rejectsMalformedVarInts() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80});
+        assertThrows(IllegalArgumentException.class, () -> Utils.extractVarInt(buffer));
+    }
+
+    @Test
+    void rejectsVarStringsLongerThanThePacket() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        Utils.putVarInt(buffer, 100);
+        buffer.put((byte) 'a').flip();
+
+        assertThrows(IllegalArgumentException.class, () -> Utils.extractVarString(buffer));
+    }
+
+    @Test
+    void readsBackVersion1() {
+        PacketReader reader = read(roomMessage(), Packet.VERSION_1, 0);
+
+        assertEquals(Packet.VERSION_1, reader.getVersion());
+        assertEquals(PacketType.ROOM_MESSAGE, reader.getType());
+        assertNull(reader.readSequence(), "version 1 has no sequence numbers");
+        assertEquals("alice", reader.readName(NAMES::get));
+        assertEquals("h\u00e9llo w\u00f6rld", reader.readText());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    void readsBackVersion2WithNames() {
+        PacketReader reader = read(roomMessage(), Packet.VERSION_2, 0);
+
+        assertEquals(Packet.VERSION_2, reader.getVersion());
+        assertEquals(PacketType.ROOM_MESSAGE, reader.getType());
+        assertNull(reader.readSequence());
+        assertEquals("alice", reader.readName((id) -> fail("names are sent as text")));
+        assertEquals("h\u00e9llo w\u00f6rld", reader.readText());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    void readsBackVersion2WithIdsAndSequences() {
+        PacketReader reader = read(roomMessage(), Packet.VERSION_2, Packet.FLAG_IDS | Packet.FLAG_SEQUENCES);
+
+        assertEquals(Packet.FLAG_IDS | Packet.FLAG_SEQUENCES, reader.getFlags());
+        assertEquals(new Packet.Sequence(3, 42), reader.readSequence());
+        assertEquals("alice", reader.readName(NAMES::get));
+        assertEquals("h\u00e9llo w\u00f6rld", reader.readText());
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test
+    void tellsTheFormatsApartFromTheFirstByte() {
+        Packet packet = roomMessage();
+
+        assertEquals(0, packet.encode(Packet.VERSION_1, 0)[0]);
+        assertEquals(Packet.VERSION_2, packet.encode(Packet.VERSION_2, 0)[0]);
+    }
+
+    @Test
+    void makesVersion2Smaller() {
+        Packet packet = roomMessage();
+
+        assertTrue(packet.encode(Packet.VERSION_2, Packet.FLAG_IDS).length < packet.encode(Packet.VERSION_1, 0).length);
+    }
+
+    @Test
+    void readsBackLists() {
+        Packet packet = Packet.of(PacketType.USER_LIST, new Packet.NamedList(List.of(
+                new Packet.Named(7, "alice"),
+                new Packet.Named(9, "bob")
+        )));
+
+        assertEquals(
+                List.of(new Packet.Named(-1, "alice"), new Packet.Named(-1, "bob")),
+                read(packet, Packet.VERSION_1, 0).readList()
+        );
+        assertEquals(
+                List.of(new Packet.Named(-1, "alice"), new Packet.Named(-1, "bob")),
+                read(packet, Packet.VERSION_2, 0).readList()
+        );
+        assertEquals(
+                List.of(new Packet.Named(7, "alice"), new Packet.Named(9, "bob")),
+                read(packet, Packet.VERSION_2, Packet.FLAG_IDS).readList()
+        );
+    }
+
+    @Test
+    void readsBackNumbers() {
+        Packet packet = Packet.of(PacketType.RESEND, new Packet.Int(3), new Packet.Int(0), new Packet.Int(1000));
+
+        for (int version : new int[]{Packet.VERSION_1, Packet.VERSION_2}) {
+            PacketReader reader = read(packet, version, 0);
+            assertEquals(3, reader.readInt());
+            assertEquals(0, reader.readInt());
+            assertEquals(1000, reader.readInt());
+            assertFalse(reader.hasRemaining());
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersionsAndTypes() {
+        assertThrows(IllegalArgumentException.class, () -> PacketReader.read(ByteBuffer.wrap(new byte[]{9, 1, 0})));
+        assertThrows(IllegalArgumentException.class, () -> PacketReader.read(ByteBuffer.wrap(new byte[]{2, 99, 0})));
+        assertThrows(IllegalArgumentException.class, () -> PacketReader.read(ByteBuffer.wrap(new byte[]{0, 0, 0, 99})));
+    }
+
+    @Test
+    void cachesOneEncodingPerFormat() {
+        Packet packet = roomMessage();
+
+        assertSame(packet.encode(Packet.VERSION_1, 0), packet.encode(Packet.VERSION_1, 0));
+        assertSame(packet.encode(Packet.VERSION_2, Packet.FLAG_IDS), packet.encode(Packet.VERSION_2, Packet.FLAG_IDS));
+        assertNotSame(packet.encode(Packet.VERSION_2, 0), packet.encode(Packet.VERSION_2, Packet.FLAG_IDS));
+    }
+
+    @Test
+    void sharesTheEncodingBetweenRacingThreads() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 100; round++) {
+                Packet packet = roomMessage();
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?>[] encodings = new Future<?>[threads];
+                for (int i = 0; i < threads; i++) {
+                    encodings[i] = executor.submit(() -> {
+                        start.await();
+                        return packet.encode(Packet.VERSION_2, Packet.FLAG_IDS);
+                    });
+                }
+                start.countDown();
+
+                Object first = encodings[0].get(5, TimeUnit.SECONDS);
+                for (Future<?> encoding : encodings) {
+                    assertSame(first, encoding.get(5, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Packet roomMessage() {
+        return Packet.of(
+                PacketType.ROOM_MESSAGE,
+                new Packet.Sequence(3, 42),
+                new Packet.Named(7, "alice"),
+                new Packet.Text("h\u00e9llo w\u00f6rld")
+        );
+    }
+
+    private static PacketReader read(Packet packet, int version, int features) {
+        return PacketReader.read(ByteBuffer.wrap(packet.encode(version, features)));
+    }
+}
@@ -0,0 +1,61 @@
+package fr.polytech;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Unbound transport that records the packets sent through it, so that tests can check what a session sent.
+ */
+class RecordingTransport implements Transport {
+    /**
+     * Packets sent, in order (guarded by the transport)
+     */
+    private final List<byte[]> sent = new ArrayList<>();
+
+    @Override
+    public int getLocalPort() {
+        return 0;
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer data, InetSocketAddress target) {
+        byte[] packet = new byte[data.remaining()];
+        data.get(packet);
+        sent.add(packet);
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer buffer, int timeoutMillis) {
+        throw new UnsupportedOperationException("Recording transports only send");
+    }
+
+    @Override
+    public void register(ChatEventLoop loop, Consumer<ByteBuffer> handler) {
+        throw new UnsupportedOperationException("Recording transports only send");
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns the packets sent so far, read back.
+     *
+     * @return a reader of each sent packet, in order
+     */
+    synchronized List<PacketReader> getSent() {
+        return sent.stream().map((packet) -> PacketReader.read(ByteBuffer.wrap(packet))).toList();
+    }
+}
@@ -0,0 +1,187 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the ordering of the sequenced channels: {@link SequencedChannel} on the server,
+ * {@link ReorderBuffer} on the client, and the RESEND of the missing messages between them.
+ */
+class ReorderBufferTest {
+    private static final long TIMEOUT = 50;
+
+    private final ChatEventLoop loop;
+    /**
+     * What the buffer did, only used on the loop thread
+     */
+    private final List<Integer> delivered = new ArrayList<>();
+    private final List<int[]> missing = new ArrayList<>();
+    private final List<Integer> lost = new ArrayList<>();
+
+    ReorderBufferTest() throws IOException {
+        loop = new ChatEventLoop();
+    }
+
+    @AfterEach
+    void closeLoop() {
+        loop.close();
+    }
+
+    @Test
+    void deliversInOrderMessagesRightAway() throws Exception {
+        ReorderBuffer buffer = newBuffer(8);
+
+        onLoop(() -> offer(buffer, 1, 2, 3));
+
+        assertEquals(List.of(1, 2, 3), onLoop(() -> List.copyOf(delivered)));
+        assertTrue(onLoop(missing::isEmpty));
+    }
+
+    @Test
+    void reordersAndAsksOnceForTheGap() throws Exception {
+        ReorderBuffer buffer = newBuffer(8);
+
+        onLoop(() -> offer(buffer, 1, 4, 3));
+        assertEquals(List.of(1), onLoop(() -> List.copyOf(delivered)));
+
+        onLoop(() -> offer(buffer, 2));
+        assertEquals(List.of(1, 2, 3, 4), onLoop(() -> List.copyOf(delivered)));
+        assertEquals(1, onLoop(missing::size));
+        assertArrayEquals(new int[]{2, 3}, onLoop(() -> missing.getFirst()));
+        assertTrue(onLoop(lost::isEmpty));
+    }
+
+    @Test
+    void dropsDuplicatesAndLateMessages() throws Exception {
+        ReorderBuffer buffer = newBuffer(8);
+
+        onLoop(() -> offer(buffer, 1, 2, 2, 4, 4, 3, 1));
+
+        assertEquals(List.of(1, 2, 3, 4), onLoop(() -> List.copyOf(delivered)));
+    }
+
+    @Test
+    void givesUpOnLostMessagesAfterTheTimeout() throws Exception {
+        ReorderBuffer buffer = newBuffer(8);
+
+        onLoop(() -> offer(buffer, 1, 3, 4));
+        assertEquals(List.of(1), onLoop(() -> List.copyOf(delivered)));
+
+        Thread.sleep(TIMEOUT * 4);
+        assertEquals(List.of(1, 3, 4), onLoop(() -> List.copyOf(delivered)));
+        assertEquals(List.of(1), onLoop(() -> List.copyOf(lost)));
+    }
+
+    @Test
+    void givesUpOnTheGapWhenFull() throws Exception {
+        ReorderBuffer buffer = newBuffer(2);
+
+        onLoop(() -> offer(buffer, 1, 4, 5, 6));
+
+        assertEquals(List.of(1, 4, 5, 6), onLoop(() -> List.copyOf(delivered)));
+        assertEquals(List.of(2), onLoop(() -> List.copyOf(lost)));
+    }
+
+    @Test
+    void startsFromTheFirstMessageReceived() throws Exception {
+        ReorderBuffer buffer = newBuffer(8);
+
+        onLoop(() -> offer(buffer, 40, 41));
+
+        assertEquals(List.of(40, 41), onLoop(() -> List.copyOf(delivered)));
+        assertTrue(onLoop(missing::isEmpty));
+    }
+
+    @Test
+    void recoversLostMessagesFromTheHistoryOfTheChannel() throws Exception {
+        SequencedChannel channel = new SequencedChannel(7, 16);
+        List<Packet> sent = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            sent.add(channel.stamp((sequence) -> Packet.of(PacketType.ROOM_MESSAGE, sequence, new Packet.Text("m"))));
+        }
+
+        // Messages 3 and 4 are lost, the client asks for them and the server sends them again from the history
+        List<Packet> resent = new ArrayList<>();
+        ReorderBuffer[] buffer = new ReorderBuffer[1];
+        buffer[0] = new ReorderBuffer(loop, 8, 10_000, (first, last) -> {
+            for (int sequence = first; sequence <= last; sequence++) {
+                resent.add(channel.get(sequence));
+                int value = sequence;
+                loop.execute(() -> buffer[0].offer(value, () -> delivered.add(value)));
+            }
+        }, lost::add);
+        onLoop(() -> offer(buffer[0], 1, 2, 5, 6));
+
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), onLoop(() -> List.copyOf(delivered)));
+        assertEquals(sent.subList(2, 4), onLoop(() -> List.copyOf(resent)));
+        assertTrue(onLoop(lost::isEmpty));
+    }
+
+    @Test
+    void keepsALimitedHistory() {
+        SequencedChannel channel = new SequencedChannel(0, 4);
+        for (int i = 0; i < 10; i++) {
+            channel.stamp((sequence) -> Packet.of(PacketType.BROADCAST, sequence, new Packet.Text("m")));
+        }
+
+        assertEquals(10, channel.getLastSequence());
+        assertNull(channel.get(6), "evicted from the history");
+        assertNotNull(channel.get(7));
+        assertNotNull(channel.get(10));
+        assertNull(channel.get(11), "not sent yet");
+        assertNull(channel.get(0));
+    }
+
+    @Test
+    void goesOnFromARestoredSequence() {
+        SequencedChannel channel = new SequencedChannel(3, 4);
+        channel.restore(41);
+
+        Packet packet = channel.stamp((sequence) -> Packet.of(PacketType.ROOM_MESSAGE, sequence, new Packet.Text("m")));
+
+        assertEquals(42, channel.getLastSequence());
+        assertSame(packet, channel.get(42));
+        assertNull(channel.get(41), "the messages of the previous run are not in the history");
+    }
+
+    private ReorderBuffer newBuffer(int capacity) {
+        return new ReorderBuffer(loop, capacity, TIMEOUT, (first, last) -> missing.add(new int[]{first, last}), lost::add);
+    }
+
+    private void offer(ReorderBuffer buffer, int... sequences) {
+        for (int sequence : sequences) {
+            buffer.offer(sequence, () -> delivered.add(sequence));
+        }
+    }
+
+    private void onLoop(Runnable task) throws Exception {
+        onLoop(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a task on the loop thread, where the buffers live, and waits for its result.
+     */
+    private <T> T onLoop(Supplier<T> task) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        loop.execute(() -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(5, TimeUnit.SECONDS);
+    }
+}
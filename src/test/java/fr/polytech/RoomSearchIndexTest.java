@@ -0,0 +1,115 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link RoomSearchIndex}: queries, pages and the memory budget.
+ */
+class RoomSearchIndexTest {
+    private static final long MEMORY = 1024 * 1024;
+
+    @Test
+    void findsTheMessagesContainingEveryWord() {
+        RoomSearchIndex index = new RoomSearchIndex(MEMORY);
+        index.add("alice", "Anyone up for a game tonight?");
+        index.add("bob", "No game for me");
+        index.add("carol", "Tonight I play chess");
+
+        assertEquals(List.of("bob", "alice"), senders(index.search("game", 0)));
+        assertEquals(List.of("alice"), senders(index.search("GAME tonight", 0)));
+        assertEquals(List.of("carol", "alice"), senders(index.search("tonight!", 0)));
+        assertEquals(List.of(), senders(index.search("game chess", 0)));
+        assertEquals(List.of(), senders(index.search("missing", 0)));
+        assertEquals(List.of(), senders(index.search("  ?! ", 0)), "a query without words matches nothing");
+    }
+
+    @Test
+    void pagesTheResultsNewestFirst() {
+        RoomSearchIndex index = new RoomSearchIndex(MEMORY);
+        for (int i = 0; i < 25; i++) {
+            index.add("alice", "hello " + i);
+        }
+
+        List<String> messages = new ArrayList<>();
+        int pages = 0;
+        int cursor = 0;
+        do {
+            RoomSearchIndex.Page page = index.search("hello", cursor);
+            assertTrue(page.hits().size() <= RoomSearchIndex.PAGE_SIZE);
+            page.hits().forEach((hit) -> messages.add(hit.message()));
+            cursor = page.next();
+            pages++;
+        } while (cursor != 0);
+
+        assertEquals(3, pages);
+        assertEquals(25, messages.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals("hello " + (24 - i), messages.get(i));
+        }
+    }
+
+    @Test
+    void keepsTheCursorsValidWhileMessagesAreAdded() {
+        RoomSearchIndex index = new RoomSearchIndex(MEMORY);
+        for (int i = 0; i < 15; i++) {
+            index.add("alice", "hello " + i);
+        }
+        RoomSearchIndex.Page first = index.search("hello", 0);
+
+        index.add("bob", "hello again");
+        RoomSearchIndex.Page second = index.search("hello", first.next());
+
+        assertEquals("hello 4", second.hits().getFirst().message());
+        assertEquals(0, second.next());
+    }
+
+    @Test
+    void forgetsTheOldestMessagesOverTheBudget() {
+        RoomSearchIndex index = new RoomSearchIndex(4096);
+        for (int i = 0; i < 1000; i++) {
+            index.add("alice", "message number " + i + " word" + i);
+        }
+
+        assertEquals(List.of(), senders(index.search("word0", 0)), "the oldest messages are forgotten");
+        assertEquals("message number 999 word999", index.search("word999", 0).hits().getFirst().message());
+
+        // What is left is still paged from the newest one down to the oldest one kept
+        int found = 0;
+        int cursor = 0;
+        String oldest = null;
+        do {
+            RoomSearchIndex.Page page = index.search("message", cursor);
+            found += page.hits().size();
+            oldest = page.hits().isEmpty() ? oldest : page.hits().getLast().message();
+            cursor = page.next();
+        } while (cursor != 0);
+        assertTrue(found > 0 && found < 1000, found + " messages kept");
+        assertEquals("message number " + (1000 - found) + " word" + (1000 - found), oldest);
+    }
+
+    @Test
+    void keepsTheLastMessageWhateverItsSize() {
+        RoomSearchIndex index = new RoomSearchIndex(16);
+        index.add("alice", "first");
+        index.add("alice", "second " + "x".repeat(500));
+
+        assertEquals(List.of(), senders(index.search("first", 0)));
+        assertEquals(List.of("alice"), senders(index.search("second", 0)));
+    }
+
+    @Test
+    void splitsTheWordsOnLettersAndDigits() {
+        assertEquals(Set.of("caf\u00e9", "2024", "it", "s", "ok"), RoomSearchIndex.words("Caf\u00e9-2024: it's OK"));
+        assertEquals(32, RoomSearchIndex.words("a".repeat(100)).iterator().next().length());
+    }
+
+    private static List<String> senders(RoomSearchIndex.Page page) {
+        return page.hits().stream().map(SearchHit::sender).toList();
+    }
+}
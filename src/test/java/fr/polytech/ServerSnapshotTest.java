@@ -0,0 +1,143 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link ServerSnapshot} file.
+ */
+class ServerSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        ServerSnapshot snapshot = snapshot();
+        Path file = directory.resolve("server.snapshot");
+
+        snapshot.write(file);
+
+        assertEquals(snapshot, ServerSnapshot.read(file));
+    }
+
+    @Test
+    void replacesThePreviousSnapshot() throws IOException {
+        Path file = directory.resolve("server.snapshot");
+        new ServerSnapshot(1, 1, 1, 0, List.of(), List.of()).write(file);
+
+        snapshot().write(file);
+
+        assertEquals(snapshot(), ServerSnapshot.read(file));
+        assertFalse(Files.exists(directory.resolve("server.snapshot.tmp")), "the temporary file was renamed");
+    }
+
+    @Test
+    void rejectsCorruptedFiles() throws IOException {
+        Path file = directory.resolve("server.snapshot");
+        snapshot().write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        IOException error = assertThrows(IOException.class, () -> ServerSnapshot.read(file));
+        assertEquals("Snapshot checksum mismatch", error.getMessage());
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        Path file = directory.resolve("server.snapshot");
+        snapshot().write(file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> ServerSnapshot.read(file));
+
+        Files.write(file, new byte[3]);
+        assertThrows(IOException.class, () -> ServerSnapshot.read(file));
+    }
+
+    @Test
+    void readsTheFilesWrittenBeforeTheSubscriptions() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x43484154);
+        out.writeInt(1);
+        out.writeLong(1_700_000_000_000L);
+        out.writeInt(3);
+        out.writeInt(2);
+        out.writeInt(10);
+        out.writeInt(1);
+        out.writeUTF("general");
+        out.writeInt(1);
+        out.writeInt(42);
+        out.writeInt(1);
+        out.writeUTF("alice");
+        out.writeInt(2);
+        out.writeUTF("general");
+        out.writeInt(20001);
+        out.writeInt(Packet.VERSION_2);
+        out.writeInt(Packet.FLAG_IDS);
+        out.writeByte(0);
+        out.writeUTF("secret");
+        out.writeInt(4);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        Path file = directory.resolve("server.snapshot");
+        Files.write(file, bytes.toByteArray());
+
+        assertEquals(
+                new ServerSnapshot(
+                        1_700_000_000_000L, 3, 2, 10,
+                        List.of(new ServerSnapshot.RoomState("general", 1, 42)),
+                        List.of(new ServerSnapshot.SessionState(
+                                "alice", 2, "general", 20001, Packet.VERSION_2, Packet.FLAG_IDS, null, "secret", 4,
+                                List.of()
+                        ))
+                ),
+                ServerSnapshot.read(file)
+        );
+    }
+
+    private static ServerSnapshot snapshot() throws IOException {
+        return new ServerSnapshot(
+                1_700_000_000_000L,
+                12,
+                4,
+                250,
+                List.of(
+                        new ServerSnapshot.RoomState("general", 1, 120),
+                        new ServerSnapshot.RoomState("random", 3, 0)
+                ),
+                List.of(
+                        new ServerSnapshot.SessionState(
+                                "alice", 7, "general", 20001, Packet.VERSION_2, Packet.FLAG_IDS | Packet.FLAG_SEQUENCES,
+                                new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 40000), "secret", 5,
+                                List.of(3)
+                        ),
+                        new ServerSnapshot.SessionState(
+                                "b\u00f6b", 11, "random", 20002, Packet.VERSION_1, 0,
+                                null, "other", 0, List.of()
+                        ),
+                        new ServerSnapshot.SessionState(
+                                "carol", 9, "general", 20003, Packet.VERSION_2, 0,
+                                new InetSocketAddress(InetAddress.getByName("::1"), 40001), "token", 0, List.of()
+                        )
+                )
+        );
+    }
+}
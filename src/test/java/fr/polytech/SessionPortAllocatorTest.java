@@ -0,0 +1,109 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link SessionPortAllocator}, over an {@link InMemoryNetwork} so that no real port is bound.
+ */
+class SessionPortAllocatorTest {
+    private final InMemoryNetwork network = new InMemoryNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+    private final Transport.Binder binder = network.host(InetAddress.getLoopbackAddress());
+
+    @AfterEach
+    void closeNetwork() {
+        network.close();
+    }
+
+    @Test
+    void handsOutEveryPortOfTheRangeOnce() {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20003), 0, 0)) {
+            Set<Integer> ports = new HashSet<>();
+            for (int i = 0; i < 4; i++) {
+                Transport transport = allocator.acquire();
+                assertNotNull(transport);
+                assertTrue(transport.getLocalPort() >= 20000 && transport.getLocalPort() <= 20003);
+                ports.add(transport.getLocalPort());
+            }
+
+            assertEquals(4, ports.size());
+            assertNull(allocator.acquire(), "the range is exhausted");
+        }
+    }
+
+    @Test
+    void keepsReleasedSocketsInQuarantine() {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20000), 0, 60_000)) {
+            Transport transport = allocator.acquire();
+            assertNotNull(transport);
+
+            allocator.release(transport);
+            assertNull(allocator.acquire(), "the only port is quarantined");
+        }
+    }
+
+    @Test
+    void reusesSocketsOnceTheirQuarantineIsOver() {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20000), 0, 0)) {
+            Transport transport = allocator.acquire();
+            allocator.release(transport);
+
+            assertSame(transport, allocator.acquire());
+        }
+    }
+
+    @Test
+    void freesThePortOfASocketClosedWhileInUse() {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20000), 0, 60_000)) {
+            Transport transport = allocator.acquire();
+            transport.close();
+            allocator.release(transport);
+
+            Transport next = allocator.acquire();
+            assertNotNull(next, "the port of the closed socket is free again");
+            assertEquals(20000, next.getLocalPort());
+        }
+    }
+
+    @Test
+    void acquiresAGivenPortOfTheRange() {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20009), 0, 0)) {
+            Transport transport = allocator.acquire(20005);
+            assertNotNull(transport);
+            assertEquals(20005, transport.getLocalPort());
+
+            assertNull(allocator.acquire(20005), "the port is already in use");
+            assertNull(allocator.acquire(30000), "the port is outside the range");
+        }
+    }
+
+    @Test
+    void fillsTheWarmPoolInTheBackground() throws InterruptedException {
+        try (SessionPortAllocator allocator = new SessionPortAllocator(binder, new PortRange(20000, 20099), 8, 0)) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (countBound(20000, 20099) < 8 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(8, countBound(20000, 20099));
+            assertNotNull(allocator.acquire());
+        }
+    }
+
+    private int countBound(int first, int last) {
+        int bound = 0;
+        for (int port = first; port <= last; port++) {
+            if (network.isBound(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+                bound++;
+            }
+        }
+        return bound;
+    }
+}
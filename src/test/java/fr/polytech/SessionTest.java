@@ -0,0 +1,217 @@
+package fr.polytech;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the packets a {@link Session} receives from its client, over an {@link InMemoryNetwork},
+ * and of the order of the packets it sends.
+ */
+class SessionTest {
+    private static final InetSocketAddress SESSION_ADDRESS =
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 20000);
+
+    private final InMemoryNetwork network = new InMemoryNetwork(1, InMemoryNetwork.Conditions.PERFECT);
+    /**
+     * What the hooks of the session were called with
+     */
+    private final BlockingQueue<String> calls = new LinkedBlockingQueue<>();
+    /**
+     * Channel the RESEND packets of the client are answered from
+     */
+    private final SequencedChannel channel = new SequencedChannel(0, 16);
+    private final Transport client;
+    private final Transport transport;
+
+    SessionTest() throws IOException {
+        client = network.bind(new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 0));
+        transport = network.bind(SESSION_ADDRESS);
+    }
+
+    @AfterEach
+    void closeNetwork() {
+        network.close();
+    }
+
+    @Test
+    void dropsMalformedPacketsAndGoesOn() throws Exception {
+        newSession();
+
+        send(new byte[]{99});
+        // The recipient is there but the message is missing
+        send(Packet.ofText(PacketType.PRIVATE, "bob").encode(Packet.VERSION_2, 0));
+        // A RESEND cut short
+        send(Packet.of(PacketType.RESEND, new Packet.Int(PacketType.ROOM_MESSAGE.getId())).encode(Packet.VERSION_2, 0));
+        send(Packet.ofText(PacketType.ROOM_MESSAGE, "hello").encode(Packet.VERSION_2, 0));
+
+        assertEquals("room general hello", calls.poll(5, TimeUnit.SECONDS));
+        assertNull(calls.poll(50, TimeUnit.MILLISECONDS), "the malformed packets reached no hook");
+    }
+
+    @Test
+    void dropsOversizedPackets() throws Exception {
+        newSession();
+
+        send(Packet.ofText(PacketType.BROADCAST, "x".repeat(Packet.MAX_CLIENT_SIZE)).encode(Packet.VERSION_2, 0));
+        send(Packet.ofText(PacketType.BROADCAST, "hi").encode(Packet.VERSION_2, 0));
+
+        assertEquals("broadcast hi", calls.poll(5, TimeUnit.SECONDS));
+        assertNull(calls.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void answersTheFirstHeartbeatOnly() throws Exception {
+        newSession();
+
+        send(Packet.of(PacketType.HEARTBEAT).encode(Packet.VERSION_2, 0));
+        send(Packet.of(PacketType.HEARTBEAT).encode(Packet.VERSION_2, 0));
+
+        assertEquals(PacketType.USER_LIST, receive().getType());
+        assertEquals(PacketType.ROOM_LIST, receive().getType());
+        assertEquals(PacketType.ROOM_SWITCH, receive().getType());
+        assertThrows(SocketTimeoutException.class, () -> client.receive(ByteBuffer.allocate(64), 50));
+    }
+
+    @Test
+    void answersTheResendRangesWithinBounds() throws Exception {
+        for (int i = 1; i <= 2; i++) {
+            String message = "message " + i;
+            channel.stamp((sequence) -> Packet.of(PacketType.ROOM_MESSAGE, sequence, new Packet.Text(message)));
+        }
+        newSession();
+        send(Packet.of(PacketType.HEARTBEAT).encode(Packet.VERSION_2, 0));
+        for (int i = 0; i < 3; i++) {
+            receive();
+        }
+
+        // The end of the range is the largest sequence number, so a loop up to it would never end
+        sendResend(Integer.MAX_VALUE - 63, Integer.MAX_VALUE);
+        sendResend(0, 2);
+        sendResend(2, 1);
+        sendResend(1, 2);
+        send(Packet.ofText(PacketType.ROOM_MESSAGE, "hello").encode(Packet.VERSION_2, 0));
+
+        assertEquals("room general hello", calls.poll(5, TimeUnit.SECONDS));
+        assertEquals("message 1", receive().readText());
+        assertEquals("message 2", receive().readText());
+        assertThrows(SocketTimeoutException.class, () -> client.receive(ByteBuffer.allocate(64), 50));
+    }
+
+    @Test
+    void sendsTheQueuedControlPacketsFirst() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingTransport recording = new RecordingTransport() {
+            @Override
+            public void send(ByteBuffer data, InetSocketAddress target) {
+                if (sending.getCount() > 0) {
+                    // The first packet holds the transport until released
+                    sending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.send(data, target);
+            }
+        };
+        Session session = new Session(
+                "alice", 1, "general", recording, Packet.VERSION_2, 0, InetAddress.getLoopbackAddress(), 10000
+        );
+
+        Thread first = Thread.ofVirtual().start(() -> session.send(Packet.ofText(PacketType.ROOM_MESSAGE, "1")));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        session.send(Packet.ofText(PacketType.ROOM_MESSAGE, "2"));
+        session.send(Packet.ofText(PacketType.ROOM_MESSAGE, "3"));
+        session.send(Packet.of(PacketType.USER_LIST, new Packet.NamedList(List.of())));
+        release.countDown();
+        first.join(5000);
+
+        List<PacketReader> sent = recording.getSent();
+        assertEquals(
+                List.of(
+                        PacketType.ROOM_MESSAGE, PacketType.USER_LIST, PacketType.ROOM_MESSAGE, PacketType.ROOM_MESSAGE
+                ),
+                sent.stream().map(PacketReader::getType).toList()
+        );
+        assertEquals("2", sent.get(2).readText());
+        assertEquals("3", sent.get(3).readText());
+    }
+
+    @Test
+    void keepsTheSubscriptionsAsABitset() {
+        Session session = new Session(
+                "alice", 1, "general", new RecordingTransport(), Packet.VERSION_2, 0,
+                InetAddress.getLoopbackAddress(), 10000
+        );
+        assertArrayEquals(new int[0], session.getSubscriptions());
+        assertFalse(session.isSubscribed(1000), "ids past the bitset are not subscribed");
+
+        for (int roomId : new int[]{200, 0, 64, 63}) {
+            session.setSubscribed(roomId, true);
+        }
+        assertArrayEquals(new int[]{0, 63, 64, 200}, session.getSubscriptions());
+        assertTrue(session.isSubscribed(63));
+        assertFalse(session.isSubscribed(65));
+
+        session.setSubscribed(200, false);
+        session.setSubscribed(0, false);
+        session.setSubscribed(500, false);
+        assertArrayEquals(new int[]{63, 64}, session.getSubscriptions());
+        assertFalse(session.isSubscribed(200));
+        assertFalse(session.isSubscribed(500));
+    }
+
+    private void newSession() {
+        new Session(
+                "alice", 1, "general", transport, Packet.VERSION_2, 0, "token", null,
+                () -> calls.add("timeout"),
+                (message) -> calls.add("broadcast " + message),
+                (recipient, message) -> calls.add("private " + recipient + " " + message),
+                () -> Packet.of(PacketType.USER_LIST, new Packet.NamedList(List.of())),
+                () -> Packet.of(PacketType.ROOM_LIST, new Packet.NamedList(List.of())),
+                (room) -> Packet.ofText(PacketType.ROOM_SWITCH, room),
+                (type, id) -> channel,
+                (room) -> calls.add("create " + room),
+                (room) -> calls.add("delete " + room),
+                (room, message) -> calls.add("room " + room + " " + message),
+                (room) -> calls.add("switch " + room),
+                (query, before) -> Packet.of(PacketType.SEARCH_RESULTS),
+                (room, subscribed) -> calls.add((subscribed ? "subscribe " : "unsubscribe ") + room)
+        );
+    }
+
+    private void sendResend(int first, int last) throws IOException {
+        send(Packet.of(
+                PacketType.RESEND,
+                new Packet.Int(PacketType.ROOM_MESSAGE.getId()),
+                new Packet.Int(0),
+                new Packet.Int(first),
+                new Packet.Int(last)
+        ).encode(Packet.VERSION_2, 0));
+    }
+
+    private void send(byte[] datagram) throws IOException {
+        client.send(ByteBuffer.wrap(datagram), SESSION_ADDRESS);
+    }
+
+    private PacketReader receive() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Packet.MAX_SIZE);
+        client.receive(buffer, 5000);
+        return PacketReader.read(buffer.flip());
+    }
+}